@@ -1,13 +1,21 @@
 package ru.vadirss.bot;
 
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.generics.BotSession;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 import ru.vadirss.bot.config.Config;
 import ru.vadirss.bot.db.Database;
+import ru.vadirss.bot.db.QueryPlanCheck;
 import ru.vadirss.bot.db.Schema;
+import ru.vadirss.bot.scheduler.ChallengePrefetcher;
 import ru.vadirss.bot.scheduler.SchedulerService;
 import ru.vadirss.bot.service.*;
+import ru.vadirss.bot.telegram.OutboxSender;
 import ru.vadirss.bot.telegram.VadirssBot;
+import ru.vadirss.bot.telegram.WebhookServer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public final class App {
 
@@ -18,7 +26,20 @@ public final class App {
         System.out.println("Config dbPath=" + cfg.dbPath().toAbsolutePath());
 
         Database db = new Database(cfg);
+        // filled in stop order once everything runs; the database goes last
+        List<AutoCloseable> stopOrder = new CopyOnWriteArrayList<>();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (AutoCloseable s : stopOrder) {
+                try {
+                    s.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            db.close();
+        }, "vadirss-shutdown"));
         Schema.migrate(db);
+        QueryPlanCheck.verify(db);
 
         try (var c = db.getConnection();
              var st = c.createStatement();
@@ -30,7 +51,7 @@ public final class App {
 
         // --- Services ---
         UserService userService = new UserService(db);
-        TeamService teamService = new TeamService(db);
+        TeamService teamService = new TeamService(db, userService);
         ScheduleService scheduleService = new ScheduleService(db);
         TrainingSessionService trainingSessionService = new TrainingSessionService(db, cfg, scheduleService);
 
@@ -40,15 +61,18 @@ public final class App {
         AiService aiService = new AiService(cfg, db);
 
         AchievementService achievementService = new AchievementService(db, teamEventService);
-        ChallengeService challengeService = new ChallengeService(db, cfg, aiService, pointsService, teamEventService, achievementService);
-        PollService pollService = new PollService(db, cfg, teamEventService);
+        PendingChallengeService pendingChallengeService = new PendingChallengeService(db);
+        ChallengeService challengeService = new ChallengeService(db, cfg, aiService, pointsService, teamEventService, achievementService, userService,
+                pendingChallengeService);
+        PollService pollService = new PollService(db, cfg, teamEventService, userService);
 
         MediaService mediaService = new MediaService(db, cfg);
         ExcelService excelService = new ExcelService(db, cfg);
 
         InteractiveSessionService interactiveSessions = new InteractiveSessionService(db);
-        CoachRatingService coachRatingService = new CoachRatingService(db, cfg);
+        CoachRatingService coachRatingService = new CoachRatingService(db);
         NotificationService notificationService = new NotificationService(db);
+        OutboxService outboxService = new OutboxService(db);
 
         BotFacade facade = new BotFacade(
                 cfg,
@@ -67,17 +91,45 @@ public final class App {
                 teamEventService,
                 interactiveSessions,
                 coachRatingService,
-                notificationService
+                notificationService,
+                outboxService,
+                pendingChallengeService
         );
 
         VadirssBot bot = new VadirssBot(cfg, facade);
 
-        TelegramBotsApi api = new TelegramBotsApi(DefaultBotSession.class);
-        api.registerBot(bot);
+        AutoCloseable intake;
+        if (cfg.webhookMode()) {
+            WebhookServer webhook = new WebhookServer(cfg, bot);
+            webhook.start();
+            webhook.register();
+            intake = webhook;
+        } else {
+            // registering a long polling bot also removes any webhook left from webhook mode
+            TelegramBotsApi api = new TelegramBotsApi(DefaultBotSession.class);
+            BotSession session = api.registerBot(bot);
+            intake = session::stop;
+        }
+
+        OutboxSender outboxSender = new OutboxSender(cfg, facade, bot);
+        outboxSender.start();
 
         SchedulerService scheduler = new SchedulerService(cfg, facade, bot);
         scheduler.start();
 
-        System.out.println("Vadirss bot started. Timezone=" + cfg.zoneId());
+        ChallengePrefetcher prefetcher = null;
+        if (cfg.aiPrefetch()) {
+            prefetcher = new ChallengePrefetcher(cfg, facade);
+            prefetcher.start();
+        }
+
+        // no new updates, no new broadcasts, then let the queued updates finish while the limiter still runs
+        stopOrder.add(intake);
+        stopOrder.add(scheduler);
+        if (prefetcher != null) stopOrder.add(prefetcher);
+        stopOrder.add(outboxSender);
+        stopOrder.add(bot);
+
+        System.out.println("Vadirss bot started. Timezone=" + cfg.zoneId() + ", DB pool=" + db.stats());
     }
 }
\ No newline at end of file
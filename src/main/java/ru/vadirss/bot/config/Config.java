@@ -10,14 +10,54 @@ public final class Config {
     private final Path dbPath;
     private final ZoneId zoneId;
 
+    // SQLite connection pool
+    private final int dbPoolSize;
+    private final long dbPoolTimeoutMs;
+    private final int dbStatementCacheSize;
+    private final int userCacheSize;
+
     // Timeweb Agent (OpenAI-compatible)
     private final String timewebBaseUrl;      // e.g. https://<your-agent-endpoint>
     private final String timewebApiToken;     // key/token
     private final String timewebAuthHeader;   // default Authorization
     private final String timewebAuthPrefix;   // default Bearer
+    private final int aiConnectTimeoutMs;
+    private final int aiRequestTimeoutMs;
+    private final int aiMaxConcurrent;        // requests in flight; more wait up to the request timeout
+    private final int aiBreakerFailures;      // failures in a row before falling back to canned texts
+    private final int aiBreakerOpenSeconds;
+    private final boolean aiBatchChallenges;  // one completion for a team's challenges instead of one per player
+    private final int aiBatchSize;            // players per batched completion
+    private final boolean aiPrefetch;         // fill a per-position challenge buffer ahead of training time
+    private final int aiPrefetchIntervalMinutes;
+    private final int aiPrefetchHoursAhead;   // only teams training within this many hours
+    private final int aiPrefetchTrainings;    // buffer refilled up to this many trainings' worth
+    private final int aiPrefetchMaxAgeHours;  // older buffered challenges are dropped
+    private final int quotePrefetchHour;      // local hour at which the next day's quote is generated
 
     // Scheduler
     private final int schedulerIntervalSeconds;
+    private final int schedulerThreads;
+
+    // Outbox
+    private final int outboxWorkers;
+    private final int outboxMaxAttempts;
+
+    // Outgoing Bot API calls
+    private final int telegramGlobalRate;    // per second
+    private final int telegramChatRate;      // per second
+    private final int telegramChatBurst;
+    private final String telegramApiUrl;     // Bot API base incl. "/bot" (e.g. a local mock); empty = api.telegram.org
+
+    // Incoming updates
+    private final int updateThreads;
+    private final int updateQueuePerChat;
+
+    // Webhook mode (long polling when the public URL is empty)
+    private final String webhookUrl;         // public https base, e.g. https://bot.example.com
+    private final int webhookPort;
+    private final String webhookPath;
+    private final String webhookSecret;      // checked against X-Telegram-Bot-Api-Secret-Token
 
     // Media
     private final String mediaResourcePath; // classpath folder, default /media
@@ -28,11 +68,41 @@ public final class Config {
             String botUsername,
             Path dbPath,
             ZoneId zoneId,
+            int dbPoolSize,
+            long dbPoolTimeoutMs,
+            int dbStatementCacheSize,
+            int userCacheSize,
             String timewebBaseUrl,
             String timewebApiToken,
             String timewebAuthHeader,
             String timewebAuthPrefix,
+            int aiConnectTimeoutMs,
+            int aiRequestTimeoutMs,
+            int aiMaxConcurrent,
+            int aiBreakerFailures,
+            int aiBreakerOpenSeconds,
+            boolean aiBatchChallenges,
+            int aiBatchSize,
+            boolean aiPrefetch,
+            int aiPrefetchIntervalMinutes,
+            int aiPrefetchHoursAhead,
+            int aiPrefetchTrainings,
+            int aiPrefetchMaxAgeHours,
+            int quotePrefetchHour,
             int schedulerIntervalSeconds,
+            int schedulerThreads,
+            int outboxWorkers,
+            int outboxMaxAttempts,
+            int telegramGlobalRate,
+            int telegramChatRate,
+            int telegramChatBurst,
+            String telegramApiUrl,
+            int updateThreads,
+            int updateQueuePerChat,
+            String webhookUrl,
+            int webhookPort,
+            String webhookPath,
+            String webhookSecret,
             String mediaResourcePath,
             int maxMessageLen
     ) {
@@ -40,11 +110,41 @@ public final class Config {
         this.botUsername = Objects.requireNonNull(botUsername);
         this.dbPath = Objects.requireNonNull(dbPath);
         this.zoneId = Objects.requireNonNull(zoneId);
+        this.dbPoolSize = dbPoolSize;
+        this.dbPoolTimeoutMs = dbPoolTimeoutMs;
+        this.dbStatementCacheSize = dbStatementCacheSize;
+        this.userCacheSize = userCacheSize;
         this.timewebBaseUrl = Objects.requireNonNull(timewebBaseUrl);
         this.timewebApiToken = Objects.requireNonNull(timewebApiToken);
         this.timewebAuthHeader = Objects.requireNonNull(timewebAuthHeader);
         this.timewebAuthPrefix = Objects.requireNonNull(timewebAuthPrefix);
+        this.aiConnectTimeoutMs = aiConnectTimeoutMs;
+        this.aiRequestTimeoutMs = aiRequestTimeoutMs;
+        this.aiMaxConcurrent = aiMaxConcurrent;
+        this.aiBreakerFailures = aiBreakerFailures;
+        this.aiBreakerOpenSeconds = aiBreakerOpenSeconds;
+        this.aiBatchChallenges = aiBatchChallenges;
+        this.aiBatchSize = aiBatchSize;
+        this.aiPrefetch = aiPrefetch;
+        this.aiPrefetchIntervalMinutes = aiPrefetchIntervalMinutes;
+        this.aiPrefetchHoursAhead = aiPrefetchHoursAhead;
+        this.aiPrefetchTrainings = aiPrefetchTrainings;
+        this.aiPrefetchMaxAgeHours = aiPrefetchMaxAgeHours;
+        this.quotePrefetchHour = quotePrefetchHour;
         this.schedulerIntervalSeconds = schedulerIntervalSeconds;
+        this.schedulerThreads = schedulerThreads;
+        this.outboxWorkers = outboxWorkers;
+        this.outboxMaxAttempts = outboxMaxAttempts;
+        this.telegramGlobalRate = telegramGlobalRate;
+        this.telegramChatRate = telegramChatRate;
+        this.telegramChatBurst = telegramChatBurst;
+        this.telegramApiUrl = telegramApiUrl;
+        this.updateThreads = updateThreads;
+        this.updateQueuePerChat = updateQueuePerChat;
+        this.webhookUrl = Objects.requireNonNull(webhookUrl);
+        this.webhookPort = webhookPort;
+        this.webhookPath = Objects.requireNonNull(webhookPath);
+        this.webhookSecret = Objects.requireNonNull(webhookSecret);
         this.mediaResourcePath = Objects.requireNonNull(mediaResourcePath);
         this.maxMessageLen = maxMessageLen;
     }
@@ -55,12 +155,48 @@ public final class Config {
         String dbPath = get("DB_PATH", "./data/bot.db");
         String tz = get("BOT_TIMEZONE", "Europe/Moscow");
 
+        int dbPoolSize = Math.max(1, getInt("DB_POOL_SIZE", 8));
+        long dbPoolTimeoutMs = Math.max(100, getInt("DB_POOL_TIMEOUT_MS", 10_000));
+        int dbStatementCacheSize = Math.max(0, getInt("DB_STMT_CACHE_SIZE", 64)); // per connection, 0 = off
+        int userCacheSize = Math.max(0, getInt("USER_CACHE_SIZE", 4096)); // 0 = off
+
         String timewebBase = get("TIMEWEB_BASE_URL", "");
         String timewebToken = get("TIMEWEB_API_TOKEN", "");
         String timewebAuthHeader = get("TIMEWEB_AUTH_HEADER", "Authorization");
         String timewebAuthPrefix = get("TIMEWEB_AUTH_PREFIX", "Bearer ");
 
+        int aiConnectTimeoutMs = Math.max(100, getInt("AI_CONNECT_TIMEOUT_MS", 3_000));
+        int aiRequestTimeoutMs = Math.max(100, getInt("AI_REQUEST_TIMEOUT_MS", 20_000));
+        int aiMaxConcurrent = Math.max(1, getInt("AI_MAX_CONCURRENT", 4));
+        int aiBreakerFailures = Math.max(1, getInt("AI_BREAKER_FAILURES", 5));
+        int aiBreakerOpenSeconds = Math.max(1, getInt("AI_BREAKER_OPEN_SECONDS", 60));
+        boolean aiBatchChallenges = Boolean.parseBoolean(get("AI_BATCH_CHALLENGES", "true"));
+        int aiBatchSize = Math.max(1, getInt("AI_BATCH_SIZE", 15));
+        boolean aiPrefetch = Boolean.parseBoolean(get("AI_PREFETCH", "true"));
+        int aiPrefetchIntervalMinutes = Math.max(1, getInt("AI_PREFETCH_INTERVAL_MINUTES", 30));
+        int aiPrefetchHoursAhead = getInt("AI_PREFETCH_HOURS_AHEAD", 24);
+        int aiPrefetchTrainings = Math.max(1, getInt("AI_PREFETCH_TRAININGS", 2));
+        int aiPrefetchMaxAgeHours = Math.max(1, getInt("AI_PREFETCH_MAX_AGE_HOURS", 72));
+        int quotePrefetchHour = Math.floorMod(getInt("QUOTE_PREFETCH_HOUR", 23), 24);
+
         int schedulerIntervalSeconds = getInt("SCHEDULER_INTERVAL_SECONDS", 30);
+        int schedulerThreads = Math.max(1, getInt("SCHEDULER_THREADS", 4)); // teams handled in parallel
+
+        int outboxWorkers = Math.max(1, getInt("OUTBOX_WORKERS", 4)); // senders; one chat always maps to the same one
+        int outboxMaxAttempts = Math.max(1, getInt("OUTBOX_MAX_ATTEMPTS", 8));
+
+        int telegramGlobalRate = Math.max(1, getInt("TELEGRAM_GLOBAL_RATE", 30));
+        int telegramChatRate = Math.max(1, getInt("TELEGRAM_CHAT_RATE", 1));
+        int telegramChatBurst = Math.max(1, getInt("TELEGRAM_CHAT_BURST", 3)); // back-to-back calls to one chat before throttling
+        String telegramApiUrl = get("TELEGRAM_API_URL", "");
+
+        int updateThreads = Math.max(1, getInt("UPDATE_THREADS", 8)); // chats handled in parallel
+        int updateQueuePerChat = Math.max(1, getInt("UPDATE_QUEUE_PER_CHAT", 20)); // further updates of a busy chat are dropped
+
+        String webhookUrl = get("WEBHOOK_URL", "");
+        int webhookPort = getInt("WEBHOOK_PORT", 8080); // local port; TLS is terminated in front of it
+        String webhookPath = get("WEBHOOK_PATH", "/telegram");
+        String webhookSecret = get("WEBHOOK_SECRET", "");
 
         String mediaPath = get("MEDIA_CLASSPATH_DIR", "/media");
         int maxLen = getInt("MAX_MESSAGE_LEN", 3900);
@@ -75,11 +211,41 @@ public final class Config {
                 botUsername,
                 Path.of(dbPath),
                 ZoneId.of(tz),
+                dbPoolSize,
+                dbPoolTimeoutMs,
+                dbStatementCacheSize,
+                userCacheSize,
                 timewebBase,
                 timewebToken,
                 timewebAuthHeader,
                 timewebAuthPrefix,
+                aiConnectTimeoutMs,
+                aiRequestTimeoutMs,
+                aiMaxConcurrent,
+                aiBreakerFailures,
+                aiBreakerOpenSeconds,
+                aiBatchChallenges,
+                aiBatchSize,
+                aiPrefetch,
+                aiPrefetchIntervalMinutes,
+                aiPrefetchHoursAhead,
+                aiPrefetchTrainings,
+                aiPrefetchMaxAgeHours,
+                quotePrefetchHour,
                 schedulerIntervalSeconds,
+                schedulerThreads,
+                outboxWorkers,
+                outboxMaxAttempts,
+                telegramGlobalRate,
+                telegramChatRate,
+                telegramChatBurst,
+                telegramApiUrl,
+                updateThreads,
+                updateQueuePerChat,
+                webhookUrl,
+                webhookPort,
+                webhookPath,
+                webhookSecret,
                 mediaPath,
                 maxLen
         );
@@ -108,12 +274,49 @@ public final class Config {
     public Path dbPath() { return dbPath; }
     public ZoneId zoneId() { return zoneId; }
 
+    public int dbPoolSize() { return dbPoolSize; }
+    public long dbPoolTimeoutMs() { return dbPoolTimeoutMs; }
+    public int dbStatementCacheSize() { return dbStatementCacheSize; }
+    public int userCacheSize() { return userCacheSize; }
+
     public String timewebBaseUrl() { return timewebBaseUrl; }
     public String timewebApiToken() { return timewebApiToken; }
     public String timewebAuthHeader() { return timewebAuthHeader; }
     public String timewebAuthPrefix() { return timewebAuthPrefix; }
 
+    public int aiConnectTimeoutMs() { return aiConnectTimeoutMs; }
+    public int aiRequestTimeoutMs() { return aiRequestTimeoutMs; }
+    public int aiMaxConcurrent() { return aiMaxConcurrent; }
+    public int aiBreakerFailures() { return aiBreakerFailures; }
+    public int aiBreakerOpenSeconds() { return aiBreakerOpenSeconds; }
+    public boolean aiBatchChallenges() { return aiBatchChallenges; }
+    public int aiBatchSize() { return aiBatchSize; }
+    public boolean aiPrefetch() { return aiPrefetch; }
+    public int aiPrefetchIntervalMinutes() { return aiPrefetchIntervalMinutes; }
+    public int aiPrefetchHoursAhead() { return aiPrefetchHoursAhead; }
+    public int aiPrefetchTrainings() { return aiPrefetchTrainings; }
+    public int aiPrefetchMaxAgeHours() { return aiPrefetchMaxAgeHours; }
+    public int quotePrefetchHour() { return quotePrefetchHour; }
+
     public int schedulerIntervalSeconds() { return schedulerIntervalSeconds; }
+    public int schedulerThreads() { return schedulerThreads; }
+
+    public int outboxWorkers() { return outboxWorkers; }
+    public int outboxMaxAttempts() { return outboxMaxAttempts; }
+
+    public int telegramGlobalRate() { return telegramGlobalRate; }
+    public int telegramChatRate() { return telegramChatRate; }
+    public int telegramChatBurst() { return telegramChatBurst; }
+    public String telegramApiUrl() { return telegramApiUrl; }
+
+    public int updateThreads() { return updateThreads; }
+    public int updateQueuePerChat() { return updateQueuePerChat; }
+
+    public boolean webhookMode() { return !webhookUrl.isBlank(); }
+    public String webhookUrl() { return webhookUrl; }
+    public int webhookPort() { return webhookPort; }
+    public String webhookPath() { return webhookPath; }
+    public String webhookSecret() { return webhookSecret; }
     public String mediaResourcePath() { return mediaResourcePath; }
     public int maxMessageLen() { return maxMessageLen; }
 }
@@ -7,30 +7,221 @@ import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public final class Database {
+/**
+ * Bounded pool of read-only SQLite connections plus the single {@link DbWriter}.
+ * Physical connections are opened lazily (up to {@code DB_POOL_SIZE}), configured once
+ * and handed out wrapped, so that {@code close()} returns them to the pool instead of closing.
+ * All mutations must go through {@link #write}, {@link #run} or {@link #submit}.
+ */
+public final class Database implements AutoCloseable {
     private final Config cfg;
     private final String jdbcUrl;
 
-    public Database(Config cfg) throws IOException {
+    private final int poolSize;
+    private final long borrowTimeoutMs;
+    private final BlockingQueue<Connection> idle;
+    private final int statementCacheSize;
+    private final Map<Connection, StatementCache> physical = new IdentityHashMap<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final DbWriter writer;
+    private volatile boolean closed;
+
+    // metrics
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final StatementCache.Counters statementCounters = new StatementCache.Counters();
+
+    public Database(Config cfg) throws IOException, SQLException {
         this.cfg = Objects.requireNonNull(cfg);
         Files.createDirectories(cfg.dbPath().toAbsolutePath().getParent());
         this.jdbcUrl = "jdbc:sqlite:" + cfg.dbPath().toAbsolutePath();
+        this.poolSize = cfg.dbPoolSize();
+        this.borrowTimeoutMs = cfg.dbPoolTimeoutMs();
+        this.statementCacheSize = cfg.dbStatementCacheSize();
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+        this.writer = new DbWriter(new StatementCache(open(false), statementCacheSize, statementCounters).wrap());
+    }
+
+    /** Queues a write job; the future completes after the group transaction commits. */
+    public <T> CompletableFuture<T> submit(DbWriter.Work<T> work) {
+        return writer.submit(work);
+    }
+
+    /** Runs a write job on the writer thread and waits for its commit. */
+    public <T> T write(DbWriter.Work<T> work) {
+        try {
+            return writer.submit(work).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** Same as {@link #write} for jobs without a result. */
+    public void run(SqlTask task) {
+        write(c -> {
+            task.run(c);
+            return null;
+        });
+    }
+
+    @FunctionalInterface
+    public interface SqlTask {
+        void run(Connection c) throws SQLException;
     }
 
     public Connection getConnection() throws SQLException {
-        Connection c = DriverManager.getConnection(jdbcUrl);
-        // WAL improves concurrency for sqlite in multi-thread environment.
+        if (closed) throw new SQLException("Database is closed");
+        long started = System.nanoTime();
+
+        Connection raw = idle.poll();
+        if (raw == null) raw = openIfBelowLimit();
+        if (raw == null) {
+            try {
+                raw = idle.poll(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+            if (raw == null) {
+                timeouts.increment();
+                throw new SQLException("No free SQLite connection after " + borrowTimeoutMs + " ms (pool size " + poolSize + ")");
+            }
+        }
+
+        long waited = System.nanoTime() - started;
+        borrows.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        StatementCache statements;
+        synchronized (physical) {
+            statements = physical.get(raw);
+        }
+        return PooledConnection.wrap(raw, this, statements);
+    }
+
+    /** Called by {@link PooledConnection} when the borrower closes its handle. */
+    void release(Connection raw) {
         try {
-            c.createStatement().execute("PRAGMA journal_mode=WAL;");
-            c.createStatement().execute("PRAGMA foreign_keys=ON;");
-            c.createStatement().execute("PRAGMA busy_timeout=5000;");
-        } catch (SQLException ignored) { }
-        return c;
+            if (closed || raw.isClosed()) {
+                discard(raw);
+                return;
+            }
+            // never hand out a connection mid-transaction
+            if (!raw.getAutoCommit()) {
+                raw.rollback();
+                raw.setAutoCommit(true);
+            }
+            if (!idle.offer(raw)) discard(raw);
+        } catch (SQLException e) {
+            discard(raw);
+        }
+    }
+
+    public PoolStats stats() {
+        long n = borrows.sum();
+        double avgWaitMs = n == 0 ? 0.0 : waitNanos.sum() / 1_000_000.0 / n;
+        return new PoolStats(poolSize, opened.get(), idle.size(), n, timeouts.sum(),
+                avgWaitMs, maxWaitNanos.get() / 1_000_000.0);
+    }
+
+    public StatementStats statementStats() {
+        long hits = statementCounters.hits.sum();
+        long misses = statementCounters.misses.sum();
+        long total = hits + misses;
+        return new StatementStats(statementCacheSize, hits, misses, statementCounters.evictions.sum(),
+                total == 0 ? 0.0 : (double) hits / total);
+    }
+
+    public DbWriter.WriterStats writerStats() {
+        return writer.stats();
     }
 
     public Config config() {
         return cfg;
     }
+
+    @Override
+    public void close() {
+        closed = true;
+        writer.close();
+        synchronized (physical) {
+            for (var e : physical.entrySet()) {
+                e.getValue().closeAll();
+                try { e.getKey().close(); } catch (SQLException ignored) { }
+            }
+            physical.clear();
+        }
+        idle.clear();
+        opened.set(0);
+    }
+
+    private Connection openIfBelowLimit() throws SQLException {
+        while (true) {
+            int n = opened.get();
+            if (n >= poolSize) return null;
+            if (opened.compareAndSet(n, n + 1)) break;
+        }
+        try {
+            Connection c = open(true);
+            synchronized (physical) {
+                physical.put(c, new StatementCache(c, statementCacheSize, statementCounters));
+            }
+            return c;
+        } catch (SQLException e) {
+            opened.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private Connection open(boolean readOnly) throws SQLException {
+        Connection c = DriverManager.getConnection(jdbcUrl);
+        // Applied once per physical connection.
+        // WAL lets pooled readers run while the writer commits.
+        try (Statement st = c.createStatement()) {
+            st.execute("PRAGMA journal_mode=WAL;");
+            st.execute("PRAGMA foreign_keys=ON;");
+            st.execute("PRAGMA busy_timeout=5000;");
+        } catch (SQLException ignored) { }
+        if (readOnly) {
+            // pooled connections are for reads; a stray write fails fast instead of contending with the writer
+            try (Statement st = c.createStatement()) {
+                st.execute("PRAGMA query_only=ON;");
+            }
+        }
+        return c;
+    }
+
+    private void discard(Connection raw) {
+        StatementCache statements;
+        synchronized (physical) {
+            statements = physical.remove(raw);
+        }
+        if (statements == null) return;
+        statements.closeAll();
+        opened.decrementAndGet();
+        try { raw.close(); } catch (SQLException ignored) { }
+    }
+
+    public record PoolStats(int size, int open, int idle, long borrows, long timeouts, double avgWaitMs, double maxWaitMs) {}
+
+    /** Prepared statement cache counters summed over all connections, writer included. */
+    public record StatementStats(int perConnection, long hits, long misses, long evictions, double hitRatio) {}
 }
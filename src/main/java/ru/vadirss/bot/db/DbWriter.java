@@ -0,0 +1,148 @@
+package ru.vadirss.bot.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The only place that mutates SQLite.
+ * A dedicated thread owns one write connection, drains submitted jobs and commits them
+ * in group transactions (up to {@link #MAX_BATCH} jobs per commit). Every job runs inside
+ * its own savepoint, so one failing job does not roll back its neighbours.
+ */
+public final class DbWriter implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface Work<T> {
+        T apply(Connection c) throws SQLException;
+    }
+
+    private static final int MAX_BATCH = 64;
+
+    private final Connection conn;
+    private final BlockingQueue<Job<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // metrics
+    private final LongAdder jobs = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    DbWriter(Connection conn) {
+        this.conn = conn;
+        this.thread = new Thread(this::loop, "vadirss-db-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public <T> CompletableFuture<T> submit(Work<T> work) {
+        if (Thread.currentThread() == thread) {
+            // nested write from inside a job: run inline, inside the already open transaction
+            try {
+                return CompletableFuture.completedFuture(work.apply(conn));
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        if (!running) {
+            return CompletableFuture.failedFuture(stopped());
+        }
+        Job<T> job = new Job<>(work, new CompletableFuture<>());
+        queue.add(job);
+        // close() raced with us: if the writer has not taken the job, nobody ever will
+        if (!running && queue.remove(job)) job.future.completeExceptionally(stopped());
+        return job.future;
+    }
+
+    public WriterStats stats() {
+        return new WriterStats(jobs.sum(), batches.sum(), failed.sum(), queue.size());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failQueued();
+        try { conn.close(); } catch (SQLException ignored) { }
+    }
+
+    private void loop() {
+        List<Job<?>> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            Job<?> first;
+            try {
+                first = queue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first == null) continue;
+            batch.add(first);
+            queue.drainTo(batch, MAX_BATCH - 1);
+            runBatch(batch);
+            batch.clear();
+        }
+        failQueued();
+    }
+
+    private void failQueued() {
+        Job<?> j;
+        while ((j = queue.poll()) != null) j.future.completeExceptionally(stopped());
+    }
+
+    private static IllegalStateException stopped() {
+        return new IllegalStateException("DB writer is stopped");
+    }
+
+    private void runBatch(List<Job<?>> batch) {
+        List<Runnable> completions = new ArrayList<>(batch.size());
+        try {
+            conn.setAutoCommit(false);
+            for (Job<?> job : batch) {
+                Savepoint sp = conn.setSavepoint();
+                try {
+                    completions.add(job.runOn(conn));
+                    conn.releaseSavepoint(sp);
+                } catch (Exception e) {
+                    conn.rollback(sp);
+                    conn.releaseSavepoint(sp);
+                    failed.increment();
+                    job.future.completeExceptionally(e);
+                }
+            }
+            conn.commit();
+            // complete only after commit, so callers observe durable writes
+            for (Runnable r : completions) r.run();
+        } catch (Throwable e) {
+            // anything escaping the per-job handling fails the whole batch, but must not kill the writer thread
+            try { conn.rollback(); } catch (SQLException ignored) { }
+            for (Job<?> job : batch) {
+                if (job.future.completeExceptionally(e)) failed.increment();
+            }
+        } finally {
+            try { conn.setAutoCommit(true); } catch (SQLException ignored) { }
+            jobs.add(batch.size());
+            batches.increment();
+        }
+    }
+
+    private record Job<T>(Work<T> work, CompletableFuture<T> future) {
+        Runnable runOn(Connection c) throws SQLException {
+            T result = work.apply(c);
+            return () -> future.complete(result);
+        }
+    }
+
+    public record WriterStats(long jobs, long batches, long failed, int queued) {}
+}
@@ -0,0 +1,72 @@
+package ru.vadirss.bot.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Borrowed handle around a physical connection.
+ * {@code close()} gives the connection back to {@link Database}, {@code prepareStatement}
+ * goes through the connection's {@link StatementCache}; everything else is delegated.
+ */
+final class PooledConnection implements InvocationHandler {
+
+    private final Connection raw;
+    private final Database pool;
+    private final StatementCache statements;
+    private boolean returned;
+
+    private PooledConnection(Connection raw, Database pool, StatementCache statements) {
+        this.raw = raw;
+        this.pool = pool;
+        this.statements = statements;
+    }
+
+    static Connection wrap(Connection raw, Database pool, StatementCache statements) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new PooledConnection(raw, pool, statements)
+        );
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close" -> {
+                if (!returned) {
+                    returned = true;
+                    pool.release(raw);
+                }
+                return null;
+            }
+            case "isClosed" -> {
+                return returned || raw.isClosed();
+            }
+            case "equals" -> {
+                return proxy == args[0];
+            }
+            case "hashCode" -> {
+                return System.identityHashCode(proxy);
+            }
+            case "toString" -> {
+                return "PooledConnection[" + raw + "]";
+            }
+            default -> {
+                if (returned) throw new SQLException("Connection already returned to pool");
+                if (args != null) {
+                    Object cached = statements.intercept(method, args);
+                    if (cached != null) return cached;
+                }
+                try {
+                    return method.invoke(raw, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+}
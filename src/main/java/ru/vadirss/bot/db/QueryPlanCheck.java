@@ -0,0 +1,86 @@
+package ru.vadirss.bot.db;
+
+import ru.vadirss.bot.service.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@code EXPLAIN QUERY PLAN} over the hot queries and reports every plain {@code SCAN}
+ * (a full table scan without an index). Called at startup after {@link Schema#migrate}, and
+ * QueryPlanCheckTest fails the build on a scan. The queries are the services' own {@code SQL_*}
+ * constants, so an edited query is checked as it runs; a new hot query needs adding here.
+ */
+public final class QueryPlanCheck {
+
+    private static final List<String> HOT_QUERIES = List.of(
+            UserService.SQL_FIND_BY_ID,
+            UserService.SQL_PAGE_AFTER,
+            UserService.SQL_PAGE_BEFORE,
+            UserService.SQL_SEARCH,
+            UserService.SQL_PLAYERS_BY_TEAM,
+            UserService.SQL_TEAM_MEMBERS,
+            UserService.SQL_COACHES_BY_TEAM,
+            UserService.SQL_PLAYERS_WITH_ACHIEVEMENTS,
+            TeamService.SQL_TEAMS_FOR_COACH,
+            ScheduleService.SQL_FIND_FOR_DAY,
+            TrainingSessionService.SQL_FIND_BY_TEAM_AND_DATE,
+            TrainingSessionService.SQL_LIST_FOR_DATE,
+            ChallengeService.SQL_FIND_FOR_PLAYER,
+            ChallengeService.SQL_WITH_PLAYER_NAMES,
+            ChallengeService.SQL_COACH_POOL,
+            PollService.SQL_COUNT_COMPLETED_CHALLENGES,
+            PollService.SQL_LAST_MORNING,
+            PollService.SQL_LAST_EVENING,
+            PollService.SQL_COUNT_MORNING,
+            PollService.SQL_COUNT_EVENING,
+            AchievementService.SQL_LIST_FOR_PLAYER,
+            AchievementService.SQL_CHALLENGE_STREAK,
+            AchievementService.SQL_MORNING_POLL_STREAK,
+            AchievementService.SQL_MORNING_POLLS_BETWEEN,
+            TeamEventService.SQL_FEED_PAGE,
+            PointsService.SQL_POINTS_BETWEEN,
+            InteractiveSessionService.SQL_FIND,
+            OutboxService.SQL_CLAIM_DUE,
+            PendingChallengeService.SQL_TAKE,
+            PendingChallengeService.SQL_DEPTHS,
+            ExcelService.SQL_COACH_RATING_AVERAGES
+    );
+
+    private QueryPlanCheck() {
+    }
+
+    /** @return one line per full scan found, empty when every hot query uses an index */
+    public static List<String> fullScans(Database db) throws SQLException {
+        List<String> out = new ArrayList<>();
+        try (Connection c = db.getConnection()) {
+            for (String sql : HOT_QUERIES) {
+                // unbound parameters are NULL, which is fine for planning
+                try (PreparedStatement ps = c.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+                     ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String detail = rs.getString("detail");
+                        // an FTS5 MATCH shows up as "SCAN <table> VIRTUAL TABLE INDEX ...", which is an index lookup
+                        if (detail.startsWith("SCAN ") && !detail.contains(" USING ") && !detail.contains(" VIRTUAL TABLE ")) {
+                            out.add(detail + " <- " + sql);
+                        }
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    public static void verify(Database db) throws SQLException {
+        List<String> scans = fullScans(db);
+        if (scans.isEmpty()) {
+            System.out.println("Query plans OK: " + HOT_QUERIES.size() + " hot queries use indexes");
+            return;
+        }
+        for (String s : scans) System.err.println("Full table scan in hot query: " + s);
+    }
+}
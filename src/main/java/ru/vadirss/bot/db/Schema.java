@@ -1,227 +1,506 @@
 package ru.vadirss.bot.db;
 
+import ru.vadirss.bot.util.TimeUtil;
+
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Numbered schema migrations. Applied versions are recorded in {@code schema_version};
+ * every pending step runs as its own writer job, so a step and its version row commit together.
+ * A shipped step is never edited: schema changes go into a new step with the next number.
+ */
 public final class Schema {
 
+    @FunctionalInterface
+    private interface Step {
+        void apply(Connection c, ZoneId zone) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface Ddl {
+        void apply(Statement st) throws SQLException;
+    }
+
+    private record Migration(int version, String name, Step step) {}
+
+    private enum TimeKind { INSTANT, DATE }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "baseline tables", ddl(Schema::baseline)),
+            new Migration(2, "indexes for hot queries", ddl(Schema::hotQueryIndexes)),
+            new Migration(3, "epoch time columns", Schema::epochTimeColumns),
+            new Migration(4, "user search index", ddl(Schema::userSearchIndex)),
+            new Migration(5, "session delivery tracking", ddl(Schema::sessionDeliveries)),
+            new Migration(6, "message outbox", ddl(Schema::outbox)),
+            new Migration(7, "prefetched AI challenges", ddl(Schema::pendingAiChallenges)),
+            new Migration(8, "epoch schema_version.applied_at", Schema::epochSchemaVersion)
+    );
+
+    // v3: INSTANT columns become epoch millis, DATE columns epoch days
+    private static final Map<String, Map<String, TimeKind>> TIME_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        time("users", "created_at", TimeKind.INSTANT, "updated_at", TimeKind.INSTANT);
+        time("teams", "created_at", TimeKind.INSTANT);
+        time("training_sessions", "date", TimeKind.DATE, "start_datetime", TimeKind.INSTANT,
+                "end_datetime", TimeKind.INSTANT, "created_at", TimeKind.INSTANT);
+        time("coach_challenge_pool", "created_at", TimeKind.INSTANT);
+        time("player_challenges", "marked_at", TimeKind.INSTANT, "created_at", TimeKind.INSTANT);
+        time("polls_morning", "date", TimeKind.DATE, "created_at", TimeKind.INSTANT);
+        time("polls_evening", "date", TimeKind.DATE, "created_at", TimeKind.INSTANT);
+        time("coach_ratings", "created_at", TimeKind.INSTANT);
+        time("player_attributes", "updated_at", TimeKind.INSTANT);
+        time("player_attribute_history", "created_at", TimeKind.INSTANT);
+        time("user_achievements", "awarded_at", TimeKind.INSTANT);
+        time("team_events", "created_at", TimeKind.INSTANT);
+        time("points_ledger", "created_at", TimeKind.INSTANT);
+        time("daily_quotes", "date", TimeKind.DATE, "created_at", TimeKind.INSTANT);
+        time("media_cache", "updated_at", TimeKind.INSTANT);
+        time("team_notifications", "date", TimeKind.DATE);
+        time("interactive_sessions", "created_at", TimeKind.INSTANT, "updated_at", TimeKind.INSTANT,
+                "expires_at", TimeKind.INSTANT);
+    }
+
     private Schema() {
     }
 
     public static void migrate(Database db) throws SQLException {
-        try (Connection c = db.getConnection();
-             Statement st = c.createStatement()) {
-
-            st.execute("PRAGMA foreign_keys=ON;");
-            st.execute("PRAGMA busy_timeout=5000;");
-
-            st.execute("SAVEPOINT schema_migrate;");
-
-            try {
-                st.execute("PRAGMA foreign_keys=ON;");
-                st.execute("PRAGMA busy_timeout=5000;");
-
-                // --- ТВОИ CREATE TABLE (как в текущем Schema.java) ---
-                st.execute("CREATE TABLE IF NOT EXISTS users (" +
-                        "tg_id INTEGER PRIMARY KEY," +
-                        "chat_id INTEGER NOT NULL," +
-                        "role TEXT NOT NULL DEFAULT 'PLAYER'," +
-                        "consent INTEGER NOT NULL DEFAULT 0," +
-                        "full_name TEXT," +
-                        "phone TEXT," +
-                        "team_id INTEGER," +
-                        "position TEXT," +
-                        "points INTEGER NOT NULL DEFAULT 0," +
-                        "state TEXT NOT NULL DEFAULT 'WAIT_CONSENT'," +
-                        "state_data TEXT NOT NULL DEFAULT '{}'," +
-                        "created_at TEXT NOT NULL," +
-                        "updated_at TEXT NOT NULL" +
+        // the read pool is query_only, so DDL goes through the writer like any other write
+        db.run(c -> {
+            try (Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                        "version INTEGER PRIMARY KEY," +
+                        "name TEXT NOT NULL," +
+                        "applied_at TEXT NOT NULL" +
                         ");");
+            }
+        });
 
-                st.execute("CREATE TABLE IF NOT EXISTS teams (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "name TEXT NOT NULL UNIQUE," +
-                        "created_at TEXT NOT NULL" +
-                        ");");
+        int current = currentVersion(db);
+        for (Migration m : MIGRATIONS) {
+            if (m.version() <= current) continue;
+            db.run(c -> {
+                m.step().apply(c, db.config().zoneId());
+                try (PreparedStatement ps = c.prepareStatement("INSERT INTO schema_version(version, name, applied_at) VALUES(?,?,?)")) {
+                    ps.setInt(1, m.version());
+                    ps.setString(2, m.name());
+                    ps.setLong(3, System.currentTimeMillis());
+                    ps.executeUpdate();
+                }
+            });
+            System.out.println("Schema migrated to v" + m.version() + " (" + m.name() + ")");
+        }
+    }
 
-                st.execute("CREATE TABLE IF NOT EXISTS team_coaches (" +
-                        "team_id INTEGER NOT NULL," +
-                        "coach_id INTEGER NOT NULL," +
-                        "PRIMARY KEY(team_id, coach_id)" +
-                        ");");
+    public static int currentVersion(Database db) throws SQLException {
+        try (Connection c = db.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
 
-                st.execute("CREATE TABLE IF NOT EXISTS schedules (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "team_id INTEGER NOT NULL," +
-                        "day_of_week INTEGER NOT NULL," +
-                        "start_time TEXT NOT NULL," +
-                        "end_time TEXT NOT NULL," +
-                        "UNIQUE(team_id, day_of_week)" +
-                        ");");
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+    }
 
-                st.execute("CREATE TABLE IF NOT EXISTS training_sessions (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "team_id INTEGER NOT NULL," +
-                        "date TEXT NOT NULL," +
-                        "start_datetime TEXT NOT NULL," +
-                        "end_datetime TEXT NOT NULL," +
-                        "status TEXT NOT NULL DEFAULT 'PLANNED'," +
-                        "morning_poll_sent INTEGER NOT NULL DEFAULT 0," +
-                        "reminder_sent INTEGER NOT NULL DEFAULT 0," +
-                        "challenges_sent INTEGER NOT NULL DEFAULT 0," +
-                        "coach_prompt_sent INTEGER NOT NULL DEFAULT 0," +
-                        "evening_poll_sent INTEGER NOT NULL DEFAULT 0," +
-                        "coach_rating_sent INTEGER NOT NULL DEFAULT 0," +
-                        "challenges_expired INTEGER NOT NULL DEFAULT 0," +
-                        "created_at TEXT NOT NULL," +
-                        "UNIQUE(team_id, date)" +
-                        ");");
+    private static Step ddl(Ddl ddl) {
+        return (c, zone) -> {
+            try (Statement st = c.createStatement()) {
+                ddl.apply(st);
+            }
+        };
+    }
 
-                st.execute("CREATE TABLE IF NOT EXISTS coach_challenge_pool (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "team_id INTEGER NOT NULL," +
-                        "text TEXT NOT NULL," +
-                        "created_at TEXT NOT NULL" +
-                        ");");
+    private static void time(String table, Object... columnKindPairs) {
+        Map<String, TimeKind> cols = new LinkedHashMap<>();
+        for (int i = 0; i < columnKindPairs.length; i += 2) {
+            cols.put((String) columnKindPairs[i], (TimeKind) columnKindPairs[i + 1]);
+        }
+        TIME_COLUMNS.put(table, cols);
+    }
 
-                st.execute("CREATE TABLE IF NOT EXISTS player_challenges (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "session_id INTEGER NOT NULL," +
-                        "player_id INTEGER NOT NULL," +
-                        "text TEXT NOT NULL," +
-                        "source TEXT NOT NULL," +
-                        "status TEXT NOT NULL DEFAULT 'PENDING'," +
-                        "marked_by INTEGER," +
-                        "marked_at TEXT," +
-                        "created_at TEXT NOT NULL," +
-                        "UNIQUE(session_id, player_id)" +
-                        ");");
+    // v1: tables as they were before versioning; IF NOT EXISTS keeps it a no-op on existing databases
+    private static void baseline(Statement st) throws SQLException {
+        st.execute("CREATE TABLE IF NOT EXISTS users (" +
+                "tg_id INTEGER PRIMARY KEY," +
+                "chat_id INTEGER NOT NULL," +
+                "role TEXT NOT NULL DEFAULT 'PLAYER'," +
+                "consent INTEGER NOT NULL DEFAULT 0," +
+                "full_name TEXT," +
+                "phone TEXT," +
+                "team_id INTEGER," +
+                "position TEXT," +
+                "points INTEGER NOT NULL DEFAULT 0," +
+                "state TEXT NOT NULL DEFAULT 'WAIT_CONSENT'," +
+                "state_data TEXT NOT NULL DEFAULT '{}'," +
+                "created_at TEXT NOT NULL," +
+                "updated_at TEXT NOT NULL" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS polls_morning (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "session_id INTEGER," +
-                        "date TEXT NOT NULL," +
-                        "player_id INTEGER NOT NULL," +
-                        "energy INTEGER NOT NULL," +
-                        "sleep INTEGER NOT NULL," +
-                        "readiness INTEGER NOT NULL," +
-                        "mood TEXT NOT NULL," +
-                        "created_at TEXT NOT NULL" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS teams (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "name TEXT NOT NULL UNIQUE," +
+                "created_at TEXT NOT NULL" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS polls_evening (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "session_id INTEGER," +
-                        "date TEXT NOT NULL," +
-                        "player_id INTEGER NOT NULL," +
-                        "self_rating INTEGER NOT NULL," +
-                        "created_at TEXT NOT NULL" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS team_coaches (" +
+                "team_id INTEGER NOT NULL," +
+                "coach_id INTEGER NOT NULL," +
+                "PRIMARY KEY(team_id, coach_id)" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS coach_ratings (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "session_id INTEGER NOT NULL," +
-                        "player_id INTEGER NOT NULL," +
-                        "lim INTEGER NOT NULL," +
-                        "t2 INTEGER NOT NULL," +
-                        "eiq INTEGER NOT NULL," +
-                        "created_at TEXT NOT NULL," +
-                        "UNIQUE(session_id, player_id)" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS schedules (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "team_id INTEGER NOT NULL," +
+                "day_of_week INTEGER NOT NULL," +
+                "start_time TEXT NOT NULL," +
+                "end_time TEXT NOT NULL," +
+                "UNIQUE(team_id, day_of_week)" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS player_attributes (" +
-                        "player_id INTEGER PRIMARY KEY," +
-                        "short_pass REAL DEFAULT 0," +
-                        "first_touch REAL DEFAULT 0," +
-                        "long_pass REAL DEFAULT 0," +
-                        "positioning REAL DEFAULT 0," +
-                        "heading REAL DEFAULT 0," +
-                        "ball_battle REAL DEFAULT 0," +
-                        "strength REAL DEFAULT 0," +
-                        "flexibility REAL DEFAULT 0," +
-                        "speed REAL DEFAULT 0," +
-                        "endurance REAL DEFAULT 0," +
-                        "agility REAL DEFAULT 0," +
-                        "analysis REAL DEFAULT 0," +
-                        "communication REAL DEFAULT 0," +
-                        "teamwork REAL DEFAULT 0," +
-                        "concentration REAL DEFAULT 0," +
-                        "nervousness REAL DEFAULT 0," +
-                        "leadership REAL DEFAULT 0," +
-                        "updated_at TEXT NOT NULL" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS training_sessions (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "team_id INTEGER NOT NULL," +
+                "date TEXT NOT NULL," +
+                "start_datetime TEXT NOT NULL," +
+                "end_datetime TEXT NOT NULL," +
+                "status TEXT NOT NULL DEFAULT 'PLANNED'," +
+                "morning_poll_sent INTEGER NOT NULL DEFAULT 0," +
+                "reminder_sent INTEGER NOT NULL DEFAULT 0," +
+                "challenges_sent INTEGER NOT NULL DEFAULT 0," +
+                "coach_prompt_sent INTEGER NOT NULL DEFAULT 0," +
+                "evening_poll_sent INTEGER NOT NULL DEFAULT 0," +
+                "coach_rating_sent INTEGER NOT NULL DEFAULT 0," +
+                "challenges_expired INTEGER NOT NULL DEFAULT 0," +
+                "created_at TEXT NOT NULL," +
+                "UNIQUE(team_id, date)" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS player_attribute_history (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "player_id INTEGER NOT NULL," +
-                        "snapshot_json TEXT NOT NULL," +
-                        "created_at TEXT NOT NULL" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS coach_challenge_pool (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "team_id INTEGER NOT NULL," +
+                "text TEXT NOT NULL," +
+                "created_at TEXT NOT NULL" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS user_achievements (" +
-                        "player_id INTEGER NOT NULL," +
-                        "code TEXT NOT NULL," +
-                        "awarded_at TEXT NOT NULL," +
-                        "PRIMARY KEY(player_id, code)" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS player_challenges (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "session_id INTEGER NOT NULL," +
+                "player_id INTEGER NOT NULL," +
+                "text TEXT NOT NULL," +
+                "source TEXT NOT NULL," +
+                "status TEXT NOT NULL DEFAULT 'PENDING'," +
+                "marked_by INTEGER," +
+                "marked_at TEXT," +
+                "created_at TEXT NOT NULL," +
+                "UNIQUE(session_id, player_id)" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS team_events (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "team_id INTEGER NOT NULL," +
-                        "created_at TEXT NOT NULL," +
-                        "type TEXT NOT NULL," +
-                        "user_id INTEGER," +
-                        "payload TEXT NOT NULL DEFAULT '{}' " +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS polls_morning (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "session_id INTEGER," +
+                "date TEXT NOT NULL," +
+                "player_id INTEGER NOT NULL," +
+                "energy INTEGER NOT NULL," +
+                "sleep INTEGER NOT NULL," +
+                "readiness INTEGER NOT NULL," +
+                "mood TEXT NOT NULL," +
+                "created_at TEXT NOT NULL" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS points_ledger (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "user_id INTEGER NOT NULL," +
-                        "delta INTEGER NOT NULL," +
-                        "reason TEXT NOT NULL," +
-                        "ref TEXT," +
-                        "created_at TEXT NOT NULL" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS polls_evening (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "session_id INTEGER," +
+                "date TEXT NOT NULL," +
+                "player_id INTEGER NOT NULL," +
+                "self_rating INTEGER NOT NULL," +
+                "created_at TEXT NOT NULL" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS daily_quotes (" +
-                        "date TEXT PRIMARY KEY," +
-                        "text TEXT NOT NULL," +
-                        "source TEXT NOT NULL," +
-                        "created_at TEXT NOT NULL" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS coach_ratings (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "session_id INTEGER NOT NULL," +
+                "player_id INTEGER NOT NULL," +
+                "lim INTEGER NOT NULL," +
+                "t2 INTEGER NOT NULL," +
+                "eiq INTEGER NOT NULL," +
+                "created_at TEXT NOT NULL," +
+                "UNIQUE(session_id, player_id)" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS media_cache (" +
-                        "media_key TEXT PRIMARY KEY," +
-                        "file_id TEXT NOT NULL," +
-                        "updated_at TEXT NOT NULL" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS player_attributes (" +
+                "player_id INTEGER PRIMARY KEY," +
+                "short_pass REAL DEFAULT 0," +
+                "first_touch REAL DEFAULT 0," +
+                "long_pass REAL DEFAULT 0," +
+                "positioning REAL DEFAULT 0," +
+                "heading REAL DEFAULT 0," +
+                "ball_battle REAL DEFAULT 0," +
+                "strength REAL DEFAULT 0," +
+                "flexibility REAL DEFAULT 0," +
+                "speed REAL DEFAULT 0," +
+                "endurance REAL DEFAULT 0," +
+                "agility REAL DEFAULT 0," +
+                "analysis REAL DEFAULT 0," +
+                "communication REAL DEFAULT 0," +
+                "teamwork REAL DEFAULT 0," +
+                "concentration REAL DEFAULT 0," +
+                "nervousness REAL DEFAULT 0," +
+                "leadership REAL DEFAULT 0," +
+                "updated_at TEXT NOT NULL" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS team_notifications (" +
-                        "team_id INTEGER NOT NULL," +
-                        "date TEXT NOT NULL," +
-                        "quote_sent INTEGER NOT NULL DEFAULT 0," +
-                        "PRIMARY KEY(team_id, date)" +
-                        ");");
+        st.execute("CREATE TABLE IF NOT EXISTS player_attribute_history (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "player_id INTEGER NOT NULL," +
+                "snapshot_json TEXT NOT NULL," +
+                "created_at TEXT NOT NULL" +
+                ");");
 
-                st.execute("CREATE TABLE IF NOT EXISTS interactive_sessions (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "user_id INTEGER NOT NULL," +
-                        "chat_id INTEGER NOT NULL," +
-                        "message_id INTEGER NOT NULL," +
-                        "kind TEXT NOT NULL," +
-                        "data TEXT NOT NULL," +
-                        "created_at TEXT NOT NULL," +
-                        "updated_at TEXT NOT NULL," +
-                        "expires_at TEXT," +
-                        "UNIQUE(chat_id, message_id, kind)" +
-                        ");");
-                st.execute("RELEASE SAVEPOINT schema_migrate;");
-            } catch (SQLException e) {
-                st.execute("ROLLBACK TO SAVEPOINT schema_migrate;");
-                st.execute("RELEASE SAVEPOINT schema_migrate;");
-                throw e;
+        st.execute("CREATE TABLE IF NOT EXISTS user_achievements (" +
+                "player_id INTEGER NOT NULL," +
+                "code TEXT NOT NULL," +
+                "awarded_at TEXT NOT NULL," +
+                "PRIMARY KEY(player_id, code)" +
+                ");");
+
+        st.execute("CREATE TABLE IF NOT EXISTS team_events (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "team_id INTEGER NOT NULL," +
+                "created_at TEXT NOT NULL," +
+                "type TEXT NOT NULL," +
+                "user_id INTEGER," +
+                "payload TEXT NOT NULL DEFAULT '{}' " +
+                ");");
+
+        st.execute("CREATE TABLE IF NOT EXISTS points_ledger (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "user_id INTEGER NOT NULL," +
+                "delta INTEGER NOT NULL," +
+                "reason TEXT NOT NULL," +
+                "ref TEXT," +
+                "created_at TEXT NOT NULL" +
+                ");");
+
+        st.execute("CREATE TABLE IF NOT EXISTS daily_quotes (" +
+                "date TEXT PRIMARY KEY," +
+                "text TEXT NOT NULL," +
+                "source TEXT NOT NULL," +
+                "created_at TEXT NOT NULL" +
+                ");");
+
+        st.execute("CREATE TABLE IF NOT EXISTS media_cache (" +
+                "media_key TEXT PRIMARY KEY," +
+                "file_id TEXT NOT NULL," +
+                "updated_at TEXT NOT NULL" +
+                ");");
+
+        st.execute("CREATE TABLE IF NOT EXISTS team_notifications (" +
+                "team_id INTEGER NOT NULL," +
+                "date TEXT NOT NULL," +
+                "quote_sent INTEGER NOT NULL DEFAULT 0," +
+                "PRIMARY KEY(team_id, date)" +
+                ");");
+
+        st.execute("CREATE TABLE IF NOT EXISTS interactive_sessions (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "user_id INTEGER NOT NULL," +
+                "chat_id INTEGER NOT NULL," +
+                "message_id INTEGER NOT NULL," +
+                "kind TEXT NOT NULL," +
+                "data TEXT NOT NULL," +
+                "created_at TEXT NOT NULL," +
+                "updated_at TEXT NOT NULL," +
+                "expires_at TEXT," +
+                "UNIQUE(chat_id, message_id, kind)" +
+                ");");
+    }
+
+    // v2: see QueryPlanCheck for the queries these serve
+    private static void hotQueryIndexes(Statement st) throws SQLException {
+        st.execute("CREATE INDEX IF NOT EXISTS idx_users_role_team ON users(role, team_id, full_name);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_team_coaches_coach ON team_coaches(coach_id);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_training_sessions_date ON training_sessions(date);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_player_challenges_player_status ON player_challenges(player_id, status);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_polls_morning_player_created ON polls_morning(player_id, created_at);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_polls_morning_player_date ON polls_morning(player_id, date);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_polls_evening_player_created ON polls_evening(player_id, created_at);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_coach_ratings_player ON coach_ratings(player_id);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_team_events_team_created ON team_events(team_id, created_at);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_points_ledger_user_created ON points_ledger(user_id, created_at);");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_coach_challenge_pool_team ON coach_challenge_pool(team_id, id);");
+        // interactive_sessions lookups already use the UNIQUE(chat_id, message_id, kind) index
+    }
+
+    // v3: SQLite cannot change a column type in place, so each table is rebuilt from its own DDL
+    // with the time columns retyped, and rows are copied over with values converted in Java
+    // (ISO local date-times are interpreted in the bot's zone).
+    private static void epochTimeColumns(Connection c, ZoneId zone) throws SQLException {
+        for (var t : TIME_COLUMNS.entrySet()) {
+            rebuildWithEpochColumns(c, t.getKey(), t.getValue(), zone);
+        }
+        // the rebuilt tables lost their v2 indexes
+        try (Statement st = c.createStatement()) {
+            hotQueryIndexes(st);
+        }
+    }
+
+    private static void rebuildWithEpochColumns(Connection c, String table, Map<String, TimeKind> columns, ZoneId zone) throws SQLException {
+        String ddl;
+        try (PreparedStatement ps = c.prepareStatement("SELECT sql FROM sqlite_master WHERE type='table' AND name=?")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) throw new SQLException("Table not found: " + table);
+                ddl = rs.getString(1);
+            }
+        }
+        String tmp = table + "_v3";
+        String newDdl = ddl.replaceFirst("^CREATE TABLE \"?" + table + "\"?", "CREATE TABLE " + tmp);
+        for (String col : columns.keySet()) {
+            newDdl = newDdl.replaceAll("\\b" + col + " TEXT\\b", col + " INTEGER");
+        }
+
+        Long seq = null;
+        try (PreparedStatement ps = c.prepareStatement("SELECT seq FROM sqlite_sequence WHERE name=?")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) seq = rs.getLong(1);
             }
         }
+
+        try (Statement st = c.createStatement()) {
+            st.execute(newDdl);
+            copyRows(c, table, tmp, columns, zone);
+            st.execute("DROP TABLE " + table);
+            st.execute("ALTER TABLE " + tmp + " RENAME TO " + table);
+        }
+
+        // keep AUTOINCREMENT from reusing ids of rows deleted before the rebuild
+        if (seq != null) {
+            try (PreparedStatement ps = c.prepareStatement("UPDATE sqlite_sequence SET seq=MAX(seq, ?) WHERE name=?")) {
+                ps.setLong(1, seq);
+                ps.setString(2, table);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    private static void copyRows(Connection c, String from, String to, Map<String, TimeKind> columns, ZoneId zone) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT * FROM " + from)) {
+            ResultSetMetaData md = rs.getMetaData();
+            int n = md.getColumnCount();
+            List<String> names = new ArrayList<>(n);
+            for (int i = 1; i <= n; i++) names.add(md.getColumnName(i));
+
+            String sql = "INSERT INTO " + to + "(" + String.join(",", names) + ") VALUES(" +
+                    String.join(",", Collections.nCopies(n, "?")) + ")";
+            try (PreparedStatement ins = c.prepareStatement(sql)) {
+                int pending = 0;
+                while (rs.next()) {
+                    for (int i = 1; i <= n; i++) {
+                        Object v = rs.getObject(i);
+                        TimeKind kind = columns.get(names.get(i - 1));
+                        if (kind != null && v instanceof String s) v = toEpoch(s, kind, zone);
+                        ins.setObject(i, v);
+                    }
+                    ins.addBatch();
+                    if (++pending == 500) {
+                        ins.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) ins.executeBatch();
+            }
+        }
+    }
+
+    // v8: the table behind the migrations themselves, left out of v3. Its rows hold ISO text from before
+    // v3 and epoch millis (stored as text by the TEXT column) since; the rebuild makes both integers.
+    private static void epochSchemaVersion(Connection c, ZoneId zone) throws SQLException {
+        rebuildWithEpochColumns(c, "schema_version", Map.of("applied_at", TimeKind.INSTANT), zone);
+    }
+
+    private static long toEpoch(String iso, TimeKind kind, ZoneId zone) {
+        if (kind == TimeKind.INSTANT && !iso.isEmpty() && iso.chars().allMatch(Character::isDigit)) return Long.parseLong(iso);
+        return switch (kind) {
+            case DATE -> LocalDate.parse(iso.length() > 10 ? iso.substring(0, 10) : iso).toEpochDay();
+            case INSTANT -> iso.length() == 10
+                    ? TimeUtil.startOfDay(LocalDate.parse(iso), zone)
+                    : TimeUtil.toMillis(TimeUtil.parseDateTime(iso), zone);
+        };
+    }
+
+    // v4: FTS5 index over users.full_name/phone, kept in sync by triggers.
+    // Names fold ё to е and phones keep digits only, so the index matches what admins type.
+    private static void userSearchIndex(Statement st) throws SQLException {
+        String name = "replace(replace(new.full_name,'ё','е'),'Ё','Е')";
+        String phone = "replace(replace(replace(replace(replace(replace(COALESCE(new.phone,''),' ',''),'-',''),'(',''),')',''),'+',''),'.','')";
+        String insert = "INSERT INTO users_fts(rowid, full_name, phone) VALUES(new.tg_id, " + name + ", " + phone + ");";
+
+        st.execute("CREATE VIRTUAL TABLE IF NOT EXISTS users_fts USING fts5(full_name, phone, tokenize='unicode61');");
+        st.execute("CREATE TRIGGER IF NOT EXISTS users_fts_ai AFTER INSERT ON users BEGIN " + insert + " END;");
+        st.execute("CREATE TRIGGER IF NOT EXISTS users_fts_au AFTER UPDATE OF full_name, phone ON users BEGIN " +
+                "DELETE FROM users_fts WHERE rowid=old.tg_id; " + insert + " END;");
+        st.execute("CREATE TRIGGER IF NOT EXISTS users_fts_ad AFTER DELETE ON users BEGIN " +
+                "DELETE FROM users_fts WHERE rowid=old.tg_id; END;");
+        st.execute("DELETE FROM users_fts;");
+        st.execute("INSERT INTO users_fts(rowid, full_name, phone) SELECT tg_id, " +
+                name.replace("new.", "") + ", " + phone.replace("new.", "") + " FROM users;");
+    }
+
+    // v5: one row per recipient of a scheduled session broadcast, claimed before the send
+    private static void sessionDeliveries(Statement st) throws SQLException {
+        st.execute("CREATE TABLE IF NOT EXISTS session_deliveries (" +
+                "session_id INTEGER NOT NULL," +
+                "action TEXT NOT NULL," +
+                "recipient_id INTEGER NOT NULL," +
+                "delivered_at INTEGER NOT NULL," +
+                "PRIMARY KEY(session_id, action, recipient_id)" +
+                ") WITHOUT ROWID;");
+    }
+
+    // v6: scheduled broadcasts waiting for delivery (PENDING); rows are deleted once sent,
+    // rows that ran out of attempts stay as DEAD
+    private static void outbox(Statement st) throws SQLException {
+        st.execute("CREATE TABLE IF NOT EXISTS outbox (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "chat_id INTEGER NOT NULL," +
+                "text TEXT NOT NULL," +
+                "reply_markup TEXT," +
+                "kind TEXT NOT NULL," +
+                "payload TEXT," +
+                "status TEXT NOT NULL DEFAULT 'PENDING'," +
+                "attempts INTEGER NOT NULL DEFAULT 0," +
+                "next_attempt_at INTEGER NOT NULL," +
+                "last_error TEXT," +
+                "created_at INTEGER NOT NULL" +
+                ");");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_outbox_status_next ON outbox(status, next_attempt_at);");
+    }
+
+    // v7: challenges generated ahead of training time; position is '' for players without one
+    private static void pendingAiChallenges(Statement st) throws SQLException {
+        st.execute("CREATE TABLE IF NOT EXISTS pending_ai_challenges (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "team_id INTEGER NOT NULL," +
+                "position TEXT NOT NULL," +
+                "text TEXT NOT NULL," +
+                "created_at INTEGER NOT NULL" +
+                ");");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_pending_ai_challenges_team_pos ON pending_ai_challenges(team_id, position, id);");
     }
 }
@@ -0,0 +1,186 @@
+package ru.vadirss.bot.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of prepared statements for one physical connection, keyed by SQL text.
+ * Callers keep the usual try-with-resources: closing the handed out statement only
+ * clears its parameters and returns it to the cache.
+ * Not thread-safe; a connection is used by one thread at a time.
+ */
+final class StatementCache {
+
+    static final class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+    }
+
+    private record Key(String sql, int autoGeneratedKeys) {}
+
+    private static final class Entry {
+        final PreparedStatement ps;
+        boolean inUse;
+        boolean evicted;
+
+        Entry(PreparedStatement ps) {
+            this.ps = ps;
+        }
+    }
+
+    private final Connection raw;
+    private final int capacity;
+    private final Counters counters;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(Connection raw, int capacity, Counters counters) {
+        this.raw = raw;
+        this.capacity = capacity;
+        this.counters = counters;
+    }
+
+    /**
+     * Returns a cached statement for {@code prepareStatement(String)} and
+     * {@code prepareStatement(String, int)} calls, or {@code null} for anything else.
+     */
+    PreparedStatement intercept(Method method, Object[] args) throws SQLException {
+        if (capacity == 0 || !"prepareStatement".equals(method.getName())) return null;
+        if (args.length == 1) return prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+        if (args.length == 2 && method.getParameterTypes()[1] == int.class) return prepare((String) args[0], (Integer) args[1]);
+        return null;
+    }
+
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        Key key = new Key(sql, autoGeneratedKeys);
+        Entry e = entries.get(key);
+        if (e != null && !e.inUse) {
+            counters.hits.increment();
+            e.inUse = true;
+            return handle(key, e);
+        }
+        counters.misses.increment();
+        PreparedStatement ps = raw.prepareStatement(sql, autoGeneratedKeys);
+        // same SQL already checked out (nested use): hand out a plain statement the caller closes
+        if (e != null) return ps;
+
+        e = new Entry(ps);
+        e.inUse = true;
+        entries.put(key, e);
+        evictOverflow();
+        return handle(key, e);
+    }
+
+    void closeAll() {
+        for (Entry e : entries.values()) {
+            try { e.ps.close(); } catch (SQLException ignored) { }
+        }
+        entries.clear();
+    }
+
+    /** Wraps a connection that is not pooled (the writer's) so it gets the same caching. */
+    Connection wrap() {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (args != null) {
+                        PreparedStatement cached = intercept(method, args);
+                        if (cached != null) return cached;
+                    }
+                    if ("close".equals(method.getName())) closeAll();
+                    try {
+                        return method.invoke(raw, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                }
+        );
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            Entry old = it.next().getValue();
+            it.remove();
+            counters.evictions.increment();
+            if (old.inUse) old.evicted = true; // closed when the borrower is done with it
+            else closeQuietly(old.ps);
+        }
+    }
+
+    private PreparedStatement handle(Key key, Entry e) {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                new Handle(key, e)
+        );
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try { ps.close(); } catch (SQLException ignored) { }
+    }
+
+    private final class Handle implements InvocationHandler {
+        private final Key key;
+        private final Entry entry;
+        private boolean returned;
+
+        Handle(Key key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!returned) {
+                        returned = true;
+                        giveBack();
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return returned || entry.ps.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                default -> {
+                    if (returned) throw new SQLException("Statement already closed");
+                    try {
+                        return method.invoke(entry.ps, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+        }
+
+        private void giveBack() {
+            try {
+                entry.ps.clearParameters();
+            } catch (SQLException e) {
+                // broken statement: drop it rather than hand it out again
+                if (entries.get(key) == entry) entries.remove(key);
+                entry.evicted = true;
+            }
+            entry.inUse = false;
+            if (entry.evicted) closeQuietly(entry.ps);
+        }
+    }
+}
@@ -7,5 +7,5 @@ public final class CoachRating {
     public int lim; // 0..4
     public int t2;  // 0..3
     public int eiq; // 0..2
-    public String createdAt;
+    public long createdAt; // epoch millis
 }
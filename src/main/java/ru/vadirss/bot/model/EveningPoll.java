@@ -1,10 +1,12 @@
 package ru.vadirss.bot.model;
 
+import java.time.LocalDate;
+
 public final class EveningPoll {
     public long id;
     public Long sessionId;
-    public String date; // yyyy-MM-dd
+    public LocalDate date;
     public long playerId;
     public int selfRating;
-    public String createdAt;
+    public long createdAt; // epoch millis
 }
@@ -9,7 +9,7 @@ public final class InteractiveSession {
     public int messageId;
     public String kind;
     public JsonObject data;
-    public String createdAt;
-    public String updatedAt;
-    public String expiresAt;
+    public long createdAt; // epoch millis
+    public long updatedAt;
+    public Long expiresAt;
 }
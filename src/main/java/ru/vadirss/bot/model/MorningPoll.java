@@ -1,13 +1,15 @@
 package ru.vadirss.bot.model;
 
+import java.time.LocalDate;
+
 public final class MorningPoll {
     public long id;
     public Long sessionId;
-    public String date; // yyyy-MM-dd
+    public LocalDate date;
     public long playerId;
     public int energy;
     public int sleep;
     public int readiness;
     public String mood;
-    public String createdAt;
+    public long createdAt; // epoch millis
 }
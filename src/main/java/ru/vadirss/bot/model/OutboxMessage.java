@@ -0,0 +1,15 @@
+package ru.vadirss.bot.model;
+
+import com.google.gson.JsonObject;
+
+/** A message waiting in the outbox. {@code kind} tells the sender what to do once Telegram accepted it. */
+public final class OutboxMessage {
+    public long id;
+    public long chatId;
+    public String text;
+    public String replyMarkup; // Keyboards.toJson, null for no keyboard
+    public String kind;
+    public JsonObject payload;
+    public int attempts;
+    public long createdAt; // epoch millis
+}
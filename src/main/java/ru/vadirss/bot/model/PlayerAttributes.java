@@ -28,7 +28,7 @@ public final class PlayerAttributes {
     public double nervousness;
     public double leadership;
 
-    public String updatedAt;
+    public long updatedAt; // epoch millis
 
     public Map<String, Double> asOrderedMap() {
         Map<String, Double> m = new LinkedHashMap<>();
@@ -54,7 +54,7 @@ public final class PlayerAttributes {
         return m;
     }
 
-    public static PlayerAttributes emptyNow(String now) {
+    public static PlayerAttributes emptyNow(long now) {
         PlayerAttributes a = new PlayerAttributes();
         a.updatedAt = now;
         return a;
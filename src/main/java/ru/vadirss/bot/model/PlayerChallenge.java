@@ -1,7 +1,5 @@
 package ru.vadirss.bot.model;
 
-import java.time.LocalDateTime;
-
 public final class PlayerChallenge {
     public long id;
     public long sessionId;
@@ -10,6 +8,6 @@ public final class PlayerChallenge {
     public String source; // AI or COACH
     public String status; // PENDING, COMPLETED, FAILED, EXPIRED
     public Long markedBy;
-    public LocalDateTime markedAt;
-    public LocalDateTime createdAt;
+    public Long markedAt; // epoch millis
+    public long createdAt;
 }
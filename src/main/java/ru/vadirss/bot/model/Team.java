@@ -3,5 +3,5 @@ package ru.vadirss.bot.model;
 public final class Team {
     public long id;
     public String name;
-    public String createdAt;
+    public long createdAt; // epoch millis
 }
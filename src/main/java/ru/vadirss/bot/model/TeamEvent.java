@@ -3,7 +3,7 @@ package ru.vadirss.bot.model;
 public final class TeamEvent {
     public long id;
     public long teamId;
-    public String createdAt;
+    public long createdAt; // epoch millis
     public TeamEventType type;
     public Long userId;
     public String payloadJson;
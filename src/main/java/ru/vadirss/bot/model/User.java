@@ -20,8 +20,26 @@ public final class User {
     public UserState state = UserState.WAIT_CONSENT;
     public JsonObject stateData = new JsonObject();
 
-    public String createdAt;
-    public String updatedAt;
+    public long createdAt; // epoch millis
+    public long updatedAt;
+
+    public User copy() {
+        User u = new User();
+        u.tgId = tgId;
+        u.chatId = chatId;
+        u.role = role;
+        u.consent = consent;
+        u.fullName = fullName;
+        u.phone = phone;
+        u.teamId = teamId;
+        u.position = position;
+        u.points = points;
+        u.state = state;
+        u.stateData = stateData == null ? new JsonObject() : stateData.deepCopy();
+        u.createdAt = createdAt;
+        u.updatedAt = updatedAt;
+        return u;
+    }
 
     public boolean isRegistered() {
         return consent && fullName != null && !fullName.isBlank() && phone != null && !phone.isBlank() && teamId != null && position != null && !position.isBlank();
@@ -0,0 +1,111 @@
+package ru.vadirss.bot.scheduler;
+
+import ru.vadirss.bot.config.Config;
+import ru.vadirss.bot.model.Team;
+import ru.vadirss.bot.model.TeamSchedule;
+import ru.vadirss.bot.model.User;
+import ru.vadirss.bot.service.BotFacade;
+import ru.vadirss.bot.service.PendingChallengeService;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the pending AI challenge buffer filled for teams that train within {@code AI_PREFETCH_HOURS_AHEAD}.
+ * Per team and position the low watermark is one training's worth (the players in that position) and the
+ * buffer is refilled up to {@code AI_PREFETCH_TRAININGS} times that. Rounds run every
+ * {@code AI_PREFETCH_INTERVAL_MINUTES} and back off while live AI calls are running, so the
+ * completions happen in idle time instead of in the burst right before training.
+ */
+public final class ChallengePrefetcher implements AutoCloseable {
+
+    private final Config cfg;
+    private final BotFacade facade;
+    private final PendingChallengeService pending;
+    private final ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vadirss-challenge-prefetch");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private String lastStats;
+
+    public ChallengePrefetcher(Config cfg, BotFacade facade) {
+        this.cfg = cfg;
+        this.facade = facade;
+        this.pending = facade.pendingChallenges();
+    }
+
+    public void start() {
+        exec.scheduleWithFixedDelay(this::round, 1, cfg.aiPrefetchIntervalMinutes(), TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void close() {
+        exec.shutdownNow();
+    }
+
+    private void round() {
+        try {
+            long now = System.currentTimeMillis();
+            int dropped = pending.dropOlderThan(now - TimeUnit.HOURS.toMillis(cfg.aiPrefetchMaxAgeHours()));
+            if (dropped > 0) System.out.println("Challenge prefetch: dropped " + dropped + " stale challenge(s)");
+
+            for (Team team : facade.teams().listTeams()) {
+                if (!trainsSoon(team.id)) continue;
+                if (!refill(team)) break;
+            }
+
+            String s = "Challenge prefetch: " + pending.stats();
+            if (!s.equals(lastStats)) System.out.println(s);
+            lastStats = s;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** @return false when the round should stop because the AI endpoint is busy or failing */
+    private boolean refill(Team team) {
+        Map<String, Integer> players = new HashMap<>();
+        for (User p : facade.users().listPlayersByTeam(team.id)) {
+            players.merge(p.position == null ? "" : p.position.trim(), 1, Integer::sum);
+        }
+        Map<String, Integer> depths = pending.depths(team.id);
+
+        for (var e : players.entrySet()) {
+            String position = e.getKey();
+            int low = e.getValue();
+            int depth = depths.getOrDefault(position, 0);
+            if (depth >= low) continue;
+            // live calls go first; the next round picks up from here
+            if (!facade.ai().idle()) return false;
+
+            int want = low * cfg.aiPrefetchTrainings() - depth;
+            List<String> texts = facade.ai().generatePositionChallenges(team, position, want);
+            pending.add(team.id, position, texts);
+            if (texts.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    private boolean trainsSoon(long teamId) {
+        List<TeamSchedule> schedules = facade.schedules().listForTeam(teamId);
+        if (schedules.isEmpty()) return false;
+        ZoneId zone = cfg.zoneId();
+        LocalDateTime from = LocalDateTime.now(zone);
+        LocalDateTime until = from.plusHours(cfg.aiPrefetchHoursAhead());
+        for (LocalDate d = from.toLocalDate(); !d.isAfter(until.toLocalDate()); d = d.plusDays(1)) {
+            for (TeamSchedule s : schedules) {
+                if (s.dayOfWeek != d.getDayOfWeek().getValue()) continue;
+                LocalDateTime start = LocalDateTime.of(d, s.startTime);
+                if (start.isAfter(from) && !start.isAfter(until)) return true;
+            }
+        }
+        return false;
+    }
+}
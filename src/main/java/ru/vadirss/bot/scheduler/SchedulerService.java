@@ -3,24 +3,71 @@ package ru.vadirss.bot.scheduler;
 import com.google.gson.JsonObject;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import ru.vadirss.bot.config.Config;
+import ru.vadirss.bot.model.OutboxMessage;
 import ru.vadirss.bot.model.Team;
 import ru.vadirss.bot.model.TeamSchedule;
 import ru.vadirss.bot.model.TrainingSession;
 import ru.vadirss.bot.model.User;
 import ru.vadirss.bot.service.BotFacade;
+import ru.vadirss.bot.service.OutboxService;
 import ru.vadirss.bot.telegram.CallbackData;
 import ru.vadirss.bot.telegram.Keyboards;
 import ru.vadirss.bot.telegram.VadirssBot;
+import ru.vadirss.bot.util.LongObjectMap;
 import ru.vadirss.bot.util.TimeUtil;
 
 import java.time.*;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs the per-team daily actions at their due time. For every team and action the next occurrence
+ * is computed from the team's weekly schedule and kept in a priority queue; the scheduler thread
+ * sleeps until the earliest one. Plans are rebuilt only when a team or its schedule changes.
+ * The sent flags in the database stay the guard against running an action twice.
+ * <p>
+ * Due actions run on a bounded worker pool: teams in parallel, each team's actions one after
+ * another in due order. A failing action only affects its own team.
+ */
+public final class SchedulerService implements AutoCloseable {
+
+    // declaration order breaks ties between equal due times
+    private enum Action {
+        MORNING_POLL(true),
+        REMINDER(true),
+        CHALLENGES(true),
+        COACH_PROMPT(true),
+        COACH_RATING(true),
+        EXPIRE_CHALLENGES(true),
+        EVENING_POLL(true),
+        QUOTE(false);
+
+        final boolean trainingDay;
+
+        Action(boolean trainingDay) {
+            this.trainingDay = trainingDay;
+        }
+    }
+
+    /** One occurrence of an action: due at {@code at}, still worth running until {@code deadline} (epoch millis). */
+    private record Due(long at, long deadline, long teamId, LocalDate date, Action action) {}
 
-public final class SchedulerService {
+    /** {@code byDay} is indexed by ISO day of week, 1..7. */
+    private record TeamPlan(Team team, TeamSchedule[] byDay) {}
+
+    // a claim not renewed for this long belongs to a dead run and is taken over; a live run renews it every third of that
+    private static final long CLAIM_LEASE_MS = TimeUnit.MINUTES.toMillis(10);
 
     private final Config cfg;
     private final BotFacade facade;
@@ -31,137 +78,323 @@ public final class SchedulerService {
         t.setDaemon(true);
         return t;
     });
+    private final ExecutorService workers;
+
+    // only touched on the scheduler thread
+    private final PriorityQueue<Due> queue = new PriorityQueue<>(Comparator.comparingLong(Due::at).thenComparing(Due::action));
+    private final LongObjectMap<TeamPlan> plans = new LongObjectMap<>();
+    // last action handed to the workers per team; the next one for that team chains onto it
+    private final LongObjectMap<CompletableFuture<Void>> lanes = new LongObjectMap<>();
+    private ScheduledFuture<?> timer;
 
     public SchedulerService(Config cfg, BotFacade facade, VadirssBot bot) {
         this.cfg = cfg;
         this.facade = facade;
         this.bot = bot;
+        AtomicInteger n = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(cfg.schedulerThreads(), r -> {
+            Thread t = new Thread(r, "vadirss-scheduler-team-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     public void start() {
-        exec.scheduleAtFixedRate(this::tickSafe, 5, cfg.schedulerIntervalSeconds(), TimeUnit.SECONDS);
+        facade.schedules().addChangeListener(this::replanLater);
+        facade.teams().addChangeListener(this::replanLater);
+        exec.schedule(() -> safely(this::replanAll), 5, TimeUnit.SECONDS);
+        // warm today's quote now, and tomorrow's every evening, so the 09:00 broadcast finds it in memory
+        prefetchQuote(LocalDate.now(cfg.zoneId()));
+        scheduleQuotePrefetch();
     }
 
-    private void tickSafe() {
+    /** Stops planning; actions already running get a few seconds to finish. */
+    @Override
+    public void close() {
+        exec.shutdownNow();
+        workers.shutdown();
         try {
-            tick();
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scheduleQuotePrefetch() {
+        ZonedDateTime now = ZonedDateTime.now(cfg.zoneId());
+        ZonedDateTime at = now.toLocalDate().atTime(cfg.quotePrefetchHour(), 0).atZone(cfg.zoneId());
+        if (!at.isAfter(now)) at = at.plusDays(1);
+        LocalDate tomorrow = at.toLocalDate().plusDays(1);
+        exec.schedule(() -> {
+            prefetchQuote(tomorrow);
+            scheduleQuotePrefetch();
+        }, Duration.between(now, at).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // on a worker: the scheduler thread must not wait on the AI endpoint
+    private void prefetchQuote(LocalDate date) {
+        workers.execute(() -> safely(() -> facade.ai().prefetchDailyQuote(date)));
+    }
+
+    private void replanLater(long teamId) {
+        exec.execute(() -> safely(() -> {
+            replan(teamId);
+            rearm();
+        }));
+    }
+
+    private static void safely(Runnable r) {
+        try {
+            r.run();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private void tick() {
-        ZoneId zone = cfg.zoneId();
-        LocalDateTime now = LocalDateTime.now(zone).withSecond(0).withNano(0);
-        LocalDate today = now.toLocalDate();
-        LocalTime nowTime = now.toLocalTime();
-
-        List<Team> teams = facade.teams().listTeams();
-        for (Team team : teams) {
-            Optional<TeamSchedule> schedOpt = facade.schedules().findForTeamAndDay(team.id, now.getDayOfWeek());
-            if (schedOpt.isPresent()) {
-                TeamSchedule sched = schedOpt.get();
-                TrainingSession session = facade.sessions().getOrCreate(team.id, today, sched.startTime, sched.endTime);
-                handleTrainingDay(team, session, now);
-            } else {
-                handleNoTrainingDay(team, today, nowTime);
+    private void replanAll() {
+        queue.clear();
+        plans.clear();
+        for (Team team : facade.teams().listTeams()) planTeam(team);
+        rearm();
+    }
+
+    private void replan(long teamId) {
+        queue.removeIf(d -> d.teamId() == teamId);
+        plans.remove(teamId);
+        facade.teams().findById(teamId).ifPresent(this::planTeam);
+    }
+
+    private void planTeam(Team team) {
+        TeamSchedule[] byDay = new TeamSchedule[8];
+        for (TeamSchedule s : facade.schedules().listForTeam(team.id)) byDay[s.dayOfWeek] = s;
+        TeamPlan plan = new TeamPlan(team, byDay);
+        plans.put(team.id, plan);
+
+        // today's occurrences that are overdue but not past their deadline run right away (catch-up after restart)
+        LocalDate today = LocalDate.now(cfg.zoneId());
+        long now = System.currentTimeMillis();
+        for (Action a : Action.values()) enqueueNext(plan, a, today, now);
+    }
+
+    private void enqueueNext(TeamPlan plan, Action action, LocalDate from, long now) {
+        // the weekly schedule repeats, so if nothing falls within 8 days nothing ever will
+        for (int i = 0; i <= 7; i++) {
+            Due d = occurrence(plan, action, from.plusDays(i));
+            if (d != null && d.deadline() > now) {
+                queue.add(d);
+                return;
             }
         }
     }
 
-    private void handleNoTrainingDay(Team team, LocalDate today, LocalTime nowTime) {
-        // 09:00 quote (only if not training for this team today)
-        if (nowTime.isBefore(LocalTime.of(9, 0))) return;
-        String dateIso = TimeUtil.fmt(today);
-        if (facade.notifications().isQuoteSent(team.id, dateIso)) return;
+    private Due occurrence(TeamPlan plan, Action action, LocalDate date) {
+        TeamSchedule s = plan.byDay()[date.getDayOfWeek().getValue()];
+        if ((s != null) != action.trainingDay) return null;
+
+        LocalDateTime nextDay = date.plusDays(1).atStartOfDay();
+        if (s == null) return due(plan, action, date, date.atTime(9, 0), nextDay); // quote
+
+        LocalDateTime start = LocalDateTime.of(date, s.startTime);
+        LocalDateTime end = LocalDateTime.of(date, s.endTime);
+        if (!end.isAfter(start)) end = end.plusDays(1); // same rule as TrainingSessionService.getOrCreate
+
+        return switch (action) {
+            case MORNING_POLL -> due(plan, action, date, date.atTime(9, 0), nextDay);
+            case REMINDER -> due(plan, action, date, start.minusMinutes(150), start);
+            case CHALLENGES -> due(plan, action, date, start.minusMinutes(120), start);
+            case COACH_PROMPT -> due(plan, action, date, start.minusMinutes(10), start);
+            case COACH_RATING -> due(plan, action, date, end.plusMinutes(5), later(nextDay, end.plusMinutes(5).plusHours(1)));
+            case EXPIRE_CHALLENGES -> due(plan, action, date, end.plusMinutes(30), later(nextDay, end.plusMinutes(30).plusHours(1)));
+            case EVENING_POLL -> due(plan, action, date, date.atTime(22, 0), nextDay);
+            case QUOTE -> null;
+        };
+    }
 
-        String quote = facade.ai().getOrCreateDailyQuote(today, cfg.zoneId());
-        String text = "✨ <b>Цитата дня</b>\n\n" + quote;
+    private Due due(TeamPlan plan, Action action, LocalDate date, LocalDateTime at, LocalDateTime deadline) {
+        ZoneId zone = cfg.zoneId();
+        return new Due(TimeUtil.toMillis(at, zone), TimeUtil.toMillis(deadline, zone), plan.team().id, date, action);
+    }
 
-        List<User> players = facade.users().listPlayersByTeam(team.id);
-        for (User p : players) {
-            if (!p.consent) continue;
-            bot.sendHtml(p.chatId, text, null);
+    private static LocalDateTime later(LocalDateTime a, LocalDateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private void rearm() {
+        if (timer != null) timer.cancel(false);
+        Due next = queue.peek();
+        if (next == null) {
+            timer = null;
+            return;
         }
-        facade.notifications().markQuoteSent(team.id, dateIso);
+        long delay = Math.max(0, next.at() - System.currentTimeMillis());
+        timer = exec.schedule(() -> safely(this::runDue), delay, TimeUnit.MILLISECONDS);
     }
 
-    private void handleTrainingDay(Team team, TrainingSession session, LocalDateTime now) {
-        ZoneId zone = cfg.zoneId();
-        LocalTime nowTime = now.toLocalTime();
+    private void runDue() {
+        while (!queue.isEmpty() && queue.peek().at() <= System.currentTimeMillis()) {
+            Due d = queue.poll();
+            TeamPlan plan = plans.get(d.teamId());
+            if (plan == null) continue;
 
-        // Morning poll 09:00
-        if (!session.morningPollSent && !nowTime.isBefore(LocalTime.of(9, 0))) {
-            sendMorningPoll(team, session);
-            facade.sessions().setFlag(session.id, "morning_poll_sent", true);
-            session.morningPollSent = true;
+            if (System.currentTimeMillis() >= d.deadline()) {
+                enqueueNext(plan, d.action(), d.date().plusDays(1), System.currentTimeMillis());
+                continue;
+            }
+            dispatch(plan, d);
         }
+        rearm();
+    }
 
-        // Reminder: start - 2h30m
-        LocalDateTime reminderAt = session.startDateTime.minusMinutes(150);
-        if (!session.reminderSent && !now.isBefore(reminderAt) && now.isBefore(session.startDateTime)) {
-            sendReminder(team, session);
-            facade.sessions().setFlag(session.id, "reminder_sent", true);
-            session.reminderSent = true;
+    private void dispatch(TeamPlan plan, Due d) {
+        long teamId = plan.team().id;
+        CompletableFuture<Void> prev = lanes.get(teamId);
+        if (prev == null) prev = CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> run = prev
+                .handleAsync((ignored, e) -> runForTeam(plan, d), workers)
+                .thenAcceptAsync(ok -> {
+                    done(plan, d, ok);
+                    rearm();
+                }, exec);
+        lanes.put(teamId, run);
+        run.whenCompleteAsync((r, e) -> {
+            if (lanes.get(teamId) == run) lanes.remove(teamId);
+        }, exec);
+    }
+
+    /** Runs on a worker. Never throws, so one team's failure can't stall its lane or other teams. */
+    private boolean runForTeam(TeamPlan plan, Due d) {
+        long started = System.nanoTime();
+        try {
+            if (!fire(plan, d)) {
+                System.out.println("Scheduler: team " + plan.team().id + " " + d.action() + " is claimed by another run, will check again");
+                return false;
+            }
+            System.out.println("Scheduler: team " + plan.team().id + " " + d.action() + " done in " + elapsedMs(started) + " ms");
+            return true;
+        } catch (Exception e) {
+            System.err.println("Scheduler: team " + plan.team().id + " " + d.action() + " failed after " + elapsedMs(started) + " ms: " + e);
+            e.printStackTrace();
+            return false;
         }
+    }
+
+    private static long elapsedMs(long startedNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+    }
 
-        // Challenge: start - 2h
-        LocalDateTime challengeAt = session.startDateTime.minusMinutes(120);
-        if (!session.challengesSent && !now.isBefore(challengeAt) && now.isBefore(session.startDateTime)) {
-            sendChallenges(team, session);
-            facade.sessions().setFlag(session.id, "challenges_sent", true);
-            session.challengesSent = true;
+    /** Back on the scheduler thread: queue the retry or the next occurrence. */
+    private void done(TeamPlan plan, Due d, boolean ok) {
+        // the team was replanned (or deleted) meanwhile, and the new plan already has its own occurrences
+        if (plans.get(d.teamId()) != plan) return;
+
+        long now = System.currentTimeMillis();
+        if (!ok) {
+            // the action failed or is claimed elsewhere: try the same occurrence again while it is still due
+            long retryAt = now + cfg.schedulerIntervalSeconds() * 1000L;
+            if (retryAt < d.deadline()) {
+                queue.add(new Due(retryAt, d.deadline(), d.teamId(), d.date(), d.action()));
+                return;
+            }
         }
+        enqueueNext(plan, d.action(), d.date().plusDays(1), now);
+    }
 
-        // Coach prompt: start - 10m
-        LocalDateTime coachPromptAt = session.startDateTime.minusMinutes(10);
-        if (!session.coachPromptSent && !now.isBefore(coachPromptAt) && now.isBefore(session.startDateTime)) {
-            sendCoachPrompt(team, session);
-            facade.sessions().setFlag(session.id, "coach_prompt_sent", true);
-            session.coachPromptSent = true;
+    /** @return false when another run holds the claim, so the occurrence should be checked again later */
+    private boolean fire(TeamPlan plan, Due d) {
+        Team team = plan.team();
+        if (d.action() == Action.QUOTE) {
+            sendQuote(team, d.date());
+            return true;
         }
 
-        // Coach rating after training end + 5m
-        LocalDateTime coachRatingAt = session.endDateTime.plusMinutes(5);
-        if (!session.coachRatingSent && !now.isBefore(coachRatingAt)) {
-            startCoachRating(team, session);
-            facade.sessions().setFlag(session.id, "coach_rating_sent", true);
-            session.coachRatingSent = true;
+        TeamSchedule sched = plan.byDay()[d.date().getDayOfWeek().getValue()];
+        TrainingSession session = facade.sessions().getOrCreate(team.id, d.date(), sched.startTime, sched.endTime);
+        return switch (d.action()) {
+            case MORNING_POLL -> once(session, session.morningPollSent, "morning_poll_sent", () -> sendMorningPoll(team, session));
+            case REMINDER -> once(session, session.reminderSent, "reminder_sent", () -> sendReminder(team, session));
+            case CHALLENGES -> once(session, session.challengesSent, "challenges_sent", () -> sendChallenges(team, session));
+            case COACH_PROMPT -> once(session, session.coachPromptSent, "coach_prompt_sent", () -> sendCoachPrompt(team, session));
+            case COACH_RATING -> once(session, session.coachRatingSent, "coach_rating_sent", () -> startCoachRating(team, session));
+            case EXPIRE_CHALLENGES -> once(session, session.challengesExpired, "challenges_expired",
+                    () -> facade.challenges().expirePendingChallenges(session.id));
+            case EVENING_POLL -> once(session, session.eveningPollSent, "evening_poll_sent", () -> sendEveningPoll(team, session));
+            case QUOTE -> true;
+        };
+    }
+
+    private boolean once(TrainingSession session, boolean done, String flag, Runnable action) {
+        if (done) return true;
+        // another instance (or a run that died less than a lease ago) has it; look again after the lease
+        if (!facade.sessions().claim(session.id, flag, CLAIM_LEASE_MS)) return false;
+        ScheduledFuture<?> renewal = exec.scheduleWithFixedDelay(() -> safely(() -> facade.sessions().renew(session.id, flag)),
+                CLAIM_LEASE_MS / 3, CLAIM_LEASE_MS / 3, TimeUnit.MILLISECONDS);
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            facade.sessions().release(session.id, flag);
+            throw e;
+        } finally {
+            renewal.cancel(false);
         }
+        facade.sessions().complete(session.id, flag);
+        return true;
+    }
 
-        // Expire pending challenges after training end + 30m
-        LocalDateTime expireAt = session.endDateTime.plusMinutes(30);
-        if (!session.challengesExpired && !now.isBefore(expireAt)) {
-            facade.challenges().expirePendingChallenges(session.id);
-            facade.sessions().setFlag(session.id, "challenges_expired", true);
-            session.challengesExpired = true;
+    /**
+     * Queues a message for each recipient that has no delivery row for this session and action yet
+     * ({@code message} may return null to skip a recipient).
+     * The messages and their delivery rows are written in one transaction, so a restart neither loses
+     * nor repeats a recipient.
+     */
+    private void enqueueDeliveries(TrainingSession session, Action action, List<User> recipients,
+                                   Function<User, OutboxMessage> message) {
+        Set<Long> delivered = facade.sessions().deliveredTo(session.id, action.name());
+        List<User> todo = new ArrayList<>();
+        List<OutboxMessage> messages = new ArrayList<>();
+        for (User r : recipients) {
+            if (delivered.contains(r.tgId)) continue;
+            OutboxMessage m = message.apply(r);
+            if (m == null) continue;
+            todo.add(r);
+            messages.add(m);
         }
+        if (todo.isEmpty()) return;
+        facade.outbox().enqueueAll(messages, c -> {
+            for (User r : todo) facade.sessions().markDelivered(c, session.id, action.name(), r.tgId);
+        });
+    }
 
-        // Evening poll at 22:00
-        if (!session.eveningPollSent && !nowTime.isBefore(LocalTime.of(22, 0))) {
-            sendEveningPoll(team, session);
-            facade.sessions().setFlag(session.id, "evening_poll_sent", true);
-            session.eveningPollSent = true;
+    private static List<User> consented(List<User> users) {
+        return users.stream().filter(u -> u.consent).toList();
+    }
+
+    private void sendQuote(Team team, LocalDate date) {
+        if (facade.notifications().isQuoteSent(team.id, date)) return;
+
+        String quote = facade.ai().getOrCreateDailyQuote(date);
+        String text = "✨ <b>Цитата дня</b>\n\n" + quote;
+
+        List<OutboxMessage> messages = new ArrayList<>();
+        for (User p : consented(facade.users().listPlayersByTeam(team.id))) {
+            messages.add(OutboxService.message(p.chatId, text, null, OutboxService.KIND_TEXT, null));
         }
+        // queued and marked together, so a restart neither loses nor repeats the quote
+        facade.outbox().enqueueAll(messages, c -> facade.notifications().markQuoteSent(c, team.id, date));
     }
 
     private void sendMorningPoll(Team team, TrainingSession session) {
-        List<User> players = facade.users().listPlayersByTeam(team.id);
-        for (User p : players) {
-            if (!p.consent) continue;
-            bot.startMorningPoll(p, session);
-        }
+        List<User> players = consented(facade.users().listPlayersByTeam(team.id));
+        enqueueDeliveries(session, Action.MORNING_POLL, players, p -> bot.morningPollMessage(p, session));
     }
 
     private void sendReminder(Team team, TrainingSession session) {
         String text = "⏰ <b>Напоминание</b>\n" +
                 "Сегодня тренировка в <b>" + session.startDateTime.toLocalTime() + "</b>.\n\n" +
                 "💧 Не забудь воду, бутсы и настрой на победу!";
-        List<User> players = facade.users().listPlayersByTeam(team.id);
-        for (User p : players) {
-            if (!p.consent) continue;
-            bot.sendHtml(p.chatId, text, null);
-        }
+        List<User> players = consented(facade.users().listPlayersByTeam(team.id));
+        enqueueDeliveries(session, Action.REMINDER, players,
+                p -> OutboxService.message(p.chatId, text, null, OutboxService.KIND_TEXT, null));
     }
 
     private void sendChallenges(Team team, TrainingSession session) {
@@ -169,10 +402,7 @@ public final class SchedulerService {
         // Assign in DB
         facade.challenges().assignChallengesForSession(team.id, session.id, players);
 
-        for (User p : players) {
-            if (!p.consent) continue;
-            bot.sendTodayChallenge(p, session, true);
-        }
+        enqueueDeliveries(session, Action.CHALLENGES, consented(players), p -> bot.todayChallengeMessage(p, session));
     }
 
     private void sendCoachPrompt(Team team, TrainingSession session) {
@@ -185,39 +415,34 @@ public final class SchedulerService {
         sb.append("Команда: <b>").append(team.name).append("</b>\n");
         sb.append("Время: ").append(session.startDateTime.toLocalTime()).append("\n\n");
 
-        var challenges = facade.challenges().listChallengesForSession(session.id);
+        var challenges = facade.challenges().listChallengesWithPlayerNames(session.id);
         int i = 1;
-        for (var ch : challenges) {
-            var playerOpt = facade.users().findById(ch.playerId);
-            String fio = playerOpt.map(u -> u.fullName).orElse("Игрок " + ch.playerId);
-            sb.append(i++).append(") ").append(fio).append(" — ").append(ch.text).append("\n");
+        for (var row : challenges) {
+            String fio = row.playerName() != null ? row.playerName() : "Игрок " + row.challenge().playerId;
+            sb.append(i++).append(") ").append(fio).append(" — ").append(row.challenge().text).append("\n");
         }
 
         String msg = sb.toString();
-        for (User coach : coaches) {
-            bot.sendHtml(coach.chatId, msg, Keyboards.ofRows(
-                    java.util.List.of(Keyboards.btn("✅ Отметить выполнение", CallbackData.COACH_MARK_START_PREFIX + session.id)),
-                    java.util.List.of(Keyboards.btn("⬅️ В меню", CallbackData.BACK_TO_MENU))
-            ));
-        }
+        String kb = Keyboards.toJson(Keyboards.ofRows(
+                java.util.List.of(Keyboards.btn("✅ Отметить выполнение", CallbackData.COACH_MARK_START_PREFIX + session.id)),
+                java.util.List.of(Keyboards.btn("⬅️ В меню", CallbackData.BACK_TO_MENU))
+        ));
+        enqueueDeliveries(session, Action.COACH_PROMPT, coaches,
+                coach -> OutboxService.message(coach.chatId, msg, kb, OutboxService.KIND_TEXT, null));
     }
 
     private void sendEveningPoll(Team team, TrainingSession session) {
-        List<User> players = facade.users().listPlayersByTeam(team.id);
-        for (User p : players) {
-            if (!p.consent) continue;
-            bot.startEveningPoll(p, session);
-        }
+        List<User> players = consented(facade.users().listPlayersByTeam(team.id));
+        enqueueDeliveries(session, Action.EVENING_POLL, players, p -> bot.eveningPollMessage(p, session));
     }
 
     private void startCoachRating(Team team, TrainingSession session) {
-        List<User> coaches = facade.users().listCoachesByTeam(team.id);
+        var roster = facade.users().roster(team.id);
+        List<User> coaches = roster.coaches();
         if (coaches.isEmpty()) return;
-        List<User> players = facade.users().listPlayersByTeam(team.id);
+        List<User> players = roster.players();
         if (players.isEmpty()) return;
 
-        for (User coach : coaches) {
-            bot.startCoachRatingFlow(coach, team, session, players);
-        }
+        enqueueDeliveries(session, Action.COACH_RATING, coaches, coach -> bot.coachRatingMessage(coach, team, session, players));
     }
 }
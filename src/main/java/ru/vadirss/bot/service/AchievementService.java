@@ -7,7 +7,6 @@ import ru.vadirss.bot.model.PlayerAttributes;
 import ru.vadirss.bot.model.TeamEventType;
 import ru.vadirss.bot.model.User;
 import ru.vadirss.bot.util.JsonUtils;
-import ru.vadirss.bot.util.TimeUtil;
 
 import java.sql.*;
 import java.time.LocalDate;
@@ -16,6 +15,15 @@ import java.util.*;
 
 public final class AchievementService {
 
+    public static final String SQL_LIST_FOR_PLAYER = "SELECT code FROM user_achievements WHERE player_id=? ORDER BY awarded_at";
+    public static final String SQL_MORNING_POLL_STREAK = "SELECT ts.date, (SELECT COUNT(1) FROM polls_morning pm WHERE pm.player_id=? AND pm.date=ts.date) AS has_poll " +
+            "FROM training_sessions ts WHERE ts.team_id=? ORDER BY ts.date DESC LIMIT ?";
+    public static final String SQL_MORNING_POLLS_BETWEEN = "SELECT ts.date, (SELECT COUNT(1) FROM polls_morning pm WHERE pm.player_id=? AND pm.date=ts.date) AS has_poll " +
+            "FROM training_sessions ts WHERE ts.team_id=? AND ts.date>=? AND ts.date<=? ORDER BY ts.date DESC";
+    public static final String SQL_CHALLENGE_STREAK = "SELECT pc.status FROM player_challenges pc " +
+            "JOIN training_sessions ts ON ts.id=pc.session_id " +
+            "WHERE pc.player_id=? ORDER BY ts.date DESC LIMIT ?";
+
     private final Database db;
     private final TeamEventService teamEvents;
 
@@ -27,7 +35,7 @@ public final class AchievementService {
     public List<Achievement> listForPlayer(long playerId) {
         List<Achievement> out = new ArrayList<>();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT code FROM user_achievements WHERE player_id=? ORDER BY awarded_at")) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_LIST_FOR_PLAYER)) {
                 ps.setLong(1, playerId);
                 try (ResultSet rs = ps.executeQuery()) {
                     while (rs.next()) {
@@ -58,14 +66,12 @@ public final class AchievementService {
 
         if (toAdd.isEmpty() && toRemove.isEmpty()) return;
 
-        try (Connection c = db.getConnection()) {
-            c.setAutoCommit(false);
-
+        db.run(c -> {
             for (String code : toAdd) {
                 try (PreparedStatement ps = c.prepareStatement("INSERT OR IGNORE INTO user_achievements(player_id, code, awarded_at) VALUES(?,?,?)")) {
                     ps.setLong(1, player.tgId);
                     ps.setString(2, code);
-                    ps.setString(3, TimeUtil.nowIso(zone));
+                    ps.setLong(3, System.currentTimeMillis());
                     ps.executeUpdate();
                 }
             }
@@ -77,23 +83,18 @@ public final class AchievementService {
                     ps.executeUpdate();
                 }
             }
-
-            c.commit();
-            c.setAutoCommit(true);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
 
         // Team feed events only for newly awarded achievements
         for (String code : toAdd) {
             JsonObject payload = new JsonObject();
             payload.addProperty("achievement", code);
-            teamEvents.addEvent(player.teamId, TeamEventType.ACHIEVEMENT_AWARDED, player.tgId, payload, zone);
+            teamEvents.addEvent(player.teamId, TeamEventType.ACHIEVEMENT_AWARDED, player.tgId, payload);
         }
     }
 
     private Set<String> evaluate(User player, ZoneId zone) {
-        PlayerAttributes a = getAttributes(player.tgId, zone);
+        PlayerAttributes a = getAttributes(player.tgId);
         Set<String> out = new HashSet<>();
 
         // 🤝 Team player
@@ -123,15 +124,15 @@ public final class AchievementService {
         return out;
     }
 
-    public PlayerAttributes getAttributes(long playerId, ZoneId zone) {
+    public PlayerAttributes getAttributes(long playerId) {
         try (Connection c = db.getConnection()) {
             try (PreparedStatement ps = c.prepareStatement("SELECT * FROM player_attributes WHERE player_id=?")) {
                 ps.setLong(1, playerId);
                 try (ResultSet rs = ps.executeQuery()) {
                     if (!rs.next()) {
                         // ensure row exists
-                        PlayerAttributes empty = PlayerAttributes.emptyNow(TimeUtil.nowIso(zone));
-                        upsertAttributes(playerId, empty, zone, false);
+                        PlayerAttributes empty = PlayerAttributes.emptyNow(System.currentTimeMillis());
+                        upsertAttributes(playerId, empty, false);
                         return empty;
                     }
                     PlayerAttributes a = new PlayerAttributes();
@@ -155,7 +156,7 @@ public final class AchievementService {
                     a.nervousness = rs.getDouble("nervousness");
                     a.leadership = rs.getDouble("leadership");
 
-                    a.updatedAt = rs.getString("updated_at");
+                    a.updatedAt = rs.getLong("updated_at");
                     return a;
                 }
             }
@@ -164,12 +165,10 @@ public final class AchievementService {
         }
     }
 
-    public void upsertAttributes(long playerId, PlayerAttributes a, ZoneId zone, boolean writeHistory) {
-        String now = TimeUtil.nowIso(zone);
-
-        try (Connection c = db.getConnection()) {
-            c.setAutoCommit(false);
+    public void upsertAttributes(long playerId, PlayerAttributes a, boolean writeHistory) {
+        long now = System.currentTimeMillis();
 
+        db.run(c -> {
             if (writeHistory) {
                 JsonObject snapshot = JsonUtils.obj();
                 for (var e : a.asOrderedMap().entrySet()) {
@@ -178,7 +177,7 @@ public final class AchievementService {
                 try (PreparedStatement ph = c.prepareStatement("INSERT INTO player_attribute_history(player_id, snapshot_json, created_at) VALUES(?,?,?)")) {
                     ph.setLong(1, playerId);
                     ph.setString(2, JsonUtils.GSON.toJson(snapshot));
-                    ph.setString(3, now);
+                    ph.setLong(3, now);
                     ph.executeUpdate();
                 }
             }
@@ -215,24 +214,16 @@ public final class AchievementService {
                 ps.setDouble(17, a.nervousness);
                 ps.setDouble(18, a.leadership);
 
-                ps.setString(19, now);
+                ps.setLong(19, now);
                 ps.executeUpdate();
             }
-
-            c.commit();
-            c.setAutoCommit(true);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
     private boolean hasMorningPollStreak(long teamId, long playerId, int needed) {
         // Look at latest training sessions for team and ensure morning polls exist for each.
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT ts.date, (SELECT COUNT(1) FROM polls_morning pm WHERE pm.player_id=? AND pm.date=ts.date) AS has_poll " +
-                            "FROM training_sessions ts WHERE ts.team_id=? ORDER BY ts.date DESC LIMIT ?"
-            )) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_MORNING_POLL_STREAK)) {
                 ps.setLong(1, playerId);
                 ps.setLong(2, teamId);
                 ps.setInt(3, needed);
@@ -253,11 +244,7 @@ public final class AchievementService {
 
     private boolean hasChallengeStreak(long playerId, int needed) {
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT pc.status FROM player_challenges pc " +
-                            "JOIN training_sessions ts ON ts.id=pc.session_id " +
-                            "WHERE pc.player_id=? ORDER BY ts.date DESC LIMIT ?"
-            )) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_CHALLENGE_STREAK)) {
                 ps.setLong(1, playerId);
                 ps.setInt(2, needed);
                 try (ResultSet rs = ps.executeQuery()) {
@@ -279,14 +266,11 @@ public final class AchievementService {
         LocalDate today = LocalDate.now(zone);
         LocalDate from = today.minusDays(7);
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT ts.date, (SELECT COUNT(1) FROM polls_morning pm WHERE pm.player_id=? AND pm.date=ts.date) AS has_poll " +
-                            "FROM training_sessions ts WHERE ts.team_id=? AND ts.date>=? AND ts.date<=? ORDER BY ts.date DESC"
-            )) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_MORNING_POLLS_BETWEEN)) {
                 ps.setLong(1, playerId);
                 ps.setLong(2, teamId);
-                ps.setString(3, TimeUtil.fmt(from));
-                ps.setString(4, TimeUtil.fmt(today));
+                ps.setLong(3, from.toEpochDay());
+                ps.setLong(4, today.toEpochDay());
                 try (ResultSet rs = ps.executeQuery()) {
                     boolean hasAtLeastOne = false;
                     while (rs.next()) {
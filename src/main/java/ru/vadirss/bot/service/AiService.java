@@ -1,42 +1,92 @@
 package ru.vadirss.bot.service;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import ru.vadirss.bot.config.Config;
 import ru.vadirss.bot.db.Database;
 import ru.vadirss.bot.model.Team;
 import ru.vadirss.bot.model.User;
+import ru.vadirss.bot.util.CircuitBreaker;
 import ru.vadirss.bot.util.JsonUtils;
-import ru.vadirss.bot.util.TimeUtil;
+import ru.vadirss.bot.util.SingleFlight;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.LocalDate;
-import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public final class AiService {
 
+    /** {@code shared}: the prompt names no player, so identical prompts in flight can share one answer. */
+    public enum PromptKind {
+        QUOTE(true), CHALLENGE(false), CHALLENGE_BATCH(false), CHALLENGE_PREFETCH(true);
+
+        final boolean shared;
+
+        PromptKind(boolean shared) {
+            this.shared = shared;
+        }
+    }
+
+    private static final class KindMetrics {
+        final LongAdder calls = new LongAdder();
+        final LongAdder ok = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder busy = new LongAdder();
+        final LongAdder breakerOpen = new LongAdder();
+        final LongAdder latencyNanos = new LongAdder();
+        final AtomicLong maxLatencyNanos = new AtomicLong();
+        // identical prompts of a shared kind in flight at the same time share one request
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+    }
+
     private final Config cfg;
     private final Database db;
     private final HttpClient http;
     private final Random rnd = new Random();
 
+    // requests to the endpoint in flight; a caller that cannot get a slot in time gets the fallback
+    private final Semaphore inFlight;
+    private final CircuitBreaker breaker;
+    private final Map<PromptKind, KindMetrics> metrics = new EnumMap<>(PromptKind.class);
+    // daily quote per date; a future that is still running is shared by every caller for that date
+    private final ConcurrentHashMap<LocalDate, CompletableFuture<String>> quotes = new ConcurrentHashMap<>();
+
     // Prompts
     private static final String SYSTEM_PROMPT =
             "Ты — спортивный помощник футбольной академии vadirss.ru.\n" +
             "Пиши на русском, дружелюбно, мотивационно, кратко, с уместными эмодзи.\n" +
             "Не используй мат, не упоминай политику. Не добавляй ссылки.\n";
 
-    private static final List<String> FALLBACK_QUOTES = List.of(
+    static final List<String> FALLBACK_QUOTES = List.of(
             "💥 Сегодня ты на шаг ближе к лучшей версии себя. Работай и верь! 💪",
             "⚽️ Побеждает не талант, а дисциплина. Начни с малого — сделай это идеально.",
             "🔥 Тренировка — это инвестиция. Делай вклад каждый день!",
@@ -44,7 +94,7 @@ public final class AiService {
             "🌱 Маленький прогресс каждый день дает большой результат. Продолжай!"
     );
 
-    private static final List<String> FALLBACK_CHALLENGES = List.of(
+    static final List<String> FALLBACK_CHALLENGES = List.of(
             "🎯 Сделай 5 точных передач на тренировке.",
             "🤝 Помоги 2 товарищам улучшить технику: подскажи и покажи.",
             "🔥 Возглавь разминку на одной из тренировок.",
@@ -55,25 +105,96 @@ public final class AiService {
     public AiService(Config cfg, Database db) {
         this.cfg = cfg;
         this.db = db;
-        this.http = HttpClient.newHttpClient();
+        // one client for all calls, so connections to the endpoint are reused
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(cfg.aiConnectTimeoutMs()))
+                .build();
+        this.inFlight = new Semaphore(cfg.aiMaxConcurrent());
+        this.breaker = new CircuitBreaker(cfg.aiBreakerFailures(), TimeUnit.SECONDS.toMillis(cfg.aiBreakerOpenSeconds()));
+        for (PromptKind k : PromptKind.values()) metrics.put(k, new KindMetrics());
+    }
+
+    public List<AiStats> stats() {
+        List<AiStats> out = new ArrayList<>();
+        for (var e : metrics.entrySet()) {
+            KindMetrics m = e.getValue();
+            long answered = m.ok.sum() + m.failed.sum();
+            out.add(new AiStats(e.getKey(), m.calls.sum(), m.ok.sum(), m.failed.sum(), m.timeouts.sum(),
+                    m.busy.sum(), m.breakerOpen.sum(), m.flights.coalesced(),
+                    answered == 0 ? 0.0 : m.latencyNanos.sum() / 1_000_000.0 / answered,
+                    m.maxLatencyNanos.get() / 1_000_000.0));
+        }
+        return out;
+    }
+
+    public CircuitBreaker.State breakerState() {
+        return breaker.state();
+    }
+
+    /** No request to the endpoint is running and the breaker is closed. */
+    public boolean idle() {
+        return inFlight.availablePermits() == cfg.aiMaxConcurrent() && breaker.state() == CircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * The quote for {@code date}, kept in memory once loaded. On a cold day the first caller generates it and
+     * everyone else asking meanwhile waits for that same result, so all teams get one quote.
+     */
+    public String getOrCreateDailyQuote(LocalDate date) {
+        CompletableFuture<String> f = quotes.get(date);
+        if (f == null) {
+            CompletableFuture<String> mine = new CompletableFuture<>();
+            f = quotes.putIfAbsent(date, mine);
+            if (f == null) {
+                f = mine;
+                forgetQuotesBefore(date.minusDays(1));
+                try {
+                    mine.complete(loadOrCreateQuote(date, true));
+                } catch (RuntimeException e) {
+                    // not memoized, the next caller tries again
+                    quotes.remove(date, mine);
+                    mine.completeExceptionally(e);
+                }
+            }
+        }
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    /**
+     * Loads or generates the quote for {@code date} ahead of its first use. Unlike {@link #getOrCreateDailyQuote}
+     * a failed generation stores no fallback, so the first real caller gets another chance at the endpoint.
+     */
+    public void prefetchDailyQuote(LocalDate date) {
+        if (quotes.containsKey(date)) return;
+        String text = loadOrCreateQuote(date, false);
+        if (text == null) return;
+        quotes.putIfAbsent(date, CompletableFuture.completedFuture(text));
+        forgetQuotesBefore(date.minusDays(1));
+    }
+
+    // yesterday's entry stays for callers still finishing it
+    private void forgetQuotesBefore(LocalDate date) {
+        quotes.keySet().removeIf(d -> d.isBefore(date));
     }
 
-    public String getOrCreateDailyQuote(LocalDate date, ZoneId zone) {
-        Optional<String> cached = getQuote(date);
-        if (cached.isPresent()) return cached.get();
+    /** @return null only when generation failed and {@code fallback} is false */
+    private String loadOrCreateQuote(LocalDate date, boolean fallback) {
+        Optional<String> stored = getQuote(date);
+        if (stored.isPresent()) return stored.get();
 
         String prompt = "Сгенерируй 1 короткую мотивационную цитату дня для футболиста (1–2 предложения). " +
                 "Добавь 1–2 эмодзи в конце. Не используй кавычки «».";
 
-        String text = tryGenerate(prompt);
+        String text = tryGenerate(PromptKind.QUOTE, prompt);
         if (text == null || text.isBlank()) {
-            text = FALLBACK_QUOTES.get(rnd.nextInt(FALLBACK_QUOTES.size()));
-            saveQuote(date, text, "FALLBACK", zone);
-        } else {
-            text = normalizeOneLine(text);
-            saveQuote(date, text, "TIMEWEB", zone);
+            if (!fallback) return null;
+            return saveQuote(date, FALLBACK_QUOTES.get(rnd.nextInt(FALLBACK_QUOTES.size())), "FALLBACK");
         }
-        return text;
+        return saveQuote(date, normalizeOneLine(text), "TIMEWEB");
     }
 
     public String generateChallenge(User player, Team team) {
@@ -87,17 +208,121 @@ public final class AiService {
                 ", позиция=" + safe(player.position) +
                 ", команда=" + safe(team.name) + ".";
 
-        String text = tryGenerate(prompt);
+        String text = tryGenerate(PromptKind.CHALLENGE, prompt);
         if (text == null || text.isBlank()) {
             return FALLBACK_CHALLENGES.get(rnd.nextInt(FALLBACK_CHALLENGES.size()));
         }
         return normalizeOneLine(text);
     }
 
+    /**
+     * One challenge per player, asking for up to {@code AI_BATCH_SIZE} players per completion.
+     * The answer is a JSON array of {@code {"n": <number>, "challenge": "..."}}; a player whose entry is
+     * missing or unreadable gets a fallback challenge.
+     *
+     * @return challenges in the order of {@code players}
+     */
+    public List<String> generateChallenges(List<User> players, Team team) {
+        List<String> out = new ArrayList<>(players.size());
+        int batch = cfg.aiBatchSize();
+        for (int from = 0; from < players.size(); from += batch) {
+            List<User> chunk = players.subList(from, Math.min(players.size(), from + batch));
+            String[] parsed = parseChallengeBatch(tryGenerate(PromptKind.CHALLENGE_BATCH, batchPrompt(chunk, team),
+                    Math.min(4096, 64 + 80 * chunk.size())), chunk.size());
+            for (String text : parsed) {
+                out.add(text != null ? text : FALLBACK_CHALLENGES.get(rnd.nextInt(FALLBACK_CHALLENGES.size())));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Up to {@code count} different challenges for any player in {@code position}, for the prefetch buffer.
+     * Unlike {@link #generateChallenges} there are no fallbacks: a failed or short answer returns fewer texts.
+     */
+    public List<String> generatePositionChallenges(Team team, String position, int count) {
+        List<String> out = new ArrayList<>(count);
+        int batch = cfg.aiBatchSize();
+        for (int done = 0; done < count; done += batch) {
+            int n = Math.min(batch, count - done);
+            String[] parsed = parseChallengeBatch(tryGenerate(PromptKind.CHALLENGE_PREFETCH, positionPrompt(team, position, n),
+                    Math.min(4096, 64 + 80 * n)), n);
+            int got = 0;
+            for (String text : parsed) {
+                if (text == null) continue;
+                out.add(text);
+                got++;
+            }
+            // an empty answer will not get better by asking again right away
+            if (got == 0) break;
+        }
+        return out;
+    }
+
+    private static String positionPrompt(Team team, String position, int count) {
+        return "Сгенерируй " + count + " РАЗНЫХ челленджей на тренировку для футболиста на позиции " + safe(position) +
+                " из команды " + safe(team.name) + ". " +
+                "Каждый челлендж должен быть конкретным, измеримым и кратким (1 строка) и не называть игрока по имени. " +
+                "Примеры: \"Сделай 3 точные передачи в каждом упражнении\"; \"Возглавь разминку\". " +
+                "Ответь ТОЛЬКО JSON-массивом строк без пояснений: [\"<челлендж>\", ...]";
+    }
+
+    private static String batchPrompt(List<User> players, Team team) {
+        StringBuilder sb = new StringBuilder()
+                .append("Сгенерируй по ОДНОМУ челленджу на ближайшую тренировку для каждого футболиста из списка. ")
+                .append("Каждый челлендж должен быть конкретным, измеримым и кратким (1 строка) и подходить позиции игрока. ")
+                .append("Примеры: \"Сделай 3 точные передачи в каждом упражнении\"; \"Возглавь разминку\". ")
+                .append("Команда: ").append(safe(team.name)).append(".\n")
+                .append("Игроки:\n");
+        for (int i = 0; i < players.size(); i++) {
+            User p = players.get(i);
+            sb.append(i + 1).append(". ФИО=").append(safe(p.fullName)).append(", позиция=").append(safe(p.position)).append('\n');
+        }
+        sb.append("Ответь ТОЛЬКО JSON-массивом без пояснений, по одному объекту на игрока: ")
+                .append("[{\"n\": <номер игрока>, \"challenge\": \"<текст>\"}]");
+        return sb.toString();
+    }
+
+    /** @return {@code count} slots, null where the answer had no usable challenge */
+    private static String[] parseChallengeBatch(String content, int count) {
+        String[] out = new String[count];
+        if (content == null) return out;
+        // models like to wrap JSON in a code fence or a sentence
+        int start = content.indexOf('[');
+        int end = content.lastIndexOf(']');
+        if (start < 0 || end <= start) return out;
+        JsonArray arr;
+        try {
+            arr = JsonParser.parseString(content.substring(start, end + 1)).getAsJsonArray();
+        } catch (RuntimeException e) {
+            return out;
+        }
+        for (int i = 0; i < arr.size(); i++) {
+            try {
+                JsonElement e = arr.get(i);
+                int slot;
+                String text;
+                if (e.isJsonObject()) {
+                    JsonObject o = e.getAsJsonObject();
+                    slot = o.has("n") ? o.get("n").getAsInt() - 1 : i;
+                    text = o.has("challenge") ? o.get("challenge").getAsString() : null;
+                } else {
+                    slot = i;
+                    text = e.getAsString();
+                }
+                if (slot < 0 || slot >= count || text == null || text.isBlank() || out[slot] != null) continue;
+                out[slot] = normalizeOneLine(text);
+            } catch (RuntimeException ignored) {
+                // this entry falls back, the others still count
+            }
+        }
+        return out;
+    }
+
     private Optional<String> getQuote(LocalDate date) {
         try (Connection c = db.getConnection()) {
             try (PreparedStatement ps = c.prepareStatement("SELECT text FROM daily_quotes WHERE date=?")) {
-                ps.setString(1, TimeUtil.fmt(date));
+                ps.setLong(1, date.toEpochDay());
                 try (ResultSet rs = ps.executeQuery()) {
                     if (!rs.next()) return Optional.empty();
                     return Optional.of(rs.getString("text"));
@@ -108,75 +333,146 @@ public final class AiService {
         }
     }
 
-    private void saveQuote(LocalDate date, String text, String source, ZoneId zone) {
-        try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("INSERT OR REPLACE INTO daily_quotes(date, text, source, created_at) VALUES(?,?,?,?)")) {
-                ps.setString(1, TimeUtil.fmt(date));
+    /** @return the stored quote, which is an earlier one if the date already had a quote */
+    private String saveQuote(LocalDate date, String text, String source) {
+        return db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("INSERT OR IGNORE INTO daily_quotes(date, text, source, created_at) VALUES(?,?,?,?)")) {
+                ps.setLong(1, date.toEpochDay());
                 ps.setString(2, text);
                 ps.setString(3, source);
-                ps.setString(4, TimeUtil.nowIso(zone));
+                ps.setLong(4, System.currentTimeMillis());
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+            try (PreparedStatement ps = c.prepareStatement("SELECT text FROM daily_quotes WHERE date=?")) {
+                ps.setLong(1, date.toEpochDay());
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getString("text") : text;
+                }
+            }
+        });
+    }
+
+    private String tryGenerate(PromptKind kind, String userPrompt) {
+        return tryGenerate(kind, userPrompt, 256);
     }
 
-    private String tryGenerate(String userPrompt) {
+    /** @return the generated text, or null when the caller should use a fallback */
+    private String tryGenerate(PromptKind kind, String userPrompt, int maxTokens) {
         if (cfg.timewebBaseUrl().isBlank() || cfg.timewebApiToken().isBlank()) {
             return null;
         }
+        KindMetrics m = metrics.get(kind);
+        if (!kind.shared) return generate(kind, m, userPrompt, maxTokens);
+        return m.flights.run(fingerprint(userPrompt, maxTokens), () -> generate(kind, m, userPrompt, maxTokens));
+    }
+
+    private static String fingerprint(String userPrompt, int maxTokens) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(SYSTEM_PROMPT.getBytes(StandardCharsets.UTF_8));
+            md.update(userPrompt.getBytes(StandardCharsets.UTF_8));
+            return maxTokens + ":" + HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String generate(PromptKind kind, KindMetrics m, String userPrompt, int maxTokens) {
+        m.calls.increment();
+        try {
+            if (!inFlight.tryAcquire(cfg.aiRequestTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                m.busy.increment();
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
         try {
-            String endpoint = cfg.timewebBaseUrl();
-            if (endpoint.endsWith("/")) endpoint = endpoint.substring(0, endpoint.length() - 1);
-            // OpenAI-compatible Chat Completions
-            String url = endpoint + "/v1/chat/completions";
+            if (!breaker.allow(System.currentTimeMillis())) {
+                m.breakerOpen.increment();
+                return null;
+            }
+            long started = System.nanoTime();
+            String text = null;
+            try {
+                text = request(userPrompt, maxTokens);
+            } catch (HttpTimeoutException e) {
+                m.timeouts.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ignored) {
+            }
+            long took = System.nanoTime() - started;
+            m.latencyNanos.add(took);
+            m.maxLatencyNanos.accumulateAndGet(took, Math::max);
 
-            JsonObject body = new JsonObject();
-            body.addProperty("model", "ignored");
-            JsonArray messages = new JsonArray();
+            if (text != null) {
+                m.ok.increment();
+                if (breaker.onSuccess()) System.out.println("AI: endpoint answered again, circuit closed");
+            } else {
+                m.failed.increment();
+                if (breaker.onFailure(System.currentTimeMillis())) {
+                    System.err.println("AI: " + cfg.aiBreakerFailures() + " failed calls in a row (last: " + kind +
+                            "), using fallback texts for " + cfg.aiBreakerOpenSeconds() + " s. " + stats());
+                }
+            }
+            return text;
+        } finally {
+            inFlight.release();
+        }
+    }
 
-            JsonObject sys = new JsonObject();
-            sys.addProperty("role", "system");
-            sys.addProperty("content", SYSTEM_PROMPT.trim());
-            messages.add(sys);
+    /** @return the completion text, or null for a non-2xx or malformed answer */
+    private String request(String userPrompt, int maxTokens) throws IOException, InterruptedException {
+        String endpoint = cfg.timewebBaseUrl();
+        if (endpoint.endsWith("/")) endpoint = endpoint.substring(0, endpoint.length() - 1);
+        // OpenAI-compatible Chat Completions
+        String url = endpoint + "/v1/chat/completions";
 
-            JsonObject usr = new JsonObject();
-            usr.addProperty("role", "user");
-            usr.addProperty("content", userPrompt);
-            messages.add(usr);
+        JsonObject body = new JsonObject();
+        body.addProperty("model", "ignored");
+        JsonArray messages = new JsonArray();
 
-            body.add("messages", messages);
-            body.addProperty("temperature", 0.8);
-            body.addProperty("max_tokens", 256);
+        JsonObject sys = new JsonObject();
+        sys.addProperty("role", "system");
+        sys.addProperty("content", SYSTEM_PROMPT.trim());
+        messages.add(sys);
 
-            HttpRequest.Builder req = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .header("Content-Type", "application/json");
+        JsonObject usr = new JsonObject();
+        usr.addProperty("role", "user");
+        usr.addProperty("content", userPrompt);
+        messages.add(usr);
 
-            req.header(cfg.timewebAuthHeader(), cfg.timewebAuthPrefix() + cfg.timewebApiToken());
+        body.add("messages", messages);
+        body.addProperty("temperature", 0.8);
+        body.addProperty("max_tokens", maxTokens);
 
-            HttpRequest request = req.POST(HttpRequest.BodyPublishers.ofString(JsonUtils.GSON.toJson(body))).build();
-            HttpResponse<String> resp = http.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpRequest.Builder req = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofMillis(cfg.aiRequestTimeoutMs()))
+                .header("Content-Type", "application/json");
 
-            if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
-                return null;
-            }
+        req.header(cfg.timewebAuthHeader(), cfg.timewebAuthPrefix() + cfg.timewebApiToken());
+
+        HttpRequest request = req.POST(HttpRequest.BodyPublishers.ofString(JsonUtils.GSON.toJson(body))).build();
+        HttpResponse<String> resp = http.send(request, HttpResponse.BodyHandlers.ofString());
 
-            JsonObject json = JsonUtils.GSON.fromJson(resp.body(), JsonObject.class);
-            if (json == null) return null;
-
-            JsonArray choices = json.getAsJsonArray("choices");
-            if (choices == null || choices.isEmpty()) return null;
-            JsonObject choice0 = choices.get(0).getAsJsonObject();
-            if (choice0 == null) return null;
-            JsonObject message = choice0.getAsJsonObject("message");
-            if (message == null) return null;
-            String content = message.get("content").getAsString();
-            return content;
-        } catch (Exception e) {
+        if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
             return null;
         }
+
+        JsonObject json = JsonUtils.GSON.fromJson(resp.body(), JsonObject.class);
+        if (json == null) return null;
+
+        JsonArray choices = json.getAsJsonArray("choices");
+        if (choices == null || choices.isEmpty()) return null;
+        JsonObject choice0 = choices.get(0).getAsJsonObject();
+        if (choice0 == null) return null;
+        JsonObject message = choice0.getAsJsonObject("message");
+        if (message == null) return null;
+        JsonElement content = message.get("content");
+        return content == null || content.isJsonNull() ? null : content.getAsString();
     }
 
     private static String normalizeOneLine(String s) {
@@ -196,4 +492,13 @@ public final class AiService {
     private static String safe(String s) {
         return s == null ? "" : s.trim();
     }
+
+    /**
+     * @param busy        calls that got no slot within the request timeout
+     * @param breakerOpen calls skipped while the circuit breaker was open
+     * @param coalesced   calls that shared the answer of an identical prompt already in flight; not in {@code calls}
+     * @param avgLatencyMs over calls that reached the endpoint (ok + failed)
+     */
+    public record AiStats(PromptKind kind, long calls, long ok, long failed, long timeouts, long busy, long breakerOpen, long coalesced,
+                          double avgLatencyMs, double maxLatencyMs) {}
 }
@@ -24,6 +24,8 @@ public final class BotFacade {
     private final InteractiveSessionService interactiveSessions;
     private final CoachRatingService coachRatings;
     private final NotificationService notifications;
+    private final OutboxService outbox;
+    private final PendingChallengeService pendingChallenges;
 
     public BotFacade(
             Config cfg,
@@ -42,7 +44,9 @@ public final class BotFacade {
             TeamEventService teamEventService,
             InteractiveSessionService interactiveSessions,
             CoachRatingService coachRatings,
-            NotificationService notifications
+            NotificationService notifications,
+            OutboxService outbox,
+            PendingChallengeService pendingChallenges
     ) {
         this.cfg = cfg;
         this.db = db;
@@ -61,6 +65,8 @@ public final class BotFacade {
         this.interactiveSessions = interactiveSessions;
         this.coachRatings = coachRatings;
         this.notifications = notifications;
+        this.outbox = outbox;
+        this.pendingChallenges = pendingChallenges;
     }
 
     public Config cfg() { return cfg; }
@@ -82,4 +88,6 @@ public final class BotFacade {
     public InteractiveSessionService interactive() { return interactiveSessions; }
     public CoachRatingService coachRatings() { return coachRatings; }
     public NotificationService notifications() { return notifications; }
+    public OutboxService outbox() { return outbox; }
+    public PendingChallengeService pendingChallenges() { return pendingChallenges; }
 }
@@ -7,72 +7,104 @@ import ru.vadirss.bot.model.PlayerChallenge;
 import ru.vadirss.bot.model.Team;
 import ru.vadirss.bot.model.TeamEventType;
 import ru.vadirss.bot.model.User;
-import ru.vadirss.bot.util.TimeUtil;
 
 import java.sql.*;
-import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public final class ChallengeService {
 
+    public static final String SQL_FIND_FOR_PLAYER = "SELECT * FROM player_challenges WHERE session_id=? AND player_id=?";
+    public static final String SQL_WITH_PLAYER_NAMES = "SELECT pc.*, CASE WHEN u.tg_id IS NULL THEN NULL ELSE COALESCE(u.full_name,'') END AS player_name FROM player_challenges pc " +
+            "LEFT JOIN users u ON u.tg_id=pc.player_id WHERE pc.session_id=? ORDER BY pc.id";
+    public static final String SQL_COACH_POOL = "SELECT text FROM coach_challenge_pool WHERE team_id=? ORDER BY id DESC LIMIT 200";
+
     private final Database db;
     private final Config cfg;
     private final AiService ai;
     private final PointsService pointsService;
     private final TeamEventService teamEvents;
     private final AchievementService achievements;
+    private final UserService users;
+    private final PendingChallengeService pending;
     private final Random rnd = new Random();
 
-    public ChallengeService(Database db, Config cfg, AiService ai, PointsService pointsService, TeamEventService teamEvents, AchievementService achievements) {
+    public ChallengeService(Database db, Config cfg, AiService ai, PointsService pointsService, TeamEventService teamEvents, AchievementService achievements, UserService users,
+                            PendingChallengeService pending) {
         this.db = db;
         this.cfg = cfg;
         this.ai = ai;
         this.pointsService = pointsService;
         this.teamEvents = teamEvents;
         this.achievements = achievements;
+        this.users = users;
+        this.pending = pending;
     }
 
-    public void addCoachPoolChallenge(long teamId, String text, ZoneId zone) {
-        String now = TimeUtil.nowIso(zone);
-        try (Connection c = db.getConnection()) {
+    public void addCoachPoolChallenge(long teamId, String text) {
+        long now = System.currentTimeMillis();
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement("INSERT INTO coach_challenge_pool(team_id, text, created_at) VALUES(?,?,?)")) {
                 ps.setLong(1, teamId);
                 ps.setString(2, text.trim());
-                ps.setString(3, now);
+                ps.setLong(3, now);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
     public void assignChallengesForSession(long teamId, long sessionId, List<User> players) {
-        ZoneId zone = cfg.zoneId();
         Team team = getTeam(teamId).orElseThrow(() -> new IllegalStateException("Team not found: " + teamId));
 
         List<String> coachPool = listCoachPool(teamId);
+        List<User> forAi = new ArrayList<>();
         for (User p : players) {
             if (p.teamId == null || p.teamId != teamId) continue;
             if (existsForSession(sessionId, p.tgId)) continue;
 
             boolean fromCoachPool = !coachPool.isEmpty() && rnd.nextBoolean(); // ~50%
-            String text;
-            String source;
             if (fromCoachPool) {
-                text = coachPool.get(rnd.nextInt(coachPool.size()));
-                source = "COACH";
+                createChallenge(sessionId, p.tgId, coachPool.get(rnd.nextInt(coachPool.size())), "COACH");
             } else {
-                text = ai.generateChallenge(p, team);
-                source = "AI";
+                forAi.add(p);
+            }
+        }
+        if (forAi.isEmpty()) return;
+
+        // prefetched challenges first; only players the buffer could not serve wait for a completion
+        List<User> toGenerate = forAi;
+        if (cfg.aiPrefetch()) {
+            List<String> positions = new ArrayList<>(forAi.size());
+            for (User p : forAi) positions.add(p.position);
+            long notBefore = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(cfg.aiPrefetchMaxAgeHours());
+            String[] buffered = pending.pop(teamId, positions, notBefore);
+            toGenerate = new ArrayList<>();
+            for (int i = 0; i < forAi.size(); i++) {
+                if (buffered[i] != null) {
+                    createChallenge(sessionId, forAi.get(i).tgId, buffered[i], "AI");
+                } else {
+                    toGenerate.add(forAi.get(i));
+                }
+            }
+            if (toGenerate.isEmpty()) return;
+        }
+
+        if (cfg.aiBatchChallenges()) {
+            List<String> texts = ai.generateChallenges(toGenerate, team);
+            for (int i = 0; i < toGenerate.size(); i++) {
+                createChallenge(sessionId, toGenerate.get(i).tgId, texts.get(i), "AI");
+            }
+        } else {
+            for (User p : toGenerate) {
+                createChallenge(sessionId, p.tgId, ai.generateChallenge(p, team), "AI");
             }
-            createChallenge(sessionId, p.tgId, text, source, zone);
         }
     }
 
     public Optional<PlayerChallenge> getChallengeForPlayer(long sessionId, long playerId) {
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT * FROM player_challenges WHERE session_id=? AND player_id=?")) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_FIND_FOR_PLAYER)) {
                 ps.setLong(1, sessionId);
                 ps.setLong(2, playerId);
                 try (ResultSet rs = ps.executeQuery()) {
@@ -100,6 +132,22 @@ public final class ChallengeService {
         return out;
     }
 
+    /** Same as {@link #listChallengesForSession} with the player's name joined in (null if the player is gone). */
+    public List<ChallengeWithPlayer> listChallengesWithPlayerNames(long sessionId) {
+        List<ChallengeWithPlayer> out = new ArrayList<>();
+        try (Connection c = db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_WITH_PLAYER_NAMES)) {
+                ps.setLong(1, sessionId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(new ChallengeWithPlayer(map(rs), rs.getString("player_name")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return out;
+    }
+
     public void markChallenge(long challengeId, boolean completed, long coachId) {
         ZoneId zone = cfg.zoneId();
         PlayerChallenge ch = getById(challengeId).orElseThrow();
@@ -108,28 +156,27 @@ public final class ChallengeService {
         }
 
         String newStatus = completed ? "COMPLETED" : "FAILED";
-        String now = TimeUtil.nowIso(zone);
+        long now = System.currentTimeMillis();
 
         // Before level
-        User player = getUser(ch.playerId).orElseThrow();
+        User player = users.findById(ch.playerId).orElseThrow();
         PointsService.LevelInfo beforeLevel = pointsService.levelOf(player);
 
-        try (Connection c = db.getConnection()) {
-            c.setAutoCommit(false);
-
-            try (PreparedStatement ps = c.prepareStatement("UPDATE player_challenges SET status=?, marked_by=?, marked_at=? WHERE id=?")) {
+        boolean marked = db.write(c -> {
+            // the status guard makes a concurrent second mark a no-op instead of double points
+            try (PreparedStatement ps = c.prepareStatement("UPDATE player_challenges SET status=?, marked_by=?, marked_at=? WHERE id=? AND status='PENDING'")) {
                 ps.setString(1, newStatus);
                 ps.setLong(2, coachId);
-                ps.setString(3, now);
+                ps.setLong(3, now);
                 ps.setLong(4, challengeId);
-                ps.executeUpdate();
+                if (ps.executeUpdate() == 0) return false;
             }
 
             if (completed) {
                 // +25 points
                 try (PreparedStatement ps1 = c.prepareStatement("UPDATE users SET points = points + ?, updated_at=? WHERE tg_id=?")) {
                     ps1.setInt(1, 25);
-                    ps1.setString(2, now);
+                    ps1.setLong(2, now);
                     ps1.setLong(3, ch.playerId);
                     ps1.executeUpdate();
                 }
@@ -138,19 +185,17 @@ public final class ChallengeService {
                     ps2.setInt(2, 25);
                     ps2.setString(3, "CHALLENGE");
                     ps2.setString(4, "challenge:" + challengeId);
-                    ps2.setString(5, now);
+                    ps2.setLong(5, now);
                     ps2.executeUpdate();
                 }
             }
-
-            c.commit();
-            c.setAutoCommit(true);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+            return true;
+        });
+        if (!marked) return;
+        users.invalidate(ch.playerId);
 
         // After level
-        User playerAfter = getUser(ch.playerId).orElseThrow();
+        User playerAfter = users.findById(ch.playerId).orElseThrow();
         PointsService.LevelInfo afterLevel = pointsService.levelOf(playerAfter);
 
         if (completed) {
@@ -158,7 +203,7 @@ public final class ChallengeService {
             if (playerAfter.teamId != null) {
                 JsonObject payload = new JsonObject();
                 payload.addProperty("challenge", ch.text);
-                teamEvents.addEvent(playerAfter.teamId, TeamEventType.CHALLENGE_COMPLETED, playerAfter.tgId, payload, zone);
+                teamEvents.addEvent(playerAfter.teamId, TeamEventType.CHALLENGE_COMPLETED, playerAfter.tgId, payload);
             }
         }
 
@@ -167,7 +212,7 @@ public final class ChallengeService {
             payload.addProperty("from", beforeLevel.name());
             payload.addProperty("to", afterLevel.name());
             payload.addProperty("points", playerAfter.points);
-            teamEvents.addEvent(playerAfter.teamId, TeamEventType.LEVEL_UP, playerAfter.tgId, payload, zone);
+            teamEvents.addEvent(playerAfter.teamId, TeamEventType.LEVEL_UP, playerAfter.tgId, payload);
         }
 
         // Recompute achievements (challenge streak etc)
@@ -175,19 +220,16 @@ public final class ChallengeService {
     }
 
     public void expirePendingChallenges(long sessionId) {
-        ZoneId zone = cfg.zoneId();
-        String now = TimeUtil.nowIso(zone);
-        try (Connection c = db.getConnection()) {
+        long now = System.currentTimeMillis();
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement(
                     "UPDATE player_challenges SET status='EXPIRED', marked_at=? WHERE session_id=? AND status='PENDING'"
             )) {
-                ps.setString(1, now);
+                ps.setLong(1, now);
                 ps.setLong(2, sessionId);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
     // --- internals ---
@@ -205,9 +247,9 @@ public final class ChallengeService {
         }
     }
 
-    private void createChallenge(long sessionId, long playerId, String text, String source, ZoneId zone) {
-        String now = TimeUtil.nowIso(zone);
-        try (Connection c = db.getConnection()) {
+    private void createChallenge(long sessionId, long playerId, String text, String source) {
+        long now = System.currentTimeMillis();
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement(
                     "INSERT INTO player_challenges(session_id, player_id, text, source, status, created_at) VALUES(?,?,?,?,?,?)"
             )) {
@@ -216,18 +258,16 @@ public final class ChallengeService {
                 ps.setString(3, text.trim());
                 ps.setString(4, source);
                 ps.setString(5, "PENDING");
-                ps.setString(6, now);
+                ps.setLong(6, now);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
     private List<String> listCoachPool(long teamId) {
         List<String> out = new ArrayList<>();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT text FROM coach_challenge_pool WHERE team_id=? ORDER BY id DESC LIMIT 200")) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_COACH_POOL)) {
                 ps.setLong(1, teamId);
                 try (ResultSet rs = ps.executeQuery()) {
                     while (rs.next()) out.add(rs.getString("text"));
@@ -253,32 +293,6 @@ public final class ChallengeService {
         }
     }
 
-    private Optional<User> getUser(long tgId) {
-        try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT * FROM users WHERE tg_id=?")) {
-                ps.setLong(1, tgId);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (!rs.next()) return Optional.empty();
-                    // Minimal mapping
-                    User u = new User();
-                    u.tgId = rs.getLong("tg_id");
-                    u.chatId = rs.getLong("chat_id");
-                    u.role = ru.vadirss.bot.model.Role.fromDb(rs.getString("role"));
-                    u.consent = rs.getInt("consent") == 1;
-                    u.fullName = rs.getString("full_name");
-                    u.phone = rs.getString("phone");
-                    long teamId = rs.getLong("team_id");
-                    u.teamId = rs.wasNull() ? null : teamId;
-                    u.position = rs.getString("position");
-                    u.points = rs.getInt("points");
-                    return Optional.of(u);
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     private Optional<Team> getTeam(long teamId) {
         try (Connection c = db.getConnection()) {
             try (PreparedStatement ps = c.prepareStatement("SELECT * FROM teams WHERE id=?")) {
@@ -288,7 +302,7 @@ public final class ChallengeService {
                     Team t = new Team();
                     t.id = rs.getLong("id");
                     t.name = rs.getString("name");
-                    t.createdAt = rs.getString("created_at");
+                    t.createdAt = rs.getLong("created_at");
                     return Optional.of(t);
                 }
             }
@@ -307,9 +321,11 @@ public final class ChallengeService {
         c.status = rs.getString("status");
         long mb = rs.getLong("marked_by");
         c.markedBy = rs.wasNull() ? null : mb;
-        String markedAt = rs.getString("marked_at");
-        if (markedAt != null) c.markedAt = LocalDateTime.parse(markedAt);
-        c.createdAt = LocalDateTime.parse(rs.getString("created_at"));
+        long markedAt = rs.getLong("marked_at");
+        c.markedAt = rs.wasNull() ? null : markedAt;
+        c.createdAt = rs.getLong("created_at");
         return c;
     }
+
+    public record ChallengeWithPlayer(PlayerChallenge challenge, String playerName) {}
 }
@@ -20,6 +20,16 @@ import java.util.Locale;
 
 public final class ExcelService {
 
+    public static final String SQL_COACH_RATING_AVERAGES = "SELECT u.full_name, u.position, " +
+            "ROUND(AVG(cr.lim), 2) AS lim_avg, " +
+            "ROUND(AVG(cr.t2), 2) AS t2_avg, " +
+            "ROUND(AVG(cr.eiq), 2) AS eiq_avg " +
+            "FROM users u " +
+            "LEFT JOIN coach_ratings cr ON cr.player_id = u.tg_id " +
+            "WHERE u.role='PLAYER' AND u.team_id=? " +
+            "GROUP BY u.tg_id " +
+            "ORDER BY u.full_name";
+
     private final Database db;
     private final Config cfg;
 
@@ -45,17 +55,7 @@ public final class ExcelService {
                 header.createCell(c++).setCellValue("EIQ (avg)");
 
                 try (Connection conn = db.getConnection()) {
-                    try (PreparedStatement ps = conn.prepareStatement(
-                            "SELECT u.full_name, u.position, " +
-                                    "ROUND(AVG(cr.lim), 2) AS lim_avg, " +
-                                    "ROUND(AVG(cr.t2), 2) AS t2_avg, " +
-                                    "ROUND(AVG(cr.eiq), 2) AS eiq_avg " +
-                                    "FROM users u " +
-                                    "LEFT JOIN coach_ratings cr ON cr.player_id = u.tg_id " +
-                                    "WHERE u.role='PLAYER' AND u.team_id=? " +
-                                    "GROUP BY u.tg_id " +
-                                    "ORDER BY u.full_name"
-                    )) {
+                    try (PreparedStatement ps = conn.prepareStatement(SQL_COACH_RATING_AVERAGES)) {
                         ps.setLong(1, teamId);
                         try (ResultSet rs = ps.executeQuery()) {
                             while (rs.next()) {
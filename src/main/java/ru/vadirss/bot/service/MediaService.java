@@ -2,7 +2,6 @@ package ru.vadirss.bot.service;
 
 import ru.vadirss.bot.config.Config;
 import ru.vadirss.bot.db.Database;
-import ru.vadirss.bot.util.TimeUtil;
 
 import org.telegram.telegrambots.meta.api.objects.InputFile;
 import org.telegram.telegrambots.meta.api.objects.Message;
@@ -13,7 +12,6 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.ZoneId;
 import java.util.Comparator;
 import java.util.Optional;
 
@@ -51,7 +49,7 @@ public final class MediaService {
         return f;
     }
 
-    public void cacheIfPossible(String mediaKey, Message sentMessage, ZoneId zone) {
+    public void cacheIfPossible(String mediaKey, Message sentMessage) {
         if (sentMessage == null) return;
         if (sentMessage.getPhoto() == null || sentMessage.getPhoto().isEmpty()) return;
 
@@ -63,7 +61,7 @@ public final class MediaService {
         String fileId = best.getFileId();
         if (fileId == null || fileId.isBlank()) return;
 
-        upsert(mediaKey, fileId, zone);
+        upsert(mediaKey, fileId);
     }
 
     public Optional<String> getCachedFileId(String mediaKey) {
@@ -80,19 +78,21 @@ public final class MediaService {
         }
     }
 
-    private void upsert(String mediaKey, String fileId, ZoneId zone) {
-        try (Connection c = db.getConnection()) {
+    private void upsert(String mediaKey, String fileId) {
+        // cache only: nobody waits for this write
+        db.submit(c -> {
             try (PreparedStatement ps = c.prepareStatement(
                     "INSERT INTO media_cache(media_key, file_id, updated_at) VALUES(?,?,?) " +
                             "ON CONFLICT(media_key) DO UPDATE SET file_id=excluded.file_id, updated_at=excluded.updated_at"
             )) {
                 ps.setString(1, mediaKey);
                 ps.setString(2, fileId);
-                ps.setString(3, TimeUtil.nowIso(zone));
-                ps.executeUpdate();
+                ps.setLong(3, System.currentTimeMillis());
+                return ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        }).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
     }
 }
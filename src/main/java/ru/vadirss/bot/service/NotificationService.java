@@ -6,6 +6,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDate;
 
 public final class NotificationService {
 
@@ -15,11 +16,11 @@ public final class NotificationService {
         this.db = db;
     }
 
-    public boolean isQuoteSent(long teamId, String dateIso) {
+    public boolean isQuoteSent(long teamId, LocalDate date) {
         try (Connection c = db.getConnection()) {
             try (PreparedStatement ps = c.prepareStatement("SELECT quote_sent FROM team_notifications WHERE team_id=? AND date=?")) {
                 ps.setLong(1, teamId);
-                ps.setString(2, dateIso);
+                ps.setLong(2, date.toEpochDay());
                 try (ResultSet rs = ps.executeQuery()) {
                     if (!rs.next()) return false;
                     return rs.getInt("quote_sent") == 1;
@@ -30,18 +31,19 @@ public final class NotificationService {
         }
     }
 
-    public void markQuoteSent(long teamId, String dateIso) {
-        try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "INSERT INTO team_notifications(team_id, date, quote_sent) VALUES(?,?,1) " +
-                            "ON CONFLICT(team_id, date) DO UPDATE SET quote_sent=1"
-            )) {
-                ps.setLong(1, teamId);
-                ps.setString(2, dateIso);
-                ps.executeUpdate();
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+    public void markQuoteSent(long teamId, LocalDate date) {
+        db.run(c -> markQuoteSent(c, teamId, date));
+    }
+
+    /** For callers that mark the quote inside their own write job. */
+    public void markQuoteSent(Connection c, long teamId, LocalDate date) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT INTO team_notifications(team_id, date, quote_sent) VALUES(?,?,1) " +
+                        "ON CONFLICT(team_id, date) DO UPDATE SET quote_sent=1"
+        )) {
+            ps.setLong(1, teamId);
+            ps.setLong(2, date.toEpochDay());
+            ps.executeUpdate();
         }
     }
 }
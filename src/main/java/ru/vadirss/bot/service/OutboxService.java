@@ -0,0 +1,179 @@
+package ru.vadirss.bot.service;
+
+import com.google.gson.JsonObject;
+import ru.vadirss.bot.db.Database;
+import ru.vadirss.bot.model.OutboxMessage;
+import ru.vadirss.bot.util.JsonUtils;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
+
+/**
+ * Durable queue of outgoing messages. A row is claimed by moving its {@code next_attempt_at}
+ * past the send lease, so a sender that dies mid-send leaves it to be picked up again.
+ */
+public final class OutboxService {
+
+    public static final String SQL_CLAIM_DUE = "UPDATE outbox SET attempts=attempts+1, next_attempt_at=? WHERE id IN (" +
+            "SELECT id FROM outbox WHERE status='PENDING' AND next_attempt_at<=? ORDER BY next_attempt_at, id LIMIT ?" +
+            ") RETURNING *";
+
+    public static final String KIND_TEXT = "TEXT";
+    // a photo from the media cache with the text as caption; payload {"mediaKey": ...}
+    public static final String KIND_PHOTO = "PHOTO";
+
+    private final Database db;
+    private final List<IntConsumer> enqueueListeners = new CopyOnWriteArrayList<>();
+
+    public OutboxService(Database db) {
+        this.db = db;
+    }
+
+    /** Called with the number of rows after they are committed. */
+    public void addEnqueueListener(IntConsumer listener) {
+        enqueueListeners.add(listener);
+    }
+
+    public static OutboxMessage message(long chatId, String text, String replyMarkup, String kind, JsonObject payload) {
+        OutboxMessage m = new OutboxMessage();
+        m.chatId = chatId;
+        m.text = text;
+        m.replyMarkup = replyMarkup;
+        m.kind = kind;
+        m.payload = payload;
+        return m;
+    }
+
+    public void enqueue(OutboxMessage m) {
+        enqueueAll(List.of(m), null);
+    }
+
+    /** Inserts all messages, and runs {@code alsoRun} (if any) in the same transaction. */
+    public void enqueueAll(List<OutboxMessage> messages, Database.SqlTask alsoRun) {
+        if (messages.isEmpty() && alsoRun == null) return;
+        long now = System.currentTimeMillis();
+        db.run(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO outbox(chat_id, text, reply_markup, kind, payload, next_attempt_at, created_at) VALUES(?,?,?,?,?,?,?)"
+            )) {
+                for (OutboxMessage m : messages) {
+                    ps.setLong(1, m.chatId);
+                    ps.setString(2, m.text);
+                    ps.setString(3, m.replyMarkup);
+                    ps.setString(4, m.kind);
+                    if (m.payload == null) ps.setNull(5, Types.VARCHAR);
+                    else ps.setString(5, JsonUtils.GSON.toJson(m.payload));
+                    ps.setLong(6, now);
+                    ps.setLong(7, now);
+                    ps.executeUpdate();
+                }
+            }
+            if (alsoRun != null) alsoRun.run(c);
+        });
+        if (!messages.isEmpty()) {
+            for (IntConsumer l : enqueueListeners) l.accept(messages.size());
+        }
+    }
+
+    /** Claims up to {@code limit} due messages for {@code leaseMs}; each claim counts as an attempt. */
+    public List<OutboxMessage> claimDue(int limit, long leaseMs) {
+        long now = System.currentTimeMillis();
+        return db.write(c -> {
+            List<OutboxMessage> out = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement(SQL_CLAIM_DUE)) {
+                ps.setLong(1, now + leaseMs);
+                ps.setLong(2, now);
+                ps.setInt(3, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(map(rs));
+                }
+            }
+            // RETURNING order is unspecified; keep per-chat order by id
+            out.sort((a, b) -> Long.compare(a.id, b.id));
+            return out;
+        });
+    }
+
+    public void markSent(long id) {
+        markSent(id, null);
+    }
+
+    /** Removes a sent message and runs {@code alsoRun} (if any) in the same transaction. */
+    public void markSent(long id, Database.SqlTask alsoRun) {
+        db.run(c -> {
+            try (PreparedStatement ps = c.prepareStatement("DELETE FROM outbox WHERE id=?")) {
+                ps.setLong(1, id);
+                ps.executeUpdate();
+            }
+            if (alsoRun != null) alsoRun.run(c);
+        });
+    }
+
+    public void retryAt(long id, long nextAttemptAt, String error) {
+        db.run(c -> {
+            try (PreparedStatement ps = c.prepareStatement("UPDATE outbox SET next_attempt_at=?, last_error=? WHERE id=?")) {
+                ps.setLong(1, nextAttemptAt);
+                ps.setString(2, error);
+                ps.setLong(3, id);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Moves a message to {@code nextAttemptAt} without counting the current claim as an attempt,
+     * for sends Telegram asked us to hold back (429) rather than refused.
+     */
+    public void postpone(long id, long nextAttemptAt, String error) {
+        db.run(c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "UPDATE outbox SET attempts=MAX(attempts-1, 0), next_attempt_at=?, last_error=? WHERE id=?"
+            )) {
+                ps.setLong(1, nextAttemptAt);
+                ps.setString(2, error);
+                ps.setLong(3, id);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    public void markDead(long id, String error) {
+        db.run(c -> {
+            try (PreparedStatement ps = c.prepareStatement("UPDATE outbox SET status='DEAD', last_error=? WHERE id=?")) {
+                ps.setString(1, error);
+                ps.setLong(2, id);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    public int countByStatus(String status) {
+        try (Connection c = db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement("SELECT COUNT(1) AS c FROM outbox WHERE status=?")) {
+                ps.setString(1, status);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getInt("c") : 0;
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private OutboxMessage map(ResultSet rs) throws SQLException {
+        OutboxMessage m = new OutboxMessage();
+        m.id = rs.getLong("id");
+        m.chatId = rs.getLong("chat_id");
+        m.text = rs.getString("text");
+        m.replyMarkup = rs.getString("reply_markup");
+        m.kind = rs.getString("kind");
+        String payload = rs.getString("payload");
+        m.payload = payload == null ? null : JsonUtils.parseObj(payload);
+        m.attempts = rs.getInt("attempts");
+        m.createdAt = rs.getLong("created_at");
+        return m;
+    }
+}
@@ -0,0 +1,148 @@
+package ru.vadirss.bot.service;
+
+import ru.vadirss.bot.db.Database;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Buffer of AI challenges generated ahead of training time, per team and position.
+ * Filled by the prefetcher; a challenge is taken out (deleted) when it is assigned.
+ */
+public final class PendingChallengeService {
+
+    public static final String SQL_TAKE = "DELETE FROM pending_ai_challenges WHERE id=(" +
+            "SELECT id FROM pending_ai_challenges WHERE team_id=? AND position=? AND created_at>=? ORDER BY id LIMIT 1" +
+            ") RETURNING text, created_at";
+    public static final String SQL_DEPTHS = "SELECT position, COUNT(1) AS c FROM pending_ai_challenges WHERE team_id=? GROUP BY position";
+
+    private final Database db;
+
+    // metrics
+    private final LongAdder added = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder ageAtPopMs = new LongAdder();
+    private final AtomicLong maxAgeAtPopMs = new AtomicLong();
+
+    public PendingChallengeService(Database db) {
+        this.db = db;
+    }
+
+    public void add(long teamId, String position, List<String> texts) {
+        if (texts.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        db.run(c -> {
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO pending_ai_challenges(team_id, position, text, created_at) VALUES(?,?,?,?)")) {
+                for (String text : texts) {
+                    ps.setLong(1, teamId);
+                    ps.setString(2, key(position));
+                    ps.setString(3, text);
+                    ps.setLong(4, now);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        });
+        added.add(texts.size());
+    }
+
+    /**
+     * Takes the oldest buffered challenge created at or after {@code notBefore} for each position, in one transaction.
+     *
+     * @return one slot per entry of {@code positions}, null where the buffer had nothing for it
+     */
+    public String[] pop(long teamId, List<String> positions, long notBefore) {
+        long now = System.currentTimeMillis();
+        String[] out = new String[positions.size()];
+        long[] createdAt = new long[positions.size()];
+        db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(SQL_TAKE)) {
+                for (int i = 0; i < out.length; i++) {
+                    ps.setLong(1, teamId);
+                    ps.setString(2, key(positions.get(i)));
+                    ps.setLong(3, notBefore);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) continue;
+                        out[i] = rs.getString("text");
+                        createdAt[i] = rs.getLong("created_at");
+                    }
+                }
+            }
+            return null;
+        });
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] == null) {
+                misses.increment();
+                continue;
+            }
+            long age = Math.max(0, now - createdAt[i]);
+            hits.increment();
+            ageAtPopMs.add(age);
+            maxAgeAtPopMs.accumulateAndGet(age, Math::max);
+        }
+        return out;
+    }
+
+    /** Buffered challenges per position ('' for no position). */
+    public Map<String, Integer> depths(long teamId) {
+        try (Connection c = db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_DEPTHS)) {
+                ps.setLong(1, teamId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    Map<String, Integer> out = new HashMap<>();
+                    while (rs.next()) out.put(rs.getString("position"), rs.getInt("c"));
+                    return out;
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Deletes challenges created before {@code cutoff}; they are too old to hand out. */
+    public int dropOlderThan(long cutoff) {
+        int n = db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("DELETE FROM pending_ai_challenges WHERE created_at<?")) {
+                ps.setLong(1, cutoff);
+                return ps.executeUpdate();
+            }
+        });
+        dropped.add(n);
+        return n;
+    }
+
+    public Stats stats() {
+        int depth;
+        long oldest;
+        try (Connection c = db.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(1) AS c, MIN(created_at) AS oldest FROM pending_ai_challenges")) {
+            rs.next();
+            depth = rs.getInt("c");
+            oldest = rs.getLong("oldest");
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        long h = hits.sum();
+        return new Stats(depth, depth == 0 ? 0 : (System.currentTimeMillis() - oldest) / 60_000,
+                added.sum(), h, misses.sum(), dropped.sum(),
+                h == 0 ? 0.0 : ageAtPopMs.sum() / 60_000.0 / h, maxAgeAtPopMs.get() / 60_000);
+    }
+
+    private static String key(String position) {
+        return position == null ? "" : position.trim();
+    }
+
+    /**
+     * @param depth            buffered challenges across all teams right now
+     * @param oldestAgeMinutes age of the oldest of them
+     * @param hits             assignments served from the buffer; {@code misses} had to generate on the spot
+     * @param dropped          challenges deleted unused for being too old
+     */
+    public record Stats(int depth, long oldestAgeMinutes, long added, long hits, long misses, long dropped,
+                        double avgAgeAtPopMinutes, long maxAgeAtPopMinutes) {}
+}
@@ -13,6 +13,8 @@ import java.time.ZoneId;
 
 public final class PointsService {
 
+    public static final String SQL_POINTS_BETWEEN = "SELECT COALESCE(SUM(delta),0) AS s FROM points_ledger WHERE user_id=? AND created_at>=? AND created_at<?";
+
     private final Database db;
 
     public PointsService(Database db) {
@@ -21,13 +23,11 @@ public final class PointsService {
 
     public int getTodayPoints(long userId, ZoneId zone) {
         LocalDate today = LocalDate.now(zone);
-        String d = TimeUtil.fmt(today);
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT COALESCE(SUM(delta),0) AS s FROM points_ledger WHERE user_id=? AND substr(created_at,1,10)=?"
-            )) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_POINTS_BETWEEN)) {
                 ps.setLong(1, userId);
-                ps.setString(2, d);
+                ps.setLong(2, TimeUtil.startOfDay(today, zone));
+                ps.setLong(3, TimeUtil.startOfDay(today.plusDays(1), zone));
                 try (ResultSet rs = ps.executeQuery()) {
                     if (!rs.next()) return 0;
                     return rs.getInt("s");
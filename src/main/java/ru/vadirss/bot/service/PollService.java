@@ -6,44 +6,48 @@ import ru.vadirss.bot.db.Database;
 import ru.vadirss.bot.model.EveningPoll;
 import ru.vadirss.bot.model.MorningPoll;
 import ru.vadirss.bot.model.TeamEventType;
-import ru.vadirss.bot.util.TimeUtil;
 
 import java.sql.*;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 
 public final class PollService {
 
+    public static final String SQL_LAST_MORNING = "SELECT * FROM polls_morning WHERE player_id=? ORDER BY created_at DESC LIMIT ?";
+    public static final String SQL_LAST_EVENING = "SELECT * FROM polls_evening WHERE player_id=? ORDER BY created_at DESC LIMIT ?";
+    public static final String SQL_COUNT_MORNING = "SELECT COUNT(1) AS c FROM polls_morning WHERE player_id=?";
+    public static final String SQL_COUNT_EVENING = "SELECT COUNT(1) AS c FROM polls_evening WHERE player_id=?";
+    public static final String SQL_COUNT_COMPLETED_CHALLENGES = "SELECT COUNT(1) AS c FROM player_challenges WHERE player_id=? AND status='COMPLETED'";
+
     private final Database db;
     private final Config cfg;
     private final TeamEventService teamEvents;
+    private final UserService users;
 
-    public PollService(Database db, Config cfg, TeamEventService teamEvents) {
+    public PollService(Database db, Config cfg, TeamEventService teamEvents, UserService users) {
         this.db = db;
         this.cfg = cfg;
         this.teamEvents = teamEvents;
+        this.users = users;
     }
 
     public void saveMorningPoll(Long sessionId, long playerId, int energy, int sleep, int readiness, String mood) {
         ZoneId zone = cfg.zoneId();
-        String now = TimeUtil.nowIso(zone);
-        String date = TimeUtil.todayIso(zone);
-
-        Integer beforePoints = null;
-        Long teamId = null;
-
-        try (Connection c = db.getConnection()) {
-            c.setAutoCommit(false);
+        long now = System.currentTimeMillis();
+        LocalDate today = LocalDate.now(zone);
 
+        Before before = db.write(c -> {
+            Before b = null;
             // read before points/team
             try (PreparedStatement ps0 = c.prepareStatement("SELECT points, team_id FROM users WHERE tg_id=?")) {
                 ps0.setLong(1, playerId);
                 try (ResultSet rs = ps0.executeQuery()) {
                     if (rs.next()) {
-                        beforePoints = rs.getInt("points");
+                        int points = rs.getInt("points");
                         long t = rs.getLong("team_id");
-                        teamId = rs.wasNull() ? null : t;
+                        b = new Before(points, rs.wasNull() ? null : t);
                     }
                 }
             }
@@ -53,20 +57,20 @@ public final class PollService {
             )) {
                 if (sessionId == null) ps.setNull(1, Types.INTEGER);
                 else ps.setLong(1, sessionId);
-                ps.setString(2, date);
+                ps.setLong(2, today.toEpochDay());
                 ps.setLong(3, playerId);
                 ps.setInt(4, energy);
                 ps.setInt(5, sleep);
                 ps.setInt(6, readiness);
                 ps.setString(7, mood);
-                ps.setString(8, now);
+                ps.setLong(8, now);
                 ps.executeUpdate();
             }
 
             // +5 points
             try (PreparedStatement ps1 = c.prepareStatement("UPDATE users SET points = points + ?, updated_at=? WHERE tg_id=?")) {
                 ps1.setInt(1, 5);
-                ps1.setString(2, now);
+                ps1.setLong(2, now);
                 ps1.setLong(3, playerId);
                 ps1.executeUpdate();
             }
@@ -74,66 +78,61 @@ public final class PollService {
                 ps2.setLong(1, playerId);
                 ps2.setInt(2, 5);
                 ps2.setString(3, "MORNING_POLL");
-                ps2.setString(4, "date:" + date);
-                ps2.setString(5, now);
+                ps2.setString(4, "date:" + today);
+                ps2.setLong(5, now);
                 ps2.executeUpdate();
             }
-
-            c.commit();
-            c.setAutoCommit(true);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+            return b;
+        });
+        users.invalidate(playerId);
 
         // Level up event (outside transaction)
-        if (beforePoints != null && teamId != null) {
-            var before = PointsService.LevelInfo.ofPoints(beforePoints);
+        if (before != null && before.teamId() != null) {
+            int beforePoints = before.points();
+            long teamId = before.teamId();
+            var from = PointsService.LevelInfo.ofPoints(beforePoints);
             var after = PointsService.LevelInfo.ofPoints(beforePoints + 5);
-            if (!before.name().equals(after.name())) {
+            if (!from.name().equals(after.name())) {
                 JsonObject payload = new JsonObject();
-                payload.addProperty("from", before.name());
+                payload.addProperty("from", from.name());
                 payload.addProperty("to", after.name());
                 payload.addProperty("points", beforePoints + 5);
-                teamEvents.addEvent(teamId, TeamEventType.LEVEL_UP, playerId, payload, zone);
+                teamEvents.addEvent(teamId, TeamEventType.LEVEL_UP, playerId, payload);
             }
         }
     }
 
     public void saveEveningPoll(Long sessionId, long playerId, int selfRating) {
         ZoneId zone = cfg.zoneId();
-        String now = TimeUtil.nowIso(zone);
-        String date = TimeUtil.todayIso(zone);
+        long now = System.currentTimeMillis();
+        long date = LocalDate.now(zone).toEpochDay();
 
-        try (Connection c = db.getConnection()) {
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement(
                     "INSERT INTO polls_evening(session_id, date, player_id, self_rating, created_at) VALUES(?,?,?,?,?)"
             )) {
                 if (sessionId == null) ps.setNull(1, Types.INTEGER);
                 else ps.setLong(1, sessionId);
-                ps.setString(2, date);
+                ps.setLong(2, date);
                 ps.setLong(3, playerId);
                 ps.setInt(4, selfRating);
-                ps.setString(5, now);
+                ps.setLong(5, now);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
     public ProfileCounts counts(long playerId) {
-        int morning = count("polls_morning", playerId);
-        int evening = count("polls_evening", playerId);
-        int challenges = countChallengesCompleted(playerId);
+        int morning = count(SQL_COUNT_MORNING, playerId);
+        int evening = count(SQL_COUNT_EVENING, playerId);
+        int challenges = count(SQL_COUNT_COMPLETED_CHALLENGES, playerId);
         return new ProfileCounts(morning, evening, challenges);
     }
 
     public List<MorningPoll> lastMorning(long playerId, int limit) {
         List<MorningPoll> out = new ArrayList<>();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT * FROM polls_morning WHERE player_id=? ORDER BY created_at DESC LIMIT ?"
-            )) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_LAST_MORNING)) {
                 ps.setLong(1, playerId);
                 ps.setInt(2, limit);
                 try (ResultSet rs = ps.executeQuery()) {
@@ -142,13 +141,13 @@ public final class PollService {
                         p.id = rs.getLong("id");
                         long sid = rs.getLong("session_id");
                         p.sessionId = rs.wasNull() ? null : sid;
-                        p.date = rs.getString("date");
+                        p.date = LocalDate.ofEpochDay(rs.getLong("date"));
                         p.playerId = rs.getLong("player_id");
                         p.energy = rs.getInt("energy");
                         p.sleep = rs.getInt("sleep");
                         p.readiness = rs.getInt("readiness");
                         p.mood = rs.getString("mood");
-                        p.createdAt = rs.getString("created_at");
+                        p.createdAt = rs.getLong("created_at");
                         out.add(p);
                     }
                 }
@@ -162,9 +161,7 @@ public final class PollService {
     public List<EveningPoll> lastEvening(long playerId, int limit) {
         List<EveningPoll> out = new ArrayList<>();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT * FROM polls_evening WHERE player_id=? ORDER BY created_at DESC LIMIT ?"
-            )) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_LAST_EVENING)) {
                 ps.setLong(1, playerId);
                 ps.setInt(2, limit);
                 try (ResultSet rs = ps.executeQuery()) {
@@ -173,10 +170,10 @@ public final class PollService {
                         p.id = rs.getLong("id");
                         long sid = rs.getLong("session_id");
                         p.sessionId = rs.wasNull() ? null : sid;
-                        p.date = rs.getString("date");
+                        p.date = LocalDate.ofEpochDay(rs.getLong("date"));
                         p.playerId = rs.getLong("player_id");
                         p.selfRating = rs.getInt("self_rating");
-                        p.createdAt = rs.getString("created_at");
+                        p.createdAt = rs.getLong("created_at");
                         out.add(p);
                     }
                 }
@@ -187,11 +184,9 @@ public final class PollService {
         return out;
     }
 
-    private int count(String table, long playerId) {
+    private int count(String sql, long playerId) {
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT COUNT(1) AS c FROM " + table + " WHERE player_id=?"
-            )) {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
                 ps.setLong(1, playerId);
                 try (ResultSet rs = ps.executeQuery()) {
                     if (!rs.next()) return 0;
@@ -203,21 +198,7 @@ public final class PollService {
         }
     }
 
-    private int countChallengesCompleted(long playerId) {
-        try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT COUNT(1) AS c FROM player_challenges WHERE player_id=? AND status='COMPLETED'"
-            )) {
-                ps.setLong(1, playerId);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (!rs.next()) return 0;
-                    return rs.getInt("c");
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-    }
+    private record Before(int points, Long teamId) {}
 
     public record ProfileCounts(int morningPolls, int eveningPolls, int completedChallenges) {}
 }
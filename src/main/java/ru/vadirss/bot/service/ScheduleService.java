@@ -10,18 +10,28 @@ import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
 
 public final class ScheduleService {
+
+    public static final String SQL_FIND_FOR_DAY = "SELECT * FROM schedules WHERE team_id=? AND day_of_week=?";
     private final Database db;
+    private final List<LongConsumer> changeListeners = new CopyOnWriteArrayList<>();
 
     public ScheduleService(Database db) {
         this.db = db;
     }
 
+    /** {@code listener} gets the team id after that team's schedule changed. */
+    public void addChangeListener(LongConsumer listener) {
+        changeListeners.add(listener);
+    }
+
     public Optional<TeamSchedule> findForTeamAndDay(long teamId, DayOfWeek dow) {
         int d = dow.getValue();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT * FROM schedules WHERE team_id=? AND day_of_week=?")) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_FIND_FOR_DAY)) {
                 ps.setLong(1, teamId);
                 ps.setInt(2, d);
                 try (ResultSet rs = ps.executeQuery()) {
@@ -50,7 +60,7 @@ public final class ScheduleService {
     }
 
     public void upsert(long teamId, int dayOfWeek, LocalTime start, LocalTime end) {
-        try (Connection c = db.getConnection()) {
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement(
                     "INSERT INTO schedules(team_id, day_of_week, start_time, end_time) VALUES(?,?,?,?) " +
                             "ON CONFLICT(team_id, day_of_week) DO UPDATE SET start_time=excluded.start_time, end_time=excluded.end_time"
@@ -61,9 +71,8 @@ public final class ScheduleService {
                 ps.setString(4, end.toString());
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
+        for (LongConsumer l : changeListeners) l.accept(teamId);
     }
 
     private static TeamSchedule map(ResultSet rs) throws SQLException {
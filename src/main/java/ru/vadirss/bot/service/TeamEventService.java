@@ -5,65 +5,87 @@ import ru.vadirss.bot.db.Database;
 import ru.vadirss.bot.model.TeamEvent;
 import ru.vadirss.bot.model.TeamEventType;
 import ru.vadirss.bot.util.JsonUtils;
-import ru.vadirss.bot.util.TimeUtil;
 
 import java.sql.*;
-import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 
 public final class TeamEventService {
 
+    public static final String SQL_FEED_PAGE = "SELECT e.*, CASE WHEN u.tg_id IS NULL THEN NULL ELSE COALESCE(u.full_name,'') END AS user_name " +
+            "FROM team_events e LEFT JOIN users u ON u.tg_id=e.user_id " +
+            "WHERE e.team_id=? AND (e.created_at, e.id) < (?, ?) " +
+            "ORDER BY e.created_at DESC, e.id DESC LIMIT ?";
+
     private final Database db;
 
     public TeamEventService(Database db) {
         this.db = db;
     }
 
-    public void addEvent(long teamId, TeamEventType type, Long userId, JsonObject payload, ZoneId zone) {
-        String now = TimeUtil.nowIso(zone);
-        try (Connection c = db.getConnection()) {
+    public void addEvent(long teamId, TeamEventType type, Long userId, JsonObject payload) {
+        long now = System.currentTimeMillis();
+        String json = JsonUtils.GSON.toJson(payload != null ? payload : new JsonObject());
+        // feed entries are not read back by the caller, so don't wait for the commit
+        db.submit(c -> {
             try (PreparedStatement ps = c.prepareStatement(
                     "INSERT INTO team_events(team_id, created_at, type, user_id, payload) VALUES(?,?,?,?,?)"
             )) {
                 ps.setLong(1, teamId);
-                ps.setString(2, now);
+                ps.setLong(2, now);
                 ps.setString(3, type.name());
                 if (userId == null) ps.setNull(4, Types.INTEGER);
                 else ps.setLong(4, userId);
-                ps.setString(5, JsonUtils.GSON.toJson(payload != null ? payload : new JsonObject()));
-                ps.executeUpdate();
+                ps.setString(5, json);
+                return ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        }).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
     }
 
-    public List<TeamEvent> lastEvents(long teamId, int limit) {
-        List<TeamEvent> out = new ArrayList<>();
+    /**
+     * One page of the team feed, newest first, with each author's name joined in.
+     * Pass {@code null} for the first page, then the previous page's {@link FeedPage#next()}.
+     */
+    public FeedPage lastEventsWithUsers(long teamId, FeedCursor before, int limit) {
+        List<FeedEntry> out = new ArrayList<>();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT * FROM team_events WHERE team_id=? ORDER BY created_at DESC LIMIT ?"
-            )) {
+            // keyset on (created_at, id): page N costs the same as page 1
+            try (PreparedStatement ps = c.prepareStatement(SQL_FEED_PAGE)) {
                 ps.setLong(1, teamId);
-                ps.setInt(2, limit);
+                ps.setLong(2, before == null ? Long.MAX_VALUE : before.createdAt());
+                ps.setLong(3, before == null ? Long.MAX_VALUE : before.id());
+                ps.setInt(4, limit + 1);
                 try (ResultSet rs = ps.executeQuery()) {
                     while (rs.next()) {
                         TeamEvent ev = new TeamEvent();
                         ev.id = rs.getLong("id");
                         ev.teamId = rs.getLong("team_id");
-                        ev.createdAt = rs.getString("created_at");
+                        ev.createdAt = rs.getLong("created_at");
                         ev.type = TeamEventType.fromDb(rs.getString("type"));
                         long uid = rs.getLong("user_id");
                         ev.userId = rs.wasNull() ? null : uid;
                         ev.payloadJson = rs.getString("payload");
-                        out.add(ev);
+                        out.add(new FeedEntry(ev, rs.getString("user_name")));
                     }
                 }
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        return out;
+        if (out.size() <= limit) return new FeedPage(out, null);
+        List<FeedEntry> page = out.subList(0, limit);
+        TeamEvent last = page.get(limit - 1).event();
+        return new FeedPage(page, new FeedCursor(last.createdAt, last.id));
     }
+
+    public record FeedCursor(long createdAt, long id) {}
+
+    /** {@code authorName} is null when the event has no user or the user no longer exists. */
+    public record FeedEntry(TeamEvent event, String authorName) {}
+
+    /** {@code next} is null on the last page. */
+    public record FeedPage(List<FeedEntry> entries, FeedCursor next) {}
 }
@@ -2,19 +2,29 @@ package ru.vadirss.bot.service;
 
 import ru.vadirss.bot.db.Database;
 import ru.vadirss.bot.model.Team;
-import ru.vadirss.bot.util.TimeUtil;
 
 import java.sql.*;
-import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
 
 public final class TeamService {
+
+    public static final String SQL_TEAMS_FOR_COACH = "SELECT t.* FROM teams t JOIN team_coaches tc ON tc.team_id=t.id WHERE tc.coach_id=? ORDER BY t.name";
     private final Database db;
+    private final UserService users;
+    private final List<LongConsumer> changeListeners = new CopyOnWriteArrayList<>();
 
-    public TeamService(Database db) {
+    public TeamService(Database db, UserService users) {
         this.db = db;
+        this.users = users;
+    }
+
+    /** {@code listener} gets the team id after a team was created or deleted. */
+    public void addChangeListener(LongConsumer listener) {
+        changeListeners.add(listener);
     }
 
     public List<Team> listTeams() {
@@ -45,12 +55,12 @@ public final class TeamService {
         }
     }
 
-    public Team createTeam(String name, ZoneId zone) {
-        String now = TimeUtil.nowIso(zone);
-        try (Connection c = db.getConnection()) {
+    public Team createTeam(String name) {
+        long now = System.currentTimeMillis();
+        Team created = db.write(c -> {
             try (PreparedStatement ps = c.prepareStatement("INSERT INTO teams(name, created_at) VALUES(?,?)", Statement.RETURN_GENERATED_KEYS)) {
                 ps.setString(1, name.trim());
-                ps.setString(2, now);
+                ps.setLong(2, now);
                 ps.executeUpdate();
                 try (ResultSet keys = ps.getGeneratedKeys()) {
                     if (!keys.next()) throw new SQLException("No id returned");
@@ -61,14 +71,13 @@ public final class TeamService {
                     return t;
                 }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
+        for (LongConsumer l : changeListeners) l.accept(created.id);
+        return created;
     }
 
     public void deleteTeam(long teamId) {
-        try (Connection c = db.getConnection()) {
-            c.setAutoCommit(false);
+        db.run(c -> {
             try (PreparedStatement ps1 = c.prepareStatement("DELETE FROM schedules WHERE team_id=?")) {
                 ps1.setLong(1, teamId);
                 ps1.executeUpdate();
@@ -86,43 +95,36 @@ public final class TeamService {
                 ps4.setLong(1, teamId);
                 ps4.executeUpdate();
             }
-            c.commit();
-            c.setAutoCommit(true);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
+        // any number of players lost their team
+        users.invalidateAll();
+        for (LongConsumer l : changeListeners) l.accept(teamId);
     }
 
     public void assignCoach(long teamId, long coachId) {
-        try (Connection c = db.getConnection()) {
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement("INSERT OR IGNORE INTO team_coaches(team_id, coach_id) VALUES(?,?)")) {
                 ps.setLong(1, teamId);
                 ps.setLong(2, coachId);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
     public void removeCoach(long teamId, long coachId) {
-        try (Connection c = db.getConnection()) {
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement("DELETE FROM team_coaches WHERE team_id=? AND coach_id=?")) {
                 ps.setLong(1, teamId);
                 ps.setLong(2, coachId);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
     public List<Team> listTeamsForCoach(long coachId) {
         List<Team> out = new ArrayList<>();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT t.* FROM teams t JOIN team_coaches tc ON tc.team_id=t.id WHERE tc.coach_id=? ORDER BY t.name"
-            )) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_TEAMS_FOR_COACH)) {
                 ps.setLong(1, coachId);
                 try (ResultSet rs = ps.executeQuery()) {
                     while (rs.next()) out.add(map(rs));
@@ -138,7 +140,7 @@ public final class TeamService {
         Team t = new Team();
         t.id = rs.getLong("id");
         t.name = rs.getString("name");
-        t.createdAt = rs.getString("created_at");
+        t.createdAt = rs.getLong("created_at");
         return t;
     }
 }
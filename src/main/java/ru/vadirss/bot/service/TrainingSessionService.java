@@ -9,11 +9,21 @@ import ru.vadirss.bot.util.TimeUtil;
 import java.sql.*;
 import java.time.*;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public final class TrainingSessionService {
 
+    public static final String SQL_FIND_BY_TEAM_AND_DATE = "SELECT * FROM training_sessions WHERE team_id=? AND date=?";
+    public static final String SQL_LIST_FOR_DATE = "SELECT * FROM training_sessions WHERE date=?";
+
+    private static final Set<String> FLAGS = Set.of(
+            "morning_poll_sent", "reminder_sent", "challenges_sent", "coach_prompt_sent",
+            "evening_poll_sent", "coach_rating_sent", "challenges_expired"
+    );
+
     private final Database db;
     private final Config cfg;
     private final ScheduleService schedules;
@@ -26,9 +36,9 @@ public final class TrainingSessionService {
 
     public Optional<TrainingSession> findByTeamAndDate(long teamId, LocalDate date) {
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT * FROM training_sessions WHERE team_id=? AND date=?")) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_FIND_BY_TEAM_AND_DATE)) {
                 ps.setLong(1, teamId);
-                ps.setString(2, TimeUtil.fmt(date));
+                ps.setLong(2, date.toEpochDay());
                 try (ResultSet rs = ps.executeQuery()) {
                     if (!rs.next()) return Optional.empty();
                     return Optional.of(map(rs));
@@ -59,19 +69,28 @@ public final class TrainingSessionService {
             endDt = endDt.plusDays(1);
         }
 
-        String now = TimeUtil.nowIso(zone);
+        long now = System.currentTimeMillis();
+        LocalDateTime endFinal = endDt;
 
-        try (Connection c = db.getConnection()) {
+        return db.write(c -> {
+            // re-check on the writer: another thread may have created it since the read above
+            try (PreparedStatement ps0 = c.prepareStatement(SQL_FIND_BY_TEAM_AND_DATE)) {
+                ps0.setLong(1, teamId);
+                ps0.setLong(2, date.toEpochDay());
+                try (ResultSet rs = ps0.executeQuery()) {
+                    if (rs.next()) return map(rs);
+                }
+            }
             try (PreparedStatement ps = c.prepareStatement(
                     "INSERT INTO training_sessions(team_id, date, start_datetime, end_datetime, status, created_at) VALUES(?,?,?,?,?,?)",
                     Statement.RETURN_GENERATED_KEYS
             )) {
                 ps.setLong(1, teamId);
-                ps.setString(2, TimeUtil.fmt(date));
-                ps.setString(3, TimeUtil.fmt(startDt));
-                ps.setString(4, TimeUtil.fmt(endDt));
+                ps.setLong(2, date.toEpochDay());
+                ps.setLong(3, TimeUtil.toMillis(startDt, zone));
+                ps.setLong(4, TimeUtil.toMillis(endFinal, zone));
                 ps.setString(5, "PLANNED");
-                ps.setString(6, now);
+                ps.setLong(6, now);
                 ps.executeUpdate();
                 try (ResultSet keys = ps.getGeneratedKeys()) {
                     if (!keys.next()) throw new SQLException("No id");
@@ -81,21 +100,19 @@ public final class TrainingSessionService {
                     s.teamId = teamId;
                     s.date = date;
                     s.startDateTime = startDt;
-                    s.endDateTime = endDt;
+                    s.endDateTime = endFinal;
                     s.status = "PLANNED";
                     return s;
                 }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
     public List<TrainingSession> listSessionsForDate(LocalDate date) {
         List<TrainingSession> out = new ArrayList<>();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT * FROM training_sessions WHERE date=?")) {
-                ps.setString(1, TimeUtil.fmt(date));
+            try (PreparedStatement ps = c.prepareStatement(SQL_LIST_FOR_DATE)) {
+                ps.setLong(1, date.toEpochDay());
                 try (ResultSet rs = ps.executeQuery()) {
                     while (rs.next()) out.add(map(rs));
                 }
@@ -106,34 +123,117 @@ public final class TrainingSessionService {
         return out;
     }
 
-    public void setFlag(long sessionId, String flagField, boolean value) {
-        String sql = "UPDATE training_sessions SET " + flagField + "=? WHERE id=?";
-        try (Connection c = db.getConnection()) {
+    // Flag columns: 0 = not started, 1 = done, anything larger = epoch millis of the run that claimed it.
+
+    /**
+     * Compare-and-set claim of a scheduled action: true only for the caller that moved the flag off 0,
+     * or that took over a claim older than {@code leaseMs} (its run died half way).
+     * A won claim ends with {@link #complete} or {@link #release}.
+     */
+    public boolean claim(long sessionId, String flagField, long leaseMs) {
+        String sql = "UPDATE training_sessions SET " + checkedFlag(flagField) + "=? WHERE id=? AND (" +
+                flagField + "=0 OR (" + flagField + ">1 AND " + flagField + "<?))";
+        long now = System.currentTimeMillis();
+        return db.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, now);
+                ps.setLong(2, sessionId);
+                ps.setLong(3, now - leaseMs);
+                return ps.executeUpdate() == 1;
+            }
+        });
+    }
+
+    public void complete(long sessionId, String flagField) {
+        String sql = "UPDATE training_sessions SET " + checkedFlag(flagField) + "=1 WHERE id=?";
+        db.run(c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, sessionId);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    /** Keeps a claim alive while its run is still making progress. */
+    public void renew(long sessionId, String flagField) {
+        String sql = "UPDATE training_sessions SET " + checkedFlag(flagField) + "=? WHERE id=? AND " + flagField + ">1";
+        long now = System.currentTimeMillis();
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement(sql)) {
-                ps.setInt(1, value ? 1 : 0);
+                ps.setLong(1, now);
                 ps.setLong(2, sessionId);
                 ps.executeUpdate();
             }
+        });
+    }
+
+    /** Gives up a claim after a failed run so the retry can claim it again. */
+    public void release(long sessionId, String flagField) {
+        String sql = "UPDATE training_sessions SET " + checkedFlag(flagField) + "=0 WHERE id=? AND " + flagField + ">1";
+        db.run(c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, sessionId);
+                ps.executeUpdate();
+            }
+        });
+    }
+
+    /** Recipients already recorded for a session broadcast. */
+    public Set<Long> deliveredTo(long sessionId, String action) {
+        Set<Long> out = new HashSet<>();
+        try (Connection c = db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement("SELECT recipient_id FROM session_deliveries WHERE session_id=? AND action=?")) {
+                ps.setLong(1, sessionId);
+                ps.setString(2, action);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(rs.getLong("recipient_id"));
+                }
+            }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        return out;
     }
 
-    private static TrainingSession map(ResultSet rs) throws SQLException {
+    /**
+     * Records a delivery inside the caller's write job, e.g. together with the queued message.
+     * A recipient that is already recorded fails the job (primary key), so nothing is queued twice.
+     */
+    public void markDelivered(Connection c, long sessionId, String action, long recipientId) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT INTO session_deliveries(session_id, action, recipient_id, delivered_at) VALUES(?,?,?,?)"
+        )) {
+            ps.setLong(1, sessionId);
+            ps.setString(2, action);
+            ps.setLong(3, recipientId);
+            ps.setLong(4, System.currentTimeMillis());
+            ps.executeUpdate();
+        }
+    }
+
+    // flag names end up in SQL text
+    private static String checkedFlag(String flagField) {
+        if (!FLAGS.contains(flagField)) throw new IllegalArgumentException("Unknown session flag: " + flagField);
+        return flagField;
+    }
+
+    private TrainingSession map(ResultSet rs) throws SQLException {
+        ZoneId zone = cfg.zoneId();
         TrainingSession s = new TrainingSession();
         s.id = rs.getLong("id");
         s.teamId = rs.getLong("team_id");
-        s.date = TimeUtil.parseDate(rs.getString("date"));
-        s.startDateTime = TimeUtil.parseDateTime(rs.getString("start_datetime"));
-        s.endDateTime = TimeUtil.parseDateTime(rs.getString("end_datetime"));
+        s.date = LocalDate.ofEpochDay(rs.getLong("date"));
+        s.startDateTime = TimeUtil.fromMillis(rs.getLong("start_datetime"), zone);
+        s.endDateTime = TimeUtil.fromMillis(rs.getLong("end_datetime"), zone);
         s.status = rs.getString("status");
-        s.morningPollSent = rs.getInt("morning_poll_sent") == 1;
-        s.reminderSent = rs.getInt("reminder_sent") == 1;
-        s.challengesSent = rs.getInt("challenges_sent") == 1;
-        s.coachPromptSent = rs.getInt("coach_prompt_sent") == 1;
-        s.eveningPollSent = rs.getInt("evening_poll_sent") == 1;
-        s.coachRatingSent = rs.getInt("coach_rating_sent") == 1;
-        s.challengesExpired = rs.getInt("challenges_expired") == 1;
+        // a claimed but unfinished action (epoch millis in the column) is not done
+        s.morningPollSent = rs.getLong("morning_poll_sent") == 1;
+        s.reminderSent = rs.getLong("reminder_sent") == 1;
+        s.challengesSent = rs.getLong("challenges_sent") == 1;
+        s.coachPromptSent = rs.getLong("coach_prompt_sent") == 1;
+        s.eveningPollSent = rs.getLong("evening_poll_sent") == 1;
+        s.coachRatingSent = rs.getLong("coach_rating_sent") == 1;
+        s.challengesExpired = rs.getLong("challenges_expired") == 1;
         return s;
     }
 }
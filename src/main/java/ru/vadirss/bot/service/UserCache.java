@@ -0,0 +1,116 @@
+package ru.vadirss.bot.service;
+
+import ru.vadirss.bot.model.User;
+import ru.vadirss.bot.util.LongObjectMap;
+
+/**
+ * Bounded LRU of users by tg_id. Hands out copies, since callers mutate the {@link User} they get.
+ * A load only lands in the cache if no invalidation happened since it started ({@link #generation()}),
+ * so a slow reader can't put back a row that a concurrent write just replaced.
+ * Keyed by primitive tg_id ({@link LongObjectMap}), so lookups don't box.
+ */
+final class UserCache {
+
+    private static final class Node {
+        final long tgId;
+        User user;
+        Node prev;
+        Node next;
+
+        Node(long tgId, User user) {
+            this.tgId = tgId;
+            this.user = user;
+        }
+    }
+
+    private final int capacity;
+    private final LongObjectMap<Node> map;
+    // head = least recently used, tail = most recently used
+    private Node head;
+    private Node tail;
+    private long generation;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    UserCache(int capacity) {
+        this.capacity = capacity;
+        this.map = new LongObjectMap<>(Math.min(capacity, 1024));
+    }
+
+    synchronized User get(long tgId) {
+        Node n = map.get(tgId);
+        if (n == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        moveToTail(n);
+        return n.user.copy();
+    }
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    /** Caches {@code u} unless something was invalidated after {@code loadedAt} was taken. */
+    synchronized void put(User u, long loadedAt) {
+        if (capacity == 0 || loadedAt != generation) return;
+        Node n = map.get(u.tgId);
+        if (n != null) {
+            n.user = u.copy();
+            moveToTail(n);
+            return;
+        }
+        n = new Node(u.tgId, u.copy());
+        map.put(n.tgId, n);
+        link(n);
+        if (map.size() > capacity) {
+            Node eldest = head;
+            unlink(eldest);
+            map.remove(eldest.tgId);
+            evictions++;
+        }
+    }
+
+    synchronized void invalidate(long tgId) {
+        generation++;
+        Node n = map.remove(tgId);
+        if (n != null) unlink(n);
+    }
+
+    synchronized void invalidateAll() {
+        generation++;
+        map.clear();
+        head = tail = null;
+    }
+
+    synchronized UserService.CacheStats stats() {
+        long total = hits + misses;
+        return new UserService.CacheStats(map.size(), capacity, hits, misses, evictions,
+                total == 0 ? 0.0 : (double) hits / total);
+    }
+
+    private void moveToTail(Node n) {
+        if (n == tail) return;
+        unlink(n);
+        link(n);
+    }
+
+    private void link(Node n) {
+        n.prev = tail;
+        n.next = null;
+        if (tail == null) head = n;
+        else tail.next = n;
+        tail = n;
+    }
+
+    private void unlink(Node n) {
+        if (n.prev == null) head = n.next;
+        else n.prev.next = n.next;
+        if (n.next == null) tail = n.prev;
+        else n.next.prev = n.prev;
+        n.prev = n.next = null;
+    }
+}
@@ -2,36 +2,58 @@ package ru.vadirss.bot.service;
 
 import com.google.gson.JsonObject;
 import ru.vadirss.bot.db.Database;
+import ru.vadirss.bot.model.Achievement;
 import ru.vadirss.bot.model.Role;
 import ru.vadirss.bot.model.User;
 import ru.vadirss.bot.model.UserState;
 import ru.vadirss.bot.util.JsonUtils;
-import ru.vadirss.bot.util.TimeUtil;
 
 import java.sql.*;
-import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.regex.Pattern;
 
 public final class UserService {
+
+    public static final String SQL_FIND_BY_ID = "SELECT * FROM users WHERE tg_id=?";
+    public static final String SQL_PAGE_AFTER = "SELECT * FROM users WHERE tg_id>? ORDER BY tg_id LIMIT ?";
+    public static final String SQL_PAGE_BEFORE = "SELECT * FROM users WHERE tg_id<? ORDER BY tg_id DESC LIMIT ?";
+    public static final String SQL_SEARCH = "SELECT u.* FROM users_fts JOIN users u ON u.tg_id=users_fts.rowid " +
+            "WHERE users_fts MATCH ? ORDER BY users_fts.rank LIMIT ?";
+    public static final String SQL_TEAM_MEMBERS = "SELECT u.*, EXISTS(SELECT 1 FROM team_coaches tc WHERE tc.team_id=? AND tc.coach_id=u.tg_id) AS is_coach " +
+            "FROM users u " +
+            "WHERE (u.role='PLAYER' AND u.team_id=?) OR u.tg_id IN (SELECT coach_id FROM team_coaches WHERE team_id=?) " +
+            "ORDER BY u.full_name";
+    public static final String SQL_PLAYERS_WITH_ACHIEVEMENTS = "SELECT u.*, ua.code AS achievement_code FROM users u " +
+            "LEFT JOIN user_achievements ua ON ua.player_id=u.tg_id " +
+            "WHERE u.role='PLAYER' AND u.team_id=? " +
+            "ORDER BY u.full_name, u.tg_id, ua.awarded_at";
+    public static final String SQL_PLAYERS_BY_TEAM = "SELECT * FROM users WHERE role='PLAYER' AND team_id=? ORDER BY full_name";
+    public static final String SQL_COACHES_BY_TEAM = "SELECT u.* FROM users u JOIN team_coaches tc ON tc.coach_id=u.tg_id WHERE tc.team_id=? ORDER BY u.full_name";
+
+    private static final Pattern PHONE_INPUT = Pattern.compile("[+\\d\\s().-]*\\d[+\\d\\s().-]*");
+
     private final Database db;
+    private final UserCache cache;
 
     public UserService(Database db) {
         this.db = db;
+        this.cache = new UserCache(db.config().userCacheSize());
     }
 
-    public User getOrCreate(long tgId, long chatId, ZoneId zone) {
+    public User getOrCreate(long tgId, long chatId) {
         Optional<User> u = findById(tgId);
         if (u.isPresent()) {
             // keep chatId up-to-date (user can change it when writing in groups / etc)
             if (u.get().chatId != chatId) {
-                setChatId(tgId, chatId, zone);
+                setChatId(tgId, chatId);
                 u.get().chatId = chatId;
             }
             return u.get();
         }
-        String now = TimeUtil.nowIso(zone);
+        long now = System.currentTimeMillis();
         User nu = new User();
         nu.tgId = tgId;
         nu.chatId = chatId;
@@ -42,9 +64,9 @@ public final class UserService {
         nu.createdAt = now;
         nu.updatedAt = now;
 
-        try (Connection c = db.getConnection()) {
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement(
-                    "INSERT INTO users(tg_id, chat_id, role, consent, state, state_data, created_at, updated_at) VALUES(?,?,?,?,?,?,?,?)"
+                    "INSERT OR IGNORE INTO users(tg_id, chat_id, role, consent, state, state_data, created_at, updated_at) VALUES(?,?,?,?,?,?,?,?)"
             )) {
                 ps.setLong(1, tgId);
                 ps.setLong(2, chatId);
@@ -52,38 +74,121 @@ public final class UserService {
                 ps.setInt(4, 0);
                 ps.setString(5, nu.state.name());
                 ps.setString(6, JsonUtils.GSON.toJson(nu.stateData));
-                ps.setString(7, now);
-                ps.setString(8, now);
+                ps.setLong(7, now);
+                ps.setLong(8, now);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
+        cache.invalidate(tgId);
         return nu;
     }
 
     public Optional<User> findById(long tgId) {
+        User cached = cache.get(tgId);
+        if (cached != null) return Optional.of(cached);
+
+        long gen = cache.generation();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT * FROM users WHERE tg_id=?")) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_FIND_BY_ID)) {
                 ps.setLong(1, tgId);
                 try (ResultSet rs = ps.executeQuery()) {
                     if (!rs.next()) return Optional.empty();
-                    return Optional.of(mapUser(rs));
+                    User u = mapUser(rs);
+                    cache.put(u, gen);
+                    return Optional.of(u);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Players and coaches of a team in one query. */
+    public Roster roster(long teamId) {
+        List<User> players = new ArrayList<>();
+        List<User> coaches = new ArrayList<>();
+        long gen = cache.generation();
+        try (Connection c = db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_TEAM_MEMBERS)) {
+                ps.setLong(1, teamId);
+                ps.setLong(2, teamId);
+                ps.setLong(3, teamId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        User u = mapUser(rs);
+                        cache.put(u, gen);
+                        if (rs.getInt("is_coach") == 1) coaches.add(u);
+                        // same split as listPlayersByTeam/listCoachesByTeam: a row can land in both
+                        if (u.role == Role.PLAYER && u.teamId != null && u.teamId == teamId) players.add(u);
+                    }
                 }
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        return new Roster(players, coaches);
+    }
+
+    /**
+     * Players of a team with their achievements (in award order), from one query.
+     * Sorted like {@link #listPlayersByTeam}.
+     */
+    public List<PlayerAchievements> listPlayersWithAchievements(long teamId) {
+        List<PlayerAchievements> out = new ArrayList<>();
+        long gen = cache.generation();
+        try (Connection c = db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_PLAYERS_WITH_ACHIEVEMENTS)) {
+                ps.setLong(1, teamId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    PlayerAchievements current = null;
+                    while (rs.next()) {
+                        long tgId = rs.getLong("tg_id");
+                        if (current == null || current.player().tgId != tgId) {
+                            current = new PlayerAchievements(remember(mapUser(rs), gen), new ArrayList<>());
+                            out.add(current);
+                        }
+                        Achievement a = Achievement.byCode(rs.getString("achievement_code"));
+                        if (a != null) current.achievements().add(a);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return out;
+    }
+
+    /** Keyset page: users with tg_id greater than {@code afterTgId}, ascending. */
+    public List<User> listUsersAfter(long afterTgId, int limit) {
+        return listUsers(SQL_PAGE_AFTER, afterTgId, limit);
+    }
+
+    /** Keyset page going back: the {@code limit} users right before {@code beforeTgId}, still ascending. */
+    public List<User> listUsersBefore(long beforeTgId, int limit) {
+        List<User> out = listUsers(SQL_PAGE_BEFORE, beforeTgId, limit);
+        Collections.reverse(out);
+        return out;
+    }
+
+    public List<User> listAdminsAfter(long afterTgId, int limit) {
+        return listUsers("SELECT * FROM users WHERE role='ADMIN' AND tg_id>? ORDER BY tg_id LIMIT ?", afterTgId, limit);
     }
 
-    public List<User> listUsers(int offset, int limit) {
+    /**
+     * Full-text search over full name and phone (prefix match per word, best matches first).
+     * Phone input is matched on digits only, so "+7 (900) 12" finds "79001234567".
+     */
+    public List<User> search(String text, int limit) {
+        String match = ftsQuery(text);
+        if (match.isEmpty()) return new ArrayList<>();
         List<User> out = new ArrayList<>();
+        long gen = cache.generation();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT * FROM users ORDER BY tg_id LIMIT ? OFFSET ?")) {
-                ps.setInt(1, limit);
-                ps.setInt(2, offset);
+            try (PreparedStatement ps = c.prepareStatement(SQL_SEARCH)) {
+                ps.setString(1, match);
+                ps.setInt(2, limit);
                 try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) out.add(mapUser(rs));
+                    while (rs.next()) out.add(remember(mapUser(rs), gen));
                 }
             }
         } catch (SQLException e) {
@@ -92,14 +197,30 @@ public final class UserService {
         return out;
     }
 
-    public List<User> listAdmins(int offset, int limit) {
+    // user input -> FTS5 query; every term is quoted so operators typed by the admin are taken literally
+    private static String ftsQuery(String text) {
+        if (text == null) return "";
+        String t = text.trim().replace('ё', 'е').replace('Ё', 'Е');
+        if (PHONE_INPUT.matcher(t).matches()) {
+            String digits = t.replaceAll("\\D", "");
+            return digits.isEmpty() ? "" : "\"" + digits + "\"*";
+        }
+        List<String> terms = new ArrayList<>();
+        for (String w : t.split("[^\\p{L}\\p{N}]+")) {
+            if (!w.isEmpty()) terms.add("\"" + w + "\"*");
+        }
+        return String.join(" ", terms);
+    }
+
+    private List<User> listUsers(String sql, long key, int limit) {
         List<User> out = new ArrayList<>();
+        long gen = cache.generation();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT * FROM users WHERE role='ADMIN' ORDER BY tg_id LIMIT ? OFFSET ?")) {
-                ps.setInt(1, limit);
-                ps.setInt(2, offset);
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, key);
+                ps.setInt(2, limit);
                 try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) out.add(mapUser(rs));
+                    while (rs.next()) out.add(remember(mapUser(rs), gen));
                 }
             }
         } catch (SQLException e) {
@@ -110,11 +231,12 @@ public final class UserService {
 
     public List<User> listPlayersByTeam(long teamId) {
         List<User> out = new ArrayList<>();
+        long gen = cache.generation();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT * FROM users WHERE role='PLAYER' AND team_id=? ORDER BY full_name")) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_PLAYERS_BY_TEAM)) {
                 ps.setLong(1, teamId);
                 try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) out.add(mapUser(rs));
+                    while (rs.next()) out.add(remember(mapUser(rs), gen));
                 }
             }
         } catch (SQLException e) {
@@ -125,13 +247,12 @@ public final class UserService {
 
     public List<User> listCoachesByTeam(long teamId) {
         List<User> out = new ArrayList<>();
+        long gen = cache.generation();
         try (Connection c = db.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement(
-                    "SELECT u.* FROM users u JOIN team_coaches tc ON tc.coach_id=u.tg_id WHERE tc.team_id=? ORDER BY u.full_name"
-            )) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_COACHES_BY_TEAM)) {
                 ps.setLong(1, teamId);
                 try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) out.add(mapUser(rs));
+                    while (rs.next()) out.add(remember(mapUser(rs), gen));
                 }
             }
         } catch (SQLException e) {
@@ -140,64 +261,63 @@ public final class UserService {
         return out;
     }
 
-    public void setChatId(long tgId, long chatId, ZoneId zone) {
-        updateField(tgId, "chat_id", chatId, zone);
+    public void setChatId(long tgId, long chatId) {
+        updateField(tgId, "chat_id", chatId);
     }
 
-    public void setConsent(long tgId, boolean consent, ZoneId zone) {
-        updateField(tgId, "consent", consent ? 1 : 0, zone);
+    public void setConsent(long tgId, boolean consent) {
+        updateField(tgId, "consent", consent ? 1 : 0);
     }
 
-    public void setFullName(long tgId, String fullName, ZoneId zone) {
-        updateField(tgId, "full_name", fullName, zone);
+    public void setFullName(long tgId, String fullName) {
+        updateField(tgId, "full_name", fullName);
     }
 
-    public void setPhone(long tgId, String phone, ZoneId zone) {
-        updateField(tgId, "phone", phone, zone);
+    public void setPhone(long tgId, String phone) {
+        updateField(tgId, "phone", phone);
     }
 
-    public void setTeam(long tgId, Long teamId, ZoneId zone) {
-        try (Connection c = db.getConnection()) {
+    public void setTeam(long tgId, Long teamId) {
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement("UPDATE users SET team_id=?, updated_at=? WHERE tg_id=?")) {
                 if (teamId == null) ps.setNull(1, Types.INTEGER);
                 else ps.setLong(1, teamId);
-                ps.setString(2, TimeUtil.nowIso(zone));
+                ps.setLong(2, System.currentTimeMillis());
                 ps.setLong(3, tgId);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
+        cache.invalidate(tgId);
     }
 
-    public void setPosition(long tgId, String position, ZoneId zone) {
-        updateField(tgId, "position", position, zone);
+    public void setPosition(long tgId, String position) {
+        updateField(tgId, "position", position);
     }
 
-    public void setRole(long tgId, Role role, ZoneId zone) {
-        updateField(tgId, "role", role.name(), zone);
+    public void setRole(long tgId, Role role) {
+        updateField(tgId, "role", role.name());
     }
 
-    public void setState(long tgId, UserState state, JsonObject stateData, ZoneId zone) {
-        try (Connection c = db.getConnection()) {
+    public void setState(long tgId, UserState state, JsonObject stateData) {
+        String json = JsonUtils.GSON.toJson(stateData != null ? stateData : new JsonObject());
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement("UPDATE users SET state=?, state_data=?, updated_at=? WHERE tg_id=?")) {
                 ps.setString(1, state.name());
-                ps.setString(2, JsonUtils.GSON.toJson(stateData != null ? stateData : new JsonObject()));
-                ps.setString(3, TimeUtil.nowIso(zone));
+                ps.setString(2, json);
+                ps.setLong(3, System.currentTimeMillis());
                 ps.setLong(4, tgId);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
+        cache.invalidate(tgId);
     }
 
-    public void addPoints(long tgId, int delta, String reason, String ref, ZoneId zone) {
-        try (Connection c = db.getConnection()) {
-            c.setAutoCommit(false);
+    public void addPoints(long tgId, int delta, String reason, String ref) {
+        // one writer job = one savepoint, so the balance and the ledger row land together
+        db.run(c -> {
             try (PreparedStatement ps1 = c.prepareStatement("UPDATE users SET points = points + ?, updated_at=? WHERE tg_id=?")) {
                 ps1.setInt(1, delta);
-                ps1.setString(2, TimeUtil.nowIso(zone));
+                ps1.setLong(2, System.currentTimeMillis());
                 ps1.setLong(3, tgId);
                 ps1.executeUpdate();
             }
@@ -207,32 +327,46 @@ public final class UserService {
                 ps2.setString(3, reason);
                 if (ref == null) ps2.setNull(4, Types.VARCHAR);
                 else ps2.setString(4, ref);
-                ps2.setString(5, TimeUtil.nowIso(zone));
+                ps2.setLong(5, System.currentTimeMillis());
                 ps2.executeUpdate();
             }
-            c.commit();
-            c.setAutoCommit(true);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
+        cache.invalidate(tgId);
     }
 
-    private void updateField(long tgId, String field, Object value, ZoneId zone) {
+    private void updateField(long tgId, String field, Object value) {
         String sql = "UPDATE users SET " + field + "=?, updated_at=? WHERE tg_id=?";
-        try (Connection c = db.getConnection()) {
+        db.run(c -> {
             try (PreparedStatement ps = c.prepareStatement(sql)) {
                 if (value == null) ps.setNull(1, Types.VARCHAR);
                 else if (value instanceof String s) ps.setString(1, s);
                 else if (value instanceof Integer i) ps.setInt(1, i);
                 else if (value instanceof Long l) ps.setLong(1, l);
                 else ps.setString(1, value.toString());
-                ps.setString(2, TimeUtil.nowIso(zone));
+                ps.setLong(2, System.currentTimeMillis());
                 ps.setLong(3, tgId);
                 ps.executeUpdate();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
+        cache.invalidate(tgId);
+    }
+
+    /** For services that change users rows with their own SQL (points awards, team deletion). */
+    public void invalidate(long tgId) {
+        cache.invalidate(tgId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public CacheStats cacheStats() {
+        return cache.stats();
+    }
+
+    private User remember(User u, long gen) {
+        cache.put(u, gen);
+        return u;
     }
 
     private static User mapUser(ResultSet rs) throws SQLException {
@@ -249,8 +383,14 @@ public final class UserService {
         u.points = rs.getInt("points");
         u.state = UserState.valueOf(rs.getString("state"));
         u.stateData = JsonUtils.parseObj(rs.getString("state_data"));
-        u.createdAt = rs.getString("created_at");
-        u.updatedAt = rs.getString("updated_at");
+        u.createdAt = rs.getLong("created_at");
+        u.updatedAt = rs.getLong("updated_at");
         return u;
     }
+
+    public record PlayerAchievements(User player, List<Achievement> achievements) {}
+
+    public record Roster(List<User> players, List<User> coaches) {}
+
+    public record CacheStats(int size, int capacity, long hits, long misses, long evictions, double hitRatio) {}
 }
@@ -26,6 +26,7 @@ public final class CallbackData {
 
     // Player team submenu
     public static final String TEAM_FEED = "t:feed";
+    public static final String TEAM_FEED_MORE_PREFIX = "t:feed:"; // t:feed:<createdAt>:<id> of the last shown event
     public static final String TEAM_PLAYERS = "t:pl";
 
     // Polls
@@ -63,5 +64,5 @@ public final class CallbackData {
 
     public static final String ADMIN_ADMINS_ADD = "a:adm:add";
     public static final String ADMIN_ADMINS_REMOVE = "a:adm:rem";
-    public static final String ADMIN_PAGE_PREFIX = "pg:"; // pg:<ctx>:<page>
+    public static final String ADMIN_PAGE_PREFIX = "pg:"; // pg:<ctx>:<n|p>:<tgId> (page after / before tgId)
 }
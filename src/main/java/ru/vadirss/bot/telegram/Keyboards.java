@@ -1,5 +1,8 @@
 package ru.vadirss.bot.telegram;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 
@@ -98,4 +101,35 @@ public final class Keyboards {
     public static InlineKeyboardMarkup backOnly() {
         return menuBack(CallbackData.BACK_TO_MENU);
     }
+
+    /** Stored form for the outbox: {@code [[["text","callback"],...],...]}; only callback buttons are kept. */
+    public static String toJson(InlineKeyboardMarkup kb) {
+        if (kb == null) return null;
+        JsonArray rows = new JsonArray();
+        for (List<InlineKeyboardButton> row : kb.getKeyboard()) {
+            JsonArray r = new JsonArray();
+            for (InlineKeyboardButton b : row) {
+                JsonArray btn = new JsonArray();
+                btn.add(b.getText());
+                btn.add(b.getCallbackData());
+                r.add(btn);
+            }
+            rows.add(r);
+        }
+        return rows.toString();
+    }
+
+    public static InlineKeyboardMarkup fromJson(String json) {
+        if (json == null || json.isBlank()) return null;
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
+        for (JsonElement row : JsonParser.parseString(json).getAsJsonArray()) {
+            List<InlineKeyboardButton> r = new ArrayList<>();
+            for (JsonElement b : row.getAsJsonArray()) {
+                JsonArray btn = b.getAsJsonArray();
+                r.add(btn(btn.get(0).getAsString(), btn.get(1).getAsString()));
+            }
+            rows.add(r);
+        }
+        return rows(rows);
+    }
 }
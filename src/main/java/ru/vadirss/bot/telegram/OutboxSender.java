@@ -0,0 +1,217 @@
+package ru.vadirss.bot.telegram;
+
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import ru.vadirss.bot.config.Config;
+import ru.vadirss.bot.db.Database;
+import ru.vadirss.bot.model.OutboxMessage;
+import ru.vadirss.bot.service.BotFacade;
+import ru.vadirss.bot.service.OutboxService;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drains the outbox. A poller thread claims due rows in batches and hands each to a sender lane;
+ * a chat always maps to the same single-threaded lane, so its messages go out in queue order.
+ * Failed sends are retried with exponential backoff; a message that keeps failing, or that Telegram rejects
+ * outright, is marked DEAD. A 429 only postpones the message to Telegram's {@code retry_after}.
+ * Delivery is at least once: a crash between the send and the delete repeats the message.
+ */
+public final class OutboxSender implements AutoCloseable {
+
+    private static final int BATCH = 32;
+    private static final long LEASE_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long POLL_MS = 1_000;
+    private static final long BACKOFF_BASE_MS = 5_000;
+    private static final long BACKOFF_MAX_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final long STATS_EVERY_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final BotFacade facade;
+    private final OutboxService outbox;
+    private final VadirssBot bot;
+    private final int maxAttempts;
+    private final ExecutorService[] lanes;
+    private final int capacity;
+    private final Thread poller;
+    private final Semaphore wakeups = new Semaphore(0);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean running = true;
+
+    // metrics
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder postponed = new LongAdder();
+    private final LongAdder dead = new LongAdder();
+    private final LongAdder latencyMs = new LongAdder();
+    private final AtomicLong maxLatencyMs = new AtomicLong();
+
+    public OutboxSender(Config cfg, BotFacade facade, VadirssBot bot) {
+        this.facade = facade;
+        this.outbox = facade.outbox();
+        this.bot = bot;
+        this.maxAttempts = cfg.outboxMaxAttempts();
+        this.lanes = new ExecutorService[cfg.outboxWorkers()];
+        for (int i = 0; i < lanes.length; i++) {
+            String name = "vadirss-outbox-" + (i + 1);
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.capacity = lanes.length * BATCH;
+        this.poller = new Thread(this::loop, "vadirss-outbox-poller");
+        this.poller.setDaemon(true);
+    }
+
+    public void start() {
+        outbox.addEnqueueListener(n -> {
+            queued.add(n);
+            wakeups.release();
+        });
+        poller.start();
+    }
+
+    public OutboxStats stats() {
+        long n = sent.sum();
+        return new OutboxStats(queued.sum(), n, retried.sum(), postponed.sum(), dead.sum(), inFlight.get(),
+                n == 0 ? 0.0 : (double) latencyMs.sum() / n, maxLatencyMs.get());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        wakeups.release();
+        try {
+            poller.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ExecutorService lane : lanes) lane.shutdown();
+    }
+
+    private void loop() {
+        long nextStatsAt = System.currentTimeMillis() + STATS_EVERY_MS;
+        String lastStats = null;
+        while (running) {
+            try {
+                int free = capacity - inFlight.get();
+                List<OutboxMessage> batch = free > 0 ? outbox.claimDue(Math.min(free, BATCH), LEASE_MS) : List.of();
+                for (OutboxMessage m : batch) dispatch(m);
+
+                if (System.currentTimeMillis() >= nextStatsAt) {
+                    String s = "Outbox: " + stats() + "\nTelegram rate limiter: " + bot.rateLimitStats() +
+                            "\nUpdates: " + bot.updateStats() +
+                            "\nDB pool: " + facade.db().stats() + "\nDB statements: " + facade.db().statementStats() +
+                            "\nDB writer: " + facade.db().writerStats() + "\nUser cache: " + facade.users().cacheStats();
+                    if (!s.equals(lastStats)) System.out.println(s);
+                    lastStats = s;
+                    nextStatsAt += STATS_EVERY_MS;
+                }
+
+                // a full batch means more rows may be due already
+                if (batch.size() == BATCH) continue;
+                wakeups.tryAcquire(POLL_MS, TimeUnit.MILLISECONDS);
+                wakeups.drainPermits();
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                e.printStackTrace();
+                try {
+                    Thread.sleep(POLL_MS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void dispatch(OutboxMessage m) {
+        inFlight.incrementAndGet();
+        lanes[(int) Math.floorMod(m.chatId, (long) lanes.length)].execute(() -> {
+            try {
+                send(m);
+            } catch (Exception e) {
+                // the claim lease runs out and the row is picked up again
+                e.printStackTrace();
+            } finally {
+                inFlight.decrementAndGet();
+                wakeups.release();
+            }
+        });
+    }
+
+    private void send(OutboxMessage m) {
+        Database.SqlTask onSent;
+        try {
+            onSent = bot.sendOutboxMessage(m);
+        } catch (TelegramApiRequestException e) {
+            Integer code = e.getErrorCode();
+            ResponseParameters params = e.getParameters();
+            if (code != null && code == 429 && params != null && params.getRetryAfter() != null) {
+                // a flood wait is not a failure: wait as asked without using up an attempt
+                outbox.postpone(m.id, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(params.getRetryAfter()), describe(e));
+                postponed.increment();
+            } else if (code != null && (code == 400 || code == 403)) {
+                // bad request or the user blocked the bot: sending again will not help
+                markDead(m, describe(e));
+            } else {
+                retry(m, backoff(m.attempts), describe(e));
+            }
+            return;
+        } catch (TelegramApiException | RuntimeException e) {
+            retry(m, backoff(m.attempts), describe(e));
+            return;
+        }
+
+        // a poll's interactive session commits with the sent mark, so a failure retries both or neither
+        outbox.markSent(m.id, onSent);
+        long latency = Math.max(0, System.currentTimeMillis() - m.createdAt);
+        sent.increment();
+        latencyMs.add(latency);
+        maxLatencyMs.accumulateAndGet(latency, Math::max);
+    }
+
+    private void retry(OutboxMessage m, long delayMs, String error) {
+        if (m.attempts >= maxAttempts) {
+            markDead(m, error);
+            return;
+        }
+        outbox.retryAt(m.id, System.currentTimeMillis() + delayMs, error);
+        retried.increment();
+    }
+
+    private void markDead(OutboxMessage m, String error) {
+        outbox.markDead(m.id, error);
+        dead.increment();
+        System.err.println("Outbox: message " + m.id + " to chat " + m.chatId + " is dead after " + m.attempts + " attempt(s): " + error);
+    }
+
+    /** 5s, 10s, 20s, ... capped at 10 min, plus up to 20% jitter so retries of one broadcast spread out. */
+    private static long backoff(int attempts) {
+        long base = BACKOFF_BASE_MS << Math.min(Math.max(attempts - 1, 0), 16);
+        long delay = Math.min(base, BACKOFF_MAX_MS);
+        return delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+    }
+
+    private static String describe(Exception e) {
+        if (e instanceof TelegramApiRequestException re && re.getApiResponse() != null) {
+            return re.getErrorCode() + " " + re.getApiResponse();
+        }
+        return e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    /** @param postponed 429s rescheduled at Telegram's {@code retry_after}; they do not count toward the attempt limit */
+    public record OutboxStats(long queued, long sent, long retried, long postponed, long dead, int inFlight,
+                              double avgLatencyMs, long maxLatencyMs) {}
+}
@@ -0,0 +1,172 @@
+package ru.vadirss.bot.telegram;
+
+import ru.vadirss.bot.util.LongObjectMap;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets for outgoing Bot API calls: one global bucket and one per chat.
+ * {@link #acquire} blocks the calling thread until both buckets have a token.
+ * After a 429 the affected bucket is paused for Telegram's {@code retry_after}.
+ */
+public final class RateLimiter implements AutoCloseable {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    // idle full chat buckets are swept out this often, off the acquire path
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private static final class Bucket {
+        final double ratePerNano;
+        final double burst;
+        double tokens;
+        long refilledAt;
+        long pausedUntil;
+
+        Bucket(double perSecond, double burst, long now) {
+            this.ratePerNano = perSecond / NANOS_PER_SECOND;
+            this.burst = burst;
+            this.tokens = burst;
+            this.refilledAt = now;
+            this.pausedUntil = now;
+        }
+
+        void refill(long now) {
+            if (now <= refilledAt) return;
+            tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+        }
+
+        /** Nanos until a token is available, 0 when one is available now. */
+        long waitNanos(long now) {
+            refill(now);
+            long paused = Math.max(0, pausedUntil - now);
+            long empty = tokens >= 1.0 ? 0 : (long) Math.ceil((1.0 - tokens) / ratePerNano);
+            return Math.max(paused, empty);
+        }
+
+        boolean idle(long now) {
+            refill(now);
+            return tokens >= burst && pausedUntil <= now;
+        }
+    }
+
+    private final double chatPerSecond;
+    private final double chatBurst;
+    private final Bucket global;
+    private final LongObjectMap<Bucket> chats = new LongObjectMap<>();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vadirss-rate-sweep");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // metrics
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger maxWaiting = new AtomicInteger();
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder rateLimited = new LongAdder();
+
+    public RateLimiter(double globalPerSecond, double chatPerSecond, double chatBurst) {
+        long now = System.nanoTime();
+        this.global = new Bucket(globalPerSecond, Math.max(1.0, globalPerSecond), now);
+        this.chatPerSecond = chatPerSecond;
+        this.chatBurst = Math.max(1.0, chatBurst);
+        sweeper.scheduleWithFixedDelay(this::dropIdle, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /** Takes a token from the global bucket and, when {@code chatId} is not null, from that chat's bucket. */
+    public void acquire(Long chatId) throws InterruptedException {
+        long started = System.nanoTime();
+        boolean queued = false;
+        try {
+            while (true) {
+                long wait;
+                synchronized (this) {
+                    long now = System.nanoTime();
+                    Bucket chat = chatId == null ? null : chat(chatId, now);
+                    wait = global.waitNanos(now);
+                    if (chat != null) wait = Math.max(wait, chat.waitNanos(now));
+                    if (wait == 0) {
+                        global.tokens -= 1.0;
+                        if (chat != null) chat.tokens -= 1.0;
+                        break;
+                    }
+                }
+                if (!queued) {
+                    queued = true;
+                    maxWaiting.accumulateAndGet(waiting.incrementAndGet(), Math::max);
+                }
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        } finally {
+            if (queued) waiting.decrementAndGet();
+        }
+
+        acquired.increment();
+        if (queued) {
+            long waited = System.nanoTime() - started;
+            throttled.increment();
+            waitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+    }
+
+    /** Telegram answered 429: hold the chat (or everything, when the chat is unknown) for {@code retryAfterSeconds}. */
+    public void pause(Long chatId, int retryAfterSeconds) {
+        rateLimited.increment();
+        synchronized (this) {
+            long now = System.nanoTime();
+            Bucket b = chatId == null ? global : chat(chatId, now);
+            b.pausedUntil = Math.max(b.pausedUntil, now + TimeUnit.SECONDS.toNanos(retryAfterSeconds));
+        }
+    }
+
+    public Stats stats() {
+        long n = acquired.sum();
+        long t = throttled.sum();
+        int chatCount;
+        synchronized (this) {
+            chatCount = chats.size();
+        }
+        return new Stats(waiting.get(), maxWaiting.get(), n, t,
+                t == 0 ? 0.0 : waitNanos.sum() / 1_000_000.0 / t, maxWaitNanos.get() / 1_000_000.0,
+                rateLimited.sum(), chatCount);
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    // caller holds the lock
+    private Bucket chat(long chatId, long now) {
+        Bucket b = chats.get(chatId);
+        if (b == null) {
+            b = new Bucket(chatPerSecond, chatBurst, now);
+            chats.put(chatId, b);
+        }
+        return b;
+    }
+
+    // a full, unpaused bucket is the same as a new one, so it can go
+    private synchronized void dropIdle() {
+        long now = System.nanoTime();
+        chats.removeIf((id, b) -> b.idle(now));
+    }
+
+    /**
+     * @param waiting       threads blocked in {@link #acquire} right now
+     * @param throttled     acquires that had to wait; {@code avgWaitMs}/{@code maxWaitMs} are over these
+     * @param rateLimited   429 responses reported through {@link #pause}
+     */
+    public record Stats(int waiting, int maxWaiting, long acquired, long throttled,
+                        double avgWaitMs, double maxWaitMs, long rateLimited, int chats) {}
+}
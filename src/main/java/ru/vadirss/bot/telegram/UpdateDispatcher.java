@@ -0,0 +1,187 @@
+package ru.vadirss.bot.telegram;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.vadirss.bot.util.LongObjectMap;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Hands incoming updates to a worker pool. Updates of one chat run one at a time in arrival
+ * order (the user state machine relies on it); different chats run in parallel.
+ * A chat with {@code maxPerChat} updates already waiting gets further updates dropped; the drops
+ * are counted in {@link #stats()}. {@link #close()} stops intake and lets the queued updates finish.
+ */
+public final class UpdateDispatcher implements AutoCloseable {
+
+    private static final long DRAIN_SECONDS = 10;
+
+    /** Updates of one chat; at most one worker drains it at a time. */
+    private static final class Lane {
+        final long chatId;
+        final ArrayDeque<Update> pending = new ArrayDeque<>();
+        boolean scheduled;
+
+        Lane(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    private final Consumer<Update> handler;
+    private final int maxPerChat;
+    private final ExecutorService workers;
+    // guarded by itself; a lane is removed as soon as it runs empty
+    private final LongObjectMap<Lane> lanes = new LongObjectMap<>();
+    private volatile boolean closed;
+
+    // metrics
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder handleNanos = new LongAdder();
+    private final AtomicLong maxHandleNanos = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    public UpdateDispatcher(int threads, int maxPerChat, Consumer<Update> handler) {
+        this.handler = handler;
+        this.maxPerChat = maxPerChat;
+        AtomicInteger n = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "vadirss-updates-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void submit(Update update) {
+        received.increment();
+        long chatId = chatIdOf(update);
+        Lane lane;
+        synchronized (lanes) {
+            if (closed) {
+                dropped.increment();
+                return;
+            }
+            lane = lanes.get(chatId);
+            if (lane == null) {
+                lane = new Lane(chatId);
+                lanes.put(chatId, lane);
+            }
+            if (lane.pending.size() >= maxPerChat) {
+                dropped.increment();
+                return;
+            }
+            lane.pending.add(update);
+            maxDepth.accumulateAndGet(lane.pending.size(), Math::max);
+            if (lane.scheduled) return;
+            lane.scheduled = true;
+        }
+        schedule(lane);
+    }
+
+    public Stats stats() {
+        long n = handled.sum();
+        int activeChats;
+        synchronized (lanes) {
+            activeChats = lanes.size();
+        }
+        return new Stats(received.sum(), dropped.sum(), n, activeChats, maxDepth.get(),
+                n == 0 ? 0.0 : handleNanos.sum() / 1_000_000.0 / n, maxHandleNanos.get() / 1_000_000.0);
+    }
+
+    /** Refuses further updates, waits up to {@value #DRAIN_SECONDS} s for the queued ones, then stops the pool. */
+    @Override
+    public void close() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+        int left;
+        synchronized (lanes) {
+            closed = true;
+            try {
+                while (!lanes.isEmpty()) {
+                    long wait = deadline - System.nanoTime();
+                    if (wait <= 0) break;
+                    TimeUnit.NANOSECONDS.timedWait(lanes, wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            left = lanes.size();
+        }
+        if (left > 0) System.err.println("Updates: " + left + " chat(s) still had updates queued at shutdown");
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void schedule(Lane lane) {
+        try {
+            workers.execute(() -> runNext(lane));
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            synchronized (lanes) {
+                lane.pending.clear();
+                lane.scheduled = false;
+                lanes.remove(lane.chatId);
+            }
+        }
+    }
+
+    // one update per task, then the lane goes to the back of the pool queue, so a busy chat cannot hold a worker
+    private void runNext(Lane lane) {
+        Update update;
+        synchronized (lanes) {
+            update = lane.pending.poll();
+        }
+        if (update != null) {
+            long started = System.nanoTime();
+            try {
+                handler.accept(update);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            long took = System.nanoTime() - started;
+            handled.increment();
+            handleNanos.add(took);
+            maxHandleNanos.accumulateAndGet(took, Math::max);
+        }
+        synchronized (lanes) {
+            if (lane.pending.isEmpty()) {
+                lane.scheduled = false;
+                lanes.remove(lane.chatId);
+                if (closed) lanes.notifyAll();
+                return;
+            }
+        }
+        schedule(lane);
+    }
+
+    private static long chatIdOf(Update update) {
+        if (update.hasMessage() && update.getMessage().getChatId() != null) {
+            return update.getMessage().getChatId();
+        }
+        if (update.hasCallbackQuery()) {
+            var cb = update.getCallbackQuery();
+            if (cb.getMessage() != null && cb.getMessage().getChatId() != null) return cb.getMessage().getChatId();
+            if (cb.getFrom() != null) return cb.getFrom().getId();
+        }
+        // anything else shares one lane
+        return 0L;
+    }
+
+    /**
+     * @param activeChats chats with updates queued or running right now
+     * @param maxDepth    deepest per-chat queue seen
+     */
+    public record Stats(long received, long dropped, long handled, int activeChats, int maxDepth,
+                        double avgHandleMs, double maxHandleMs) {}
+}
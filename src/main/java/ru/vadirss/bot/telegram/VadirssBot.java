@@ -3,6 +3,7 @@ package ru.vadirss.bot.telegram;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
 import org.telegram.telegrambots.meta.api.methods.ParseMode;
@@ -17,10 +18,14 @@ import org.telegram.telegrambots.meta.api.objects.commands.BotCommand;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
 import ru.vadirss.bot.config.Config;
+import ru.vadirss.bot.db.Database;
 import ru.vadirss.bot.model.*;
 import ru.vadirss.bot.model.User;
 import ru.vadirss.bot.service.BotFacade;
+import ru.vadirss.bot.service.OutboxService;
+import ru.vadirss.bot.service.TeamEventService;
 import ru.vadirss.bot.util.Html;
 import ru.vadirss.bot.util.JsonUtils;
 import ru.vadirss.bot.util.TextChunker;
@@ -33,7 +38,7 @@ import java.time.ZoneId;
 import java.util.*;
 import java.util.regex.Pattern;
 
-public final class VadirssBot extends TelegramLongPollingBot {
+public final class VadirssBot extends TelegramLongPollingBot implements AutoCloseable {
 
     private final Config cfg;
     private final BotFacade facade;
@@ -56,21 +61,44 @@ public final class VadirssBot extends TelegramLongPollingBot {
     private static final String IS_COACH_RATING = "COACH_RATING";
     private static final String IS_COACH_ATTR = "COACH_ATTR";
 
+    private static final int FEED_PAGE_SIZE = 5;
+    private static final int ADMIN_PAGE_SIZE = 10;
+
+    // a 429 asking to wait longer than this fails the call instead of blocking the caller
+    private static final int MAX_INLINE_RETRY_AFTER_S = 5;
+
+    @FunctionalInterface
+    private interface ApiCall<T> {
+        T run() throws TelegramApiException;
+    }
+
+    private final RateLimiter limiter;
+    private final UpdateDispatcher updates;
+
     public VadirssBot(Config cfg, BotFacade facade) {
-        super(cfg.botToken());
+        super(botOptions(cfg), cfg.botToken());
         this.cfg = cfg;
         this.facade = facade;
+        this.limiter = new RateLimiter(cfg.telegramGlobalRate(), cfg.telegramChatRate(), cfg.telegramChatBurst());
+        this.updates = new UpdateDispatcher(cfg.updateThreads(), cfg.updateQueuePerChat(), this::handleUpdate);
 
         // Set /start /help /achive commands (best-effort)
         try {
-            execute(new SetMyCommands(List.of(
+            SetMyCommands commands = new SetMyCommands(List.of(
                     new BotCommand("/start", "Открыть меню"),
                     new BotCommand("/help", "Помощь"),
                     new BotCommand("/achive", "Гайд по достижениям")
-            ), null, null));
+            ), null, null);
+            call(null, () -> execute(commands));
         } catch (Exception ignored) {}
     }
 
+    private static DefaultBotOptions botOptions(Config cfg) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        if (!cfg.telegramApiUrl().isBlank()) options.setBaseUrl(cfg.telegramApiUrl());
+        return options;
+    }
+
     @Override
     public String getBotUsername() {
         return cfg.botUsername();
@@ -78,6 +106,22 @@ public final class VadirssBot extends TelegramLongPollingBot {
 
     @Override
     public void onUpdateReceived(Update update) {
+        // the library delivers updates on one thread; handlers run on the dispatcher's pool
+        updates.submit(update);
+    }
+
+    public UpdateDispatcher.Stats updateStats() {
+        return updates.stats();
+    }
+
+    /** Finishes the updates already received, then stops the rate limiter. Stop intake (webhook or polling) first. */
+    @Override
+    public void close() {
+        updates.close();
+        limiter.close();
+    }
+
+    private void handleUpdate(Update update) {
         try {
             if (update.hasCallbackQuery()) {
                 onCallback(update.getCallbackQuery());
@@ -95,9 +139,8 @@ public final class VadirssBot extends TelegramLongPollingBot {
         if (msg.getFrom() == null) return;
         long tgId = msg.getFrom().getId();
         long chatId = msg.getChatId();
-        ZoneId zone = cfg.zoneId();
 
-        User user = facade.users().getOrCreate(tgId, chatId, zone);
+        User user = facade.users().getOrCreate(tgId, chatId);
 
         String text = msg.getText();
         if (text == null) return;
@@ -125,9 +168,8 @@ public final class VadirssBot extends TelegramLongPollingBot {
         long chatId = cb.getMessage().getChatId();
         int msgId = cb.getMessage().getMessageId();
         String data = cb.getData();
-        ZoneId zone = cfg.zoneId();
 
-        User user = facade.users().getOrCreate(tgId, chatId, zone);
+        User user = facade.users().getOrCreate(tgId, chatId);
 
         if (data == null) return;
 
@@ -160,16 +202,16 @@ public final class VadirssBot extends TelegramLongPollingBot {
 
         // Registration
         if (CallbackData.CONSENT_YES.equals(data)) {
-            facade.users().setConsent(user.tgId, true, zone);
-            facade.users().setState(user.tgId, UserState.WAIT_FULLNAME, JsonUtils.obj(), zone);
+            facade.users().setConsent(user.tgId, true);
+            facade.users().setState(user.tgId, UserState.WAIT_FULLNAME, JsonUtils.obj());
             sendPhoto(user.chatId, PHOTO_1, "📝 <b>Пожалуйста, укажите ваше ФИО:</b>", null);
             answer(cb.getId(), "Спасибо! Продолжаем ✅", false);
             return;
         }
         if (data.startsWith(CallbackData.TEAM_SELECT_PREFIX)) {
             long teamId = Long.parseLong(data.substring(CallbackData.TEAM_SELECT_PREFIX.length()));
-            facade.users().setTeam(user.tgId, teamId, zone);
-            facade.users().setState(user.tgId, UserState.WAIT_POSITION, JsonUtils.obj(), zone);
+            facade.users().setTeam(user.tgId, teamId);
+            facade.users().setState(user.tgId, UserState.WAIT_POSITION, JsonUtils.obj());
             // Ask position
             sendHtml(user.chatId, "📍 <b>Выберите вашу позицию:</b>", positionsKeyboard());
             answer(cb.getId(), "Готово ✅", false);
@@ -177,8 +219,8 @@ public final class VadirssBot extends TelegramLongPollingBot {
         }
         if (data.startsWith(CallbackData.POS_SELECT_PREFIX)) {
             String pos = data.substring(CallbackData.POS_SELECT_PREFIX.length());
-            facade.users().setPosition(user.tgId, pos, zone);
-            facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+            facade.users().setPosition(user.tgId, pos);
+            facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj());
 
             // After 1 second show menu (best-effort)
             try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
@@ -219,7 +261,13 @@ public final class VadirssBot extends TelegramLongPollingBot {
 
         // Team submenu
         if (CallbackData.TEAM_FEED.equals(data)) {
-            sendTeamFeed(user);
+            sendTeamFeed(user, null);
+            answer(cb.getId(), "📰 Лента", false);
+            return;
+        }
+        if (data.startsWith(CallbackData.TEAM_FEED_MORE_PREFIX)) {
+            String[] parts = data.substring(CallbackData.TEAM_FEED_MORE_PREFIX.length()).split(":");
+            sendTeamFeed(user, new TeamEventService.FeedCursor(Long.parseLong(parts[0]), Long.parseLong(parts[1])));
             answer(cb.getId(), "📰 Лента", false);
             return;
         }
@@ -304,7 +352,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         if (data.startsWith("c:xls:")) {
             long teamId = Long.parseLong(data.substring("c:xls:".length()));
             sendTeamExcel(user, teamId);
-            facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+            facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj());
             answer(cb.getId(), "Отправляю файл…", false);
             return;
         }
@@ -329,14 +377,14 @@ public final class VadirssBot extends TelegramLongPollingBot {
         // Admin team submenu actions
         if (CallbackData.ADMIN_TEAM_CREATE.equals(data)) {
             JsonObject sd = JsonUtils.obj();
-            facade.users().setState(user.tgId, UserState.ADMIN_CREATE_TEAM_NAME, sd, zone);
+            facade.users().setState(user.tgId, UserState.ADMIN_CREATE_TEAM_NAME, sd);
             sendHtml(user.chatId, "➕ <b>Создать команду</b>\n\nВведите название команды:", Keyboards.backOnly());
             answer(cb.getId(), "Ок", false);
             return;
         }
         if (CallbackData.ADMIN_TEAM_DELETE.equals(data)) {
             JsonObject sd = JsonUtils.obj();
-            facade.users().setState(user.tgId, UserState.ADMIN_DELETE_TEAM_NUMBER, sd, zone);
+            facade.users().setState(user.tgId, UserState.ADMIN_DELETE_TEAM_NUMBER, sd);
             sendAdminTeamsListNumbered(user, "🗑 <b>Удалить команду</b>\n\nВведите номер команды для удаления:");
             answer(cb.getId(), "Ок", false);
             return;
@@ -367,7 +415,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         }
 
         if (CallbackData.ADMIN_SCHED_DONE.equals(data)) {
-            facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+            facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj());
             sendHtml(user.chatId, "✅ Расписание сохранено.", Keyboards.backOnly());
             answer(cb.getId(), "Готово", false);
             return;
@@ -397,85 +445,114 @@ public final class VadirssBot extends TelegramLongPollingBot {
     // --- Public send helpers for scheduler ---
 
     public Message sendHtml(long chatId, String text, InlineKeyboardMarkup kb) {
+        try {
+            return sendHtmlOrThrow(chatId, text, kb);
+        } catch (TelegramApiException e) {
+            return null;
+        }
+    }
+
+    /** Same as {@link #sendHtml}, but lets the caller see why Telegram refused. */
+    public Message sendHtmlOrThrow(long chatId, String text, InlineKeyboardMarkup kb) throws TelegramApiException {
         SendMessage m = new SendMessage();
         m.setChatId(chatId);
         m.setText(limit(text));
         m.setParseMode(ParseMode.HTML);
         if (kb != null) m.setReplyMarkup(kb);
+        return call(chatId, () -> execute(m));
+    }
+
+    /**
+     * Sends one outbox message. Prompts that start a flow return the creation of their interactive session,
+     * for the caller to commit together with marking the message sent; other messages return null.
+     */
+    public Database.SqlTask sendOutboxMessage(OutboxMessage m) throws TelegramApiException {
+        InlineKeyboardMarkup kb = Keyboards.fromJson(m.replyMarkup);
+        Message sent = OutboxService.KIND_PHOTO.equals(m.kind)
+                ? sendPhotoOrThrow(m.chatId, m.payload.get("mediaKey").getAsString(), m.text, kb)
+                : sendHtmlOrThrow(m.chatId, m.text, kb);
+        return switch (m.kind) {
+            case IS_MORNING -> pollSession(m, sent, IS_MORNING, "ENERGY");
+            case IS_EVENING -> pollSession(m, sent, IS_EVENING, "SELF");
+            case IS_COACH_RATING -> c -> facade.interactive().create(c, m.payload.get("userId").getAsLong(), m.chatId, sent.getMessageId(),
+                    IS_COACH_RATING, m.payload.getAsJsonObject("data"), null);
+            default -> null;
+        };
+    }
+
+    private Database.SqlTask pollSession(OutboxMessage m, Message sent, String kind, String firstStep) {
+        JsonObject data = JsonUtils.obj();
+        data.addProperty("step", firstStep);
+        data.addProperty("sessionId", m.payload.get("sessionId").getAsLong());
+        return c -> facade.interactive().create(c, m.payload.get("userId").getAsLong(), m.chatId, sent.getMessageId(), kind, data, null);
+    }
+
+    public Message sendPhoto(long chatId, String mediaKey, String caption, InlineKeyboardMarkup kb) {
         try {
-            return execute(m);
+            return sendPhotoOrThrow(chatId, mediaKey, caption, kb);
         } catch (TelegramApiException e) {
             return null;
         }
     }
 
-    public Message sendPhoto(long chatId, String mediaKey, String caption, InlineKeyboardMarkup kb) {
+    /** Same as {@link #sendPhoto}, but lets the caller see why Telegram refused. */
+    public Message sendPhotoOrThrow(long chatId, String mediaKey, String caption, InlineKeyboardMarkup kb) throws TelegramApiException {
         SendPhoto p = new SendPhoto();
         p.setChatId(chatId);
-        p.setPhoto(facade.media().inputFile(mediaKey));
         if (caption != null) {
             p.setCaption(limit(caption));
             p.setParseMode(ParseMode.HTML);
         }
         if (kb != null) p.setReplyMarkup(kb);
-        try {
-            Message msg = execute(p);
-            facade.media().cacheIfPossible(mediaKey, msg, cfg.zoneId());
-            return msg;
-        } catch (TelegramApiException e) {
-            return null;
-        }
+        Message msg = call(chatId, () -> {
+            // a retry needs a fresh stream when the photo is uploaded from resources
+            p.setPhoto(facade.media().inputFile(mediaKey));
+            return execute(p);
+        });
+        facade.media().cacheIfPossible(mediaKey, msg);
+        return msg;
     }
 
     public void editText(long chatId, int messageId, String text, InlineKeyboardMarkup kb) {
+        try {
+            editTextOrThrow(chatId, messageId, text, kb);
+        } catch (TelegramApiException ignored) {}
+    }
+
+    private void editTextOrThrow(long chatId, int messageId, String text, InlineKeyboardMarkup kb) throws TelegramApiException {
         EditMessageText em = new EditMessageText();
         em.setChatId(chatId);
         em.setMessageId(messageId);
         em.setText(limit(text));
         em.setParseMode(ParseMode.HTML);
         if (kb != null) em.setReplyMarkup(kb);
-        try {
-            execute(em);
-        } catch (TelegramApiException ignored) {}
+        call(chatId, () -> execute(em));
     }
 
-    // Poll starters used by scheduler
-    public void startMorningPoll(User player, TrainingSession session) {
+    // Poll starters used by scheduler: the prompt goes through the outbox, see sendOutboxMessage
+    /** The first morning poll question, for the caller to queue. */
+    public OutboxMessage morningPollMessage(User player, TrainingSession session) {
         String text = "🌞 <b>Утренний опрос</b>\n\n" +
                 "1/4: <b>Уровень энергии</b> (1–10)";
-        Message m = sendHtml(player.chatId, text, Keyboards.numbers1to10(CallbackData.POLL_MORNING_PREFIX + "E:"));
-        if (m == null) return;
-
-        JsonObject data = JsonUtils.obj();
-        data.addProperty("step", "ENERGY");
-        data.addProperty("sessionId", session.id);
-        facade.interactive().create(player.tgId, player.chatId, m.getMessageId(), IS_MORNING, data, null, cfg.zoneId());
+        return pollMessage(player, session, text, Keyboards.numbers1to10(CallbackData.POLL_MORNING_PREFIX + "E:"), IS_MORNING);
     }
 
-    public void startEveningPoll(User player, TrainingSession session) {
+    /** The evening poll question, for the caller to queue. */
+    public OutboxMessage eveningPollMessage(User player, TrainingSession session) {
         String text = "🌙 <b>Вечерний опрос</b>\n\n" +
                 "<b>Самооценка тренировки</b> (1–10)";
-        Message m = sendHtml(player.chatId, text, Keyboards.numbers1to10(CallbackData.POLL_EVENING_PREFIX));
-        if (m == null) return;
+        return pollMessage(player, session, text, Keyboards.numbers1to10(CallbackData.POLL_EVENING_PREFIX), IS_EVENING);
+    }
 
-        JsonObject data = JsonUtils.obj();
-        data.addProperty("step", "SELF");
-        data.addProperty("sessionId", session.id);
-        facade.interactive().create(player.tgId, player.chatId, m.getMessageId(), IS_EVENING, data, null, cfg.zoneId());
+    private static OutboxMessage pollMessage(User player, TrainingSession session, String text, InlineKeyboardMarkup kb, String kind) {
+        JsonObject payload = JsonUtils.obj();
+        payload.addProperty("userId", player.tgId);
+        payload.addProperty("sessionId", session.id);
+        return OutboxService.message(player.chatId, text, Keyboards.toJson(kb), kind, payload);
     }
 
     public void sendTodayChallenge(User player, TrainingSession session, boolean withPhoto) {
-        var chOpt = facade.challenges().getChallengeForPlayer(session.id, player.tgId);
-        String text;
-        if (chOpt.isEmpty()) {
-            text = "🔥 <b>Челлендж</b>\n\n⏳ Пока не назначен.";
-        } else {
-            PlayerChallenge ch = chOpt.get();
-            text = "🔥 <b>Челлендж на тренировку</b>\n\n" +
-                    "🎯 " + Html.esc(ch.text) + "\n" +
-                    "Источник: " + ("COACH".equalsIgnoreCase(ch.source) ? "Тренер" : "ИИ") + "\n\n" +
-                    "⚠️ Выполнение подтверждает тренер после тренировки.";
-        }
+        String text = todayChallengeText(player, session);
         InlineKeyboardMarkup kb = Keyboards.backOnly();
         if (withPhoto) {
             sendPhoto(player.chatId, PHOTO_5, text, kb);
@@ -484,8 +561,32 @@ public final class VadirssBot extends TelegramLongPollingBot {
         }
     }
 
-    public void startCoachRatingFlow(User coach, Team team, TrainingSession session, List<User> players) {
-        if (coach.role != Role.COACH && coach.role != Role.ADMIN) return;
+    /** Today's challenge as a photo message, for the caller to queue. */
+    public OutboxMessage todayChallengeMessage(User player, TrainingSession session) {
+        JsonObject payload = JsonUtils.obj();
+        payload.addProperty("mediaKey", PHOTO_5);
+        return OutboxService.message(player.chatId, todayChallengeText(player, session), Keyboards.toJson(Keyboards.backOnly()),
+                OutboxService.KIND_PHOTO, payload);
+    }
+
+    private String todayChallengeText(User player, TrainingSession session) {
+        var chOpt = facade.challenges().getChallengeForPlayer(session.id, player.tgId);
+        if (chOpt.isEmpty()) {
+            return "🔥 <b>Челлендж</b>\n\n⏳ Пока не назначен.";
+        }
+        PlayerChallenge ch = chOpt.get();
+        return "🔥 <b>Челлендж на тренировку</b>\n\n" +
+                "🎯 " + Html.esc(ch.text) + "\n" +
+                "Источник: " + ("COACH".equalsIgnoreCase(ch.source) ? "Тренер" : "ИИ") + "\n\n" +
+                "⚠️ Выполнение подтверждает тренер после тренировки.";
+    }
+
+    /**
+     * The first rating prompt for the caller to queue, or null when {@code coach} no longer coaches.
+     * The rating session starts when the prompt is sent, see {@link #sendOutboxMessage}.
+     */
+    public OutboxMessage coachRatingMessage(User coach, Team team, TrainingSession session, List<User> players) {
+        if (coach.role != Role.COACH && coach.role != Role.ADMIN) return null;
 
         // Create interactive session: store playerIds, index, step, sessionId
         JsonObject data = JsonUtils.obj();
@@ -498,11 +599,12 @@ public final class VadirssBot extends TelegramLongPollingBot {
         for (User p : players) ids.add(p.tgId);
         data.add("players", ids);
 
+        JsonObject payload = JsonUtils.obj();
+        payload.addProperty("userId", coach.tgId);
+        payload.add("data", data);
         String text = coachRatingText(players.get(0), "LIM", null, null, null);
-        Message m = sendHtml(coach.chatId, text, Keyboards.numbers0to4(CallbackData.COACH_RATE_PREFIX));
-        if (m == null) return;
-
-        facade.interactive().create(coach.tgId, coach.chatId, m.getMessageId(), IS_COACH_RATING, data, null, cfg.zoneId());
+        return OutboxService.message(coach.chatId, text, Keyboards.toJson(Keyboards.numbers0to4(CallbackData.COACH_RATE_PREFIX)),
+                IS_COACH_RATING, payload);
     }
 
     // --- Core flows ---
@@ -616,7 +718,6 @@ public final class VadirssBot extends TelegramLongPollingBot {
     }
 
     private void handleTextInput(User user, String text) {
-        ZoneId zone = cfg.zoneId();
 
         // Reload actual state (it can change after callback)
         user = facade.users().findById(user.tgId).orElse(user);
@@ -627,8 +728,8 @@ public final class VadirssBot extends TelegramLongPollingBot {
                     sendHtml(user.chatId, "⚠️ Похоже, ФИО слишком короткое. Попробуйте еще раз:", null);
                     return;
                 }
-                facade.users().setFullName(user.tgId, text, zone);
-                facade.users().setState(user.tgId, UserState.WAIT_PHONE, JsonUtils.obj(), zone);
+                facade.users().setFullName(user.tgId, text);
+                facade.users().setState(user.tgId, UserState.WAIT_PHONE, JsonUtils.obj());
                 sendPhoto(user.chatId, PHOTO_1, "📞 <b>Укажите ваш номер телефона в формате:</b>\n+7 (XXX) XXX-XX-XX", null);
             }
             case WAIT_PHONE -> {
@@ -636,8 +737,8 @@ public final class VadirssBot extends TelegramLongPollingBot {
                     sendHtml(user.chatId, "⚠️ Неверный формат. Пример: <b>+7 (999) 123-45-67</b>\nПопробуйте еще раз:", null);
                     return;
                 }
-                facade.users().setPhone(user.tgId, text, zone);
-                facade.users().setState(user.tgId, UserState.WAIT_TEAM, JsonUtils.obj(), zone);
+                facade.users().setPhone(user.tgId, text);
+                facade.users().setState(user.tgId, UserState.WAIT_TEAM, JsonUtils.obj());
                 sendTeamPick(user.chatId);
             }
             case ADMIN_CREATE_TEAM_NAME -> {
@@ -647,8 +748,8 @@ public final class VadirssBot extends TelegramLongPollingBot {
                     return;
                 }
                 try {
-                    Team t = facade.teams().createTeam(text, zone);
-                    facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+                    Team t = facade.teams().createTeam(text);
+                    facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj());
                     sendHtml(user.chatId, "✅ Команда создана: <b>" + Html.esc(t.name) + "</b>", Keyboards.backOnly());
                 } catch (Exception e) {
                     sendHtml(user.chatId, "⚠️ Не удалось создать команду (возможно, уже существует).", Keyboards.backOnly());
@@ -668,7 +769,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
                 }
                 Team t = teams.get(n - 1);
                 facade.teams().deleteTeam(t.id);
-                facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+                facade.users().setState(user.tgId, UserState.IDLE, JsonUtils.obj());
                 sendHtml(user.chatId, "🗑 Команда удалена: <b>" + Html.esc(t.name) + "</b>", Keyboards.backOnly());
             }
             case ADMIN_ASSIGN_COACH_PICK_USER_NUMBER -> {
@@ -717,7 +818,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         String teamName = user.teamId == null ? "—" : facade.teams().findById(user.teamId).map(t -> t.name).orElse("—");
         var counts = facade.polls().counts(user.tgId);
         var ach = facade.achievements().listForPlayer(user.tgId);
-        String quote = facade.ai().getOrCreateDailyQuote(LocalDate.now(zone), zone);
+        String quote = facade.ai().getOrCreateDailyQuote(LocalDate.now(zone));
         var level = facade.points().levelOf(user);
 
         StringBuilder sb = new StringBuilder();
@@ -752,10 +853,9 @@ public final class VadirssBot extends TelegramLongPollingBot {
     }
 
     private void sendPlayerStats(User user) {
-        ZoneId zone = cfg.zoneId();
         user = facade.users().findById(user.tgId).orElse(user);
 
-        PlayerAttributes a = facade.achievements().getAttributes(user.tgId, zone);
+        PlayerAttributes a = facade.achievements().getAttributes(user.tgId);
 
         StringBuilder sb = new StringBuilder();
         sb.append("📊 <b>Статистика игрока</b>\n\n");
@@ -787,7 +887,6 @@ public final class VadirssBot extends TelegramLongPollingBot {
     }
 
     private void sendPlayerChallenge(User user) {
-        ZoneId zone = cfg.zoneId();
         user = facade.users().findById(user.tgId).orElse(user);
         if (user.teamId == null) {
             sendHtml(user.chatId, "⚠️ У вас не выбрана команда.", Keyboards.backOnly());
@@ -866,25 +965,26 @@ public final class VadirssBot extends TelegramLongPollingBot {
         sendHtml(user.chatId, "👥 <b>Моя команда</b>\nВыберите действие:", kb);
     }
 
-    private void sendTeamFeed(User user) {
-        ZoneId zone = cfg.zoneId();
+    private void sendTeamFeed(User user, TeamEventService.FeedCursor before) {
         user = facade.users().findById(user.tgId).orElse(user);
         if (user.teamId == null) {
             sendHtml(user.chatId, "⚠️ У вас не выбрана команда.", Keyboards.backOnly());
             return;
         }
 
-        var events = facade.events().lastEvents(user.teamId, 5);
-        if (events.isEmpty()) {
-            sendHtml(user.chatId, "📰 <b>Лента активности</b>\n\nПока событий нет.", Keyboards.backOnly());
+        var page = facade.events().lastEventsWithUsers(user.teamId, before, FEED_PAGE_SIZE);
+        if (page.entries().isEmpty()) {
+            String text = before == null ? "Пока событий нет." : "Более ранних событий нет.";
+            sendHtml(user.chatId, "📰 <b>Лента активности</b>\n\n" + text, Keyboards.backOnly());
             return;
         }
 
         StringBuilder sb = new StringBuilder();
         sb.append("📰 <b>Лента активности команды</b>\n\n");
 
-        for (var ev : events) {
-            String who = ev.userId == null ? "Кто-то" : facade.users().findById(ev.userId).map(u -> nvl(u.fullName)).orElse("Игрок");
+        for (var entry : page.entries()) {
+            TeamEvent ev = entry.event();
+            String who = ev.userId == null ? "Кто-то" : (entry.authorName() != null ? entry.authorName() : "Игрок");
             JsonObject payload = JsonUtils.parseObj(ev.payloadJson);
             String line = switch (ev.type) {
                 case ACHIEVEMENT_AWARDED -> {
@@ -905,25 +1005,33 @@ public final class VadirssBot extends TelegramLongPollingBot {
             sb.append("• ").append(line).append("\n");
         }
 
-        sendHtml(user.chatId, sb.toString(), Keyboards.backOnly());
+        InlineKeyboardMarkup kb = Keyboards.backOnly();
+        if (page.next() != null) {
+            String more = CallbackData.TEAM_FEED_MORE_PREFIX + page.next().createdAt() + ":" + page.next().id();
+            kb = Keyboards.ofRows(
+                    List.of(Keyboards.btn("⬇️ Ранее", more)),
+                    List.of(Keyboards.btn("⬅️ Вернуться в меню", CallbackData.BACK_TO_MENU))
+            );
+        }
+        sendHtml(user.chatId, sb.toString(), kb);
     }
 
     private void sendTeamPlayers(User user) {
-        ZoneId zone = cfg.zoneId();
         user = facade.users().findById(user.tgId).orElse(user);
         if (user.teamId == null) {
             sendHtml(user.chatId, "⚠️ У вас не выбрана команда.", Keyboards.backOnly());
             return;
         }
-        List<User> players = facade.users().listPlayersByTeam(user.teamId);
+        var players = facade.users().listPlayersWithAchievements(user.teamId);
 
         StringBuilder sb = new StringBuilder();
         sb.append("👥 <b>Игроки команды</b>\n\n");
 
         int i = 1;
-        for (User p : players) {
+        for (var row : players) {
+            User p = row.player();
             var lvl = facade.points().levelOf(p);
-            List<Achievement> ach = facade.achievements().listForPlayer(p.tgId);
+            List<Achievement> ach = row.achievements();
             String achText;
             if (ach.isEmpty()) achText = "—";
             else if (ach.size() <= 3) achText = joinAch(ach);
@@ -964,7 +1072,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
             int val = parseIntAfterPrefix(payload, "E:");
             data.addProperty("energy", val);
             data.addProperty("step", "SLEEP");
-            facade.interactive().updateData(s.id, data, zone);
+            facade.interactive().updateData(s.id, data);
 
             editText(chatId, msgId, "🌞 <b>Утренний опрос</b>\n\n2/4: <b>Качество сна</b> (1–10)",
                     Keyboards.numbers1to10(CallbackData.POLL_MORNING_PREFIX + "S:"));
@@ -974,7 +1082,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
             int val = parseIntAfterPrefix(payload, "S:");
             data.addProperty("sleep", val);
             data.addProperty("step", "READY");
-            facade.interactive().updateData(s.id, data, zone);
+            facade.interactive().updateData(s.id, data);
 
             editText(chatId, msgId, "🌞 <b>Утренний опрос</b>\n\n3/4: <b>Готовность к тренировке</b> (1–10)",
                     Keyboards.numbers1to10(CallbackData.POLL_MORNING_PREFIX + "R:"));
@@ -984,7 +1092,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
             int val = parseIntAfterPrefix(payload, "R:");
             data.addProperty("readiness", val);
             data.addProperty("step", "MOOD");
-            facade.interactive().updateData(s.id, data, zone);
+            facade.interactive().updateData(s.id, data);
 
             editText(chatId, msgId, "🌞 <b>Утренний опрос</b>\n\n4/4: <b>Настроение</b>",
                     Keyboards.moodButtons(CallbackData.POLL_MORNING_PREFIX + "M:"));
@@ -1015,7 +1123,6 @@ public final class VadirssBot extends TelegramLongPollingBot {
     private void handleEveningPollCallback(User user, CallbackQuery cb) {
         long chatId = cb.getMessage().getChatId();
         int msgId = cb.getMessage().getMessageId();
-        ZoneId zone = cfg.zoneId();
 
         var sessOpt = facade.interactive().find(chatId, msgId, IS_EVENING);
         if (sessOpt.isEmpty()) {
@@ -1066,7 +1173,6 @@ public final class VadirssBot extends TelegramLongPollingBot {
         }
         long chatId = cb.getMessage().getChatId();
         int msgId = cb.getMessage().getMessageId();
-        ZoneId zone = cfg.zoneId();
 
         var sessOpt = facade.interactive().find(chatId, msgId, IS_COACH_RATING);
         if (sessOpt.isEmpty()) {
@@ -1098,14 +1204,14 @@ public final class VadirssBot extends TelegramLongPollingBot {
         if ("LIM".equals(step)) {
             data.addProperty("lim", val);
             data.addProperty("step", "T2");
-            facade.interactive().updateData(s.id, data, zone);
+            facade.interactive().updateData(s.id, data);
             editText(chatId, msgId, coachRatingText(player, "T2", val, null, null), Keyboards.numbers0to3(CallbackData.COACH_RATE_PREFIX));
             return;
         }
         if ("T2".equals(step)) {
             data.addProperty("t2", val);
             data.addProperty("step", "EIQ");
-            facade.interactive().updateData(s.id, data, zone);
+            facade.interactive().updateData(s.id, data);
             Integer lim = data.has("lim") ? data.get("lim").getAsInt() : null;
             editText(chatId, msgId, coachRatingText(player, "EIQ", lim, val, null), Keyboards.numbers0to2(CallbackData.COACH_RATE_PREFIX));
             return;
@@ -1143,7 +1249,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
                 return;
             }
 
-            facade.interactive().updateData(s.id, data, zone);
+            facade.interactive().updateData(s.id, data);
             editText(chatId, msgId, coachRatingText(nextPlayer, "LIM", null, null, null), Keyboards.numbers0to4(CallbackData.COACH_RATE_PREFIX));
             return;
         }
@@ -1167,7 +1273,6 @@ public final class VadirssBot extends TelegramLongPollingBot {
 
     private void startCoachEditAttributes(User coach, long playerId, MaybeInaccessibleMessage maybeMsg) {
         if (coach.role != Role.COACH && coach.role != Role.ADMIN) return;
-        ZoneId zone = cfg.zoneId();
 
         User player = facade.users().findById(playerId).orElse(null);
         if (player == null) {
@@ -1180,7 +1285,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         data.addProperty("playerId", playerId);
         data.addProperty("idx", 0);
 
-        PlayerAttributes current = facade.achievements().getAttributes(playerId, zone);
+        PlayerAttributes current = facade.achievements().getAttributes(playerId);
         data.add("values", toJsonValues(current));
 
         String key = keys.get(0);
@@ -1195,7 +1300,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         Message m = sendHtml(coach.chatId, text, Keyboards.numbers0to10(CallbackData.COACH_ATTR_VALUE_PREFIX));
         if (m == null) return;
 
-        facade.interactive().create(coach.tgId, coach.chatId, m.getMessageId(), IS_COACH_ATTR, data, null, zone);
+        facade.interactive().create(coach.tgId, coach.chatId, m.getMessageId(), IS_COACH_ATTR, data, null);
     }
 
     private void handleCoachAttrValueCallback(User coach, CallbackQuery cb) {
@@ -1240,7 +1345,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         if (idx >= keys.size()) {
             // Save
             PlayerAttributes attrs = fromJsonValues(values);
-            facade.achievements().upsertAttributes(playerId, attrs, zone, true);
+            facade.achievements().upsertAttributes(playerId, attrs, true);
 
             // Recompute achievements for player
             facade.users().findById(playerId).ifPresent(u -> facade.achievements().recompute(u, zone));
@@ -1251,7 +1356,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         }
 
         data.addProperty("idx", idx);
-        facade.interactive().updateData(s.id, data, zone);
+        facade.interactive().updateData(s.id, data);
 
         User player = facade.users().findById(playerId).orElse(null);
         String nextKey = keys.get(idx);
@@ -1445,7 +1550,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         }
         sb.append("\n");
 
-        PlayerAttributes a = facade.achievements().getAttributes(playerId, cfg.zoneId());
+        PlayerAttributes a = facade.achievements().getAttributes(playerId);
         sb.append("📊 <b>Текущие характеристики (кратко)</b>:\n");
         sb.append("Техника: ").append(fmt1((a.shortPass + a.longPass + a.firstTouch) / 3)).append("/10\n");
         sb.append("Физика: ").append(fmt1((a.strength + a.speed + a.endurance) / 3)).append("/10\n");
@@ -1471,12 +1576,12 @@ public final class VadirssBot extends TelegramLongPollingBot {
         JsonObject sd = JsonUtils.obj();
         if (teams.size() == 1) {
             sd.addProperty("teamId", teams.get(0).id);
-            facade.users().setState(coach.tgId, UserState.COACH_ANNOUNCE_TEXT, sd, cfg.zoneId());
+            facade.users().setState(coach.tgId, UserState.COACH_ANNOUNCE_TEXT, sd);
             sendHtml(coach.chatId, "📢 <b>Объявление</b>\n\nВведите текст объявления:", Keyboards.backOnly());
             return;
         }
         // pick team
-        facade.users().setState(coach.tgId, UserState.COACH_ANNOUNCE_PICK_TEAM, sd, cfg.zoneId());
+        facade.users().setState(coach.tgId, UserState.COACH_ANNOUNCE_PICK_TEAM, sd);
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
         for (Team t : teams) rows.add(List.of(Keyboards.btn("🏟 " + t.name, CallbackData.ADMIN_PICK_TEAM_PREFIX + t.id)));
         rows.add(List.of(Keyboards.btn("⬅️ В меню", CallbackData.BACK_TO_MENU)));
@@ -1484,12 +1589,11 @@ public final class VadirssBot extends TelegramLongPollingBot {
     }
 
     private void handleCoachAnnouncementText(User coach, String text) {
-        ZoneId zone = cfg.zoneId();
         coach = facade.users().findById(coach.tgId).orElse(coach);
         long teamId = coach.stateData.has("teamId") ? coach.stateData.get("teamId").getAsLong() : -1;
         if (teamId <= 0) {
             sendHtml(coach.chatId, "⚠️ Не выбрана команда. Начните заново.", Keyboards.backOnly());
-            facade.users().setState(coach.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+            facade.users().setState(coach.tgId, UserState.IDLE, JsonUtils.obj());
             return;
         }
         List<User> players = facade.users().listPlayersByTeam(teamId);
@@ -1502,7 +1606,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
             sent++;
         }
 
-        facade.users().setState(coach.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+        facade.users().setState(coach.tgId, UserState.IDLE, JsonUtils.obj());
         sendHtml(coach.chatId, "✅ Объявление отправлено игрокам: <b>" + sent + "</b>", Keyboards.backOnly());
     }
 
@@ -1520,12 +1624,12 @@ public final class VadirssBot extends TelegramLongPollingBot {
         JsonObject sd = JsonUtils.obj();
         if (teams.size() == 1) {
             sd.addProperty("teamId", teams.get(0).id);
-            facade.users().setState(coach.tgId, UserState.COACH_ADD_POOL_CHALLENGE_TEXT, sd, cfg.zoneId());
+            facade.users().setState(coach.tgId, UserState.COACH_ADD_POOL_CHALLENGE_TEXT, sd);
             sendHtml(coach.chatId, "➕ <b>Создание челленджа</b>\n\nВведите текст челленджа:", Keyboards.backOnly());
             return;
         }
 
-        facade.users().setState(coach.tgId, UserState.COACH_ADD_POOL_CHALLENGE_PICK_TEAM, sd, cfg.zoneId());
+        facade.users().setState(coach.tgId, UserState.COACH_ADD_POOL_CHALLENGE_PICK_TEAM, sd);
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
         for (Team t : teams) rows.add(List.of(Keyboards.btn("🏟 " + t.name, CallbackData.ADMIN_PICK_TEAM_PREFIX + t.id)));
         rows.add(List.of(Keyboards.btn("⬅️ В меню", CallbackData.BACK_TO_MENU)));
@@ -1533,17 +1637,16 @@ public final class VadirssBot extends TelegramLongPollingBot {
     }
 
     private void handleCoachPoolChallengeText(User coach, String text) {
-        ZoneId zone = cfg.zoneId();
         coach = facade.users().findById(coach.tgId).orElse(coach);
 
         long teamId = coach.stateData.has("teamId") ? coach.stateData.get("teamId").getAsLong() : -1;
         if (teamId <= 0) {
             sendHtml(coach.chatId, "⚠️ Не выбрана команда. Начните заново.", Keyboards.backOnly());
-            facade.users().setState(coach.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+            facade.users().setState(coach.tgId, UserState.IDLE, JsonUtils.obj());
             return;
         }
-        facade.challenges().addCoachPoolChallenge(teamId, text, zone);
-        facade.users().setState(coach.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+        facade.challenges().addCoachPoolChallenge(teamId, text);
+        facade.users().setState(coach.tgId, UserState.IDLE, JsonUtils.obj());
         sendHtml(coach.chatId, "✅ Челлендж добавлен в пул команды.", Keyboards.backOnly());
     }
 
@@ -1564,7 +1667,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         // Choose team
         JsonObject sd = JsonUtils.obj();
         sd.addProperty("excel", true);
-        facade.users().setState(coach.tgId, UserState.IDLE, sd, cfg.zoneId());
+        facade.users().setState(coach.tgId, UserState.IDLE, sd);
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
         for (Team t : teams) rows.add(List.of(Keyboards.btn("🏟 " + t.name, "c:xls:" + t.id)));
         rows.add(List.of(Keyboards.btn("⬅️ В меню", CallbackData.BACK_TO_MENU)));
@@ -1578,7 +1681,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         doc.setDocument(new InputFile(file));
         doc.setCaption("📈 Статистика команды (LIM/T2/EIQ)");
         try {
-            execute(doc);
+            call(coach.chatId, () -> execute(doc));
         } catch (TelegramApiException e) {
             sendHtml(coach.chatId, "⚠️ Не удалось отправить Excel.", Keyboards.backOnly());
         }
@@ -1591,14 +1694,14 @@ public final class VadirssBot extends TelegramLongPollingBot {
             sendHtml(coach.chatId, "Нет прав.", Keyboards.backOnly());
             return;
         }
-        var challenges = facade.challenges().listChallengesForSession(sessionId);
+        var challenges = facade.challenges().listChallengesWithPlayerNames(sessionId);
         if (challenges.isEmpty()) {
             sendHtml(coach.chatId, "Нет челленджей на эту тренировку.", Keyboards.backOnly());
             return;
         }
-        for (PlayerChallenge ch : challenges) {
-            User p = facade.users().findById(ch.playerId).orElse(null);
-            String fio = p == null ? ("Игрок " + ch.playerId) : nvl(p.fullName);
+        for (var row : challenges) {
+            PlayerChallenge ch = row.challenge();
+            String fio = row.playerName() == null ? ("Игрок " + ch.playerId) : row.playerName();
             String text = "🧩 <b>Отметка челленджа</b>\n\n" +
                     "Игрок: <b>" + Html.esc(fio) + "</b>\n" +
                     "Челлендж: " + Html.esc(ch.text);
@@ -1652,7 +1755,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
             doc.setChatId(admin.chatId);
             doc.setDocument(new InputFile(dbFile));
             doc.setCaption("💾 Резервная копия базы данных (sqlite)");
-            execute(doc);
+            call(admin.chatId, () -> execute(doc));
         } catch (Exception e) {
             sendHtml(admin.chatId, "⚠️ Не удалось отправить резервную копию.", Keyboards.backOnly());
         }
@@ -1677,7 +1780,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         }
         JsonObject sd = JsonUtils.obj();
         sd.addProperty("ctx", "assignCoach");
-        facade.users().setState(admin.tgId, UserState.ADMIN_ASSIGN_COACH_PICK_TEAM, sd, cfg.zoneId());
+        facade.users().setState(admin.tgId, UserState.ADMIN_ASSIGN_COACH_PICK_TEAM, sd);
 
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
         for (Team t : teams) rows.add(List.of(Keyboards.btn("🏟 " + t.name, CallbackData.ADMIN_PICK_TEAM_PREFIX + t.id)));
@@ -1694,7 +1797,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
         }
         JsonObject sd = JsonUtils.obj();
         sd.addProperty("ctx", "schedule");
-        facade.users().setState(admin.tgId, UserState.ADMIN_SCHEDULE_PICK_TEAM, sd, cfg.zoneId());
+        facade.users().setState(admin.tgId, UserState.ADMIN_SCHEDULE_PICK_TEAM, sd);
 
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
         for (Team t : teams) rows.add(List.of(Keyboards.btn("🏟 " + t.name, CallbackData.ADMIN_PICK_TEAM_PREFIX + t.id)));
@@ -1703,7 +1806,6 @@ public final class VadirssBot extends TelegramLongPollingBot {
     }
 
     private void handleAdminPickedTeam(User admin, long teamId) {
-        ZoneId zone = cfg.zoneId();
         admin = facade.users().findById(admin.tgId).orElse(admin);
 
         String ctx = admin.stateData.has("ctx") ? admin.stateData.get("ctx").getAsString() : "";
@@ -1712,15 +1814,16 @@ public final class VadirssBot extends TelegramLongPollingBot {
             JsonObject sd = JsonUtils.obj();
             sd.addProperty("teamId", teamId);
             sd.addProperty("page", 0);
-            facade.users().setState(admin.tgId, UserState.ADMIN_ASSIGN_COACH_PICK_USER_NUMBER, sd, zone);
-            showUsersPageForAdmin(admin, "assignCoach", 0);
+            facade.users().setState(admin.tgId, UserState.ADMIN_ASSIGN_COACH_PICK_USER_NUMBER, sd);
+            admin.stateData = sd;
+            showUsersPageForAdmin(admin, "assignCoach", facade.users().listUsersAfter(0, ADMIN_PAGE_SIZE), 0);
             return;
         }
 
         if ("schedule".equals(ctx) || admin.state == UserState.ADMIN_SCHEDULE_PICK_TEAM) {
             JsonObject sd = JsonUtils.obj();
             sd.addProperty("teamId", teamId);
-            facade.users().setState(admin.tgId, UserState.ADMIN_SCHEDULE_PICK_DAY, sd, zone);
+            facade.users().setState(admin.tgId, UserState.ADMIN_SCHEDULE_PICK_DAY, sd);
             showScheduleDaysMenu(admin, teamId);
             return;
         }
@@ -1730,10 +1833,10 @@ public final class VadirssBot extends TelegramLongPollingBot {
             JsonObject sd = JsonUtils.obj();
             sd.addProperty("teamId", teamId);
             if (admin.state == UserState.COACH_ANNOUNCE_PICK_TEAM) {
-                facade.users().setState(admin.tgId, UserState.COACH_ANNOUNCE_TEXT, sd, zone);
+                facade.users().setState(admin.tgId, UserState.COACH_ANNOUNCE_TEXT, sd);
                 sendHtml(admin.chatId, "📢 <b>Объявление</b>\n\nВведите текст объявления:", Keyboards.backOnly());
             } else {
-                facade.users().setState(admin.tgId, UserState.COACH_ADD_POOL_CHALLENGE_TEXT, sd, zone);
+                facade.users().setState(admin.tgId, UserState.COACH_ADD_POOL_CHALLENGE_TEXT, sd);
                 sendHtml(admin.chatId, "➕ <b>Создание челленджа</b>\n\nВведите текст челленджа:", Keyboards.backOnly());
             }
             return;
@@ -1743,78 +1846,87 @@ public final class VadirssBot extends TelegramLongPollingBot {
         if ((admin.role == Role.COACH || admin.role == Role.ADMIN) && admin.stateData.has("excel") && admin.stateData.get("excel").getAsBoolean()) {
             sendTeamExcel(admin, teamId);
             admin.stateData.remove("excel");
-            facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+            facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj());
         }
     }
 
     private void handleAdminPagination(User admin, String data) {
-        // pg:<ctx>:<page>
+        // pg:<ctx>:<n|p>:<tgId> - next page after tgId / previous page before tgId
         String rest = data.substring(CallbackData.ADMIN_PAGE_PREFIX.length());
         String[] parts = rest.split(":");
-        if (parts.length < 2) return;
+        if (parts.length < 3) return;
         String ctx = parts[0];
-        int page = Integer.parseInt(parts[1]);
+        boolean forward = "n".equals(parts[1]);
+        long key = Long.parseLong(parts[2]);
+
+        List<User> users = forward
+                ? facade.users().listUsersAfter(key, ADMIN_PAGE_SIZE)
+                : facade.users().listUsersBefore(key, ADMIN_PAGE_SIZE);
+        if (users.isEmpty()) {
+            sendHtml(admin.chatId, "Больше пользователей нет.", null);
+            return;
+        }
+        int page = admin.stateData.has("page") ? admin.stateData.get("page").getAsInt() : 0;
+        // n:0 is the first page (also the way back from search results)
+        if (forward && key == 0) page = 0;
+        else page = forward ? page + 1 : Math.max(0, page - 1);
 
         if ("assignCoach".equals(ctx)) {
-            showUsersPageForAdmin(admin, ctx, page);
+            showUsersPageForAdmin(admin, ctx, users, page);
         }
 
         if ("addAdmin".equals(ctx)) {
-            showUsersPageForAdminAddAdmin(admin, page);
+            showUsersPageForAdminAddAdmin(admin, users, page);
         }
     }
 
-    private void showUsersPageForAdmin(User admin, String ctx, int page) {
-        ZoneId zone = cfg.zoneId();
-        int limit = 10;
-        int offset = Math.max(0, page) * limit;
-
-        List<User> users = facade.users().listUsers(offset, limit);
+    /** page < 0 marks search results, which have no prev/next navigation. */
+    private void showUsersPageForAdmin(User admin, String ctx, List<User> users, int page) {
 
         // store mapping for current page
         JsonObject sd = admin.stateData.deepCopy();
-        sd.addProperty("page", page);
+        sd.addProperty("page", Math.max(0, page));
         JsonArray ids = new JsonArray();
         for (User u : users) ids.add(u.tgId);
         sd.add("pageUserIds", ids);
-        facade.users().setState(admin.tgId, UserState.ADMIN_ASSIGN_COACH_PICK_USER_NUMBER, sd, zone);
+        facade.users().setState(admin.tgId, UserState.ADMIN_ASSIGN_COACH_PICK_USER_NUMBER, sd);
 
         StringBuilder sb = new StringBuilder();
         sb.append("👔 <b>Назначить тренера</b>\n\n");
-        sb.append("Страница: ").append(page + 1).append("\n");
-        sb.append("Введите номер пользователя (1-").append(users.size()).append("):\n\n");
+        if (page < 0) sb.append("Результаты поиска\n");
+        else sb.append("Страница: ").append(page + 1).append("\n");
+        sb.append("Введите номер пользователя (1-").append(users.size()).append(") или часть ФИО/телефона для поиска:\n\n");
         for (int i = 0; i < users.size(); i++) {
             User u = users.get(i);
             sb.append(i + 1).append(") ").append(Html.esc(nvl(u.fullName))).append(" | ").append(Html.esc(nvl(u.phone))).append("\n");
         }
 
+        sendHtml(admin.chatId, sb.toString(), adminUsersNav(ctx, users, page));
+    }
+
+    private InlineKeyboardMarkup adminUsersNav(String ctx, List<User> users, int page) {
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
         List<InlineKeyboardButton> nav = new ArrayList<>();
-        if (page > 0) nav.add(Keyboards.btn("⬅️", CallbackData.ADMIN_PAGE_PREFIX + ctx + ":" + (page - 1)));
-        nav.add(Keyboards.btn("➡️", CallbackData.ADMIN_PAGE_PREFIX + ctx + ":" + (page + 1)));
-        rows.add(nav);
+        if (page > 0) nav.add(Keyboards.btn("⬅️", CallbackData.ADMIN_PAGE_PREFIX + ctx + ":p:" + users.get(0).tgId));
+        if (page < 0) nav.add(Keyboards.btn("📋 Весь список", CallbackData.ADMIN_PAGE_PREFIX + ctx + ":n:0"));
+        else if (users.size() == ADMIN_PAGE_SIZE) nav.add(Keyboards.btn("➡️", CallbackData.ADMIN_PAGE_PREFIX + ctx + ":n:" + users.get(users.size() - 1).tgId));
+        if (!nav.isEmpty()) rows.add(nav);
         rows.add(List.of(Keyboards.btn("⬅️ В меню", CallbackData.BACK_TO_MENU)));
-
-        sendHtml(admin.chatId, sb.toString(), Keyboards.rows(rows));
+        return Keyboards.rows(rows);
     }
 
     private void handleAdminAssignCoachNumber(User admin, String text) {
-        ZoneId zone = cfg.zoneId();
         admin = facade.users().findById(admin.tgId).orElse(admin);
 
-        int n;
-        try { n = Integer.parseInt(text.trim()); } catch (Exception e) {
-            sendHtml(admin.chatId, "⚠️ Введите номер (число).", null);
-            return;
-        }
         JsonArray ids = admin.stateData.getAsJsonArray("pageUserIds");
-        if (ids == null || ids.isEmpty()) {
-            sendHtml(admin.chatId, "⚠️ Страница пользователей не найдена. Начните заново.", Keyboards.backOnly());
-            facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj(), zone);
-            return;
-        }
-        if (n < 1 || n > ids.size()) {
-            sendHtml(admin.chatId, "⚠️ Неверный номер. Введите 1-" + ids.size(), null);
+        int n = pageRow(text, ids);
+        if (n < 0) {
+            List<User> found = facade.users().search(text, ADMIN_PAGE_SIZE);
+            if (found.isEmpty()) {
+                sendHtml(admin.chatId, "🔎 Никого не нашлось. Введите номер или другую часть ФИО/телефона.", null);
+                return;
+            }
+            showUsersPageForAdmin(admin, "assignCoach", found, -1);
             return;
         }
 
@@ -1822,14 +1934,14 @@ public final class VadirssBot extends TelegramLongPollingBot {
         long teamId = admin.stateData.has("teamId") ? admin.stateData.get("teamId").getAsLong() : -1;
         if (teamId <= 0) {
             sendHtml(admin.chatId, "⚠️ Команда не выбрана.", Keyboards.backOnly());
-            facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+            facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj());
             return;
         }
 
         facade.teams().assignCoach(teamId, userId);
-        facade.users().setRole(userId, Role.COACH, zone);
+        facade.users().setRole(userId, Role.COACH);
 
-        facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+        facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj());
 
         User u = facade.users().findById(userId).orElse(null);
         String name = u != null ? nvl(u.fullName) : String.valueOf(userId);
@@ -1837,7 +1949,6 @@ public final class VadirssBot extends TelegramLongPollingBot {
     }
 
     private void showScheduleDaysMenu(User admin, long teamId) {
-        ZoneId zone = cfg.zoneId();
         List<TeamSchedule> existing = facade.schedules().listForTeam(teamId);
         Map<Integer, TeamSchedule> map = new HashMap<>();
         for (TeamSchedule s : existing) map.put(s.dayOfWeek, s);
@@ -1881,7 +1992,6 @@ public final class VadirssBot extends TelegramLongPollingBot {
     }
 
     private void handleAdminScheduleDayPicked(User admin, int day) {
-        ZoneId zone = cfg.zoneId();
         admin = facade.users().findById(admin.tgId).orElse(admin);
 
         long teamId = admin.stateData.has("teamId") ? admin.stateData.get("teamId").getAsLong() : -1;
@@ -1891,20 +2001,19 @@ public final class VadirssBot extends TelegramLongPollingBot {
         }
         JsonObject sd = admin.stateData.deepCopy();
         sd.addProperty("pendingDay", day);
-        facade.users().setState(admin.tgId, UserState.ADMIN_SCHEDULE_ENTER_TIME, sd, zone);
+        facade.users().setState(admin.tgId, UserState.ADMIN_SCHEDULE_ENTER_TIME, sd);
 
         sendHtml(admin.chatId, "⏱ Введите интервал для <b>" + dayLabel(day) + "</b> в формате <b>HH:MM-HH:MM</b>:", Keyboards.backOnly());
     }
 
     private void handleAdminScheduleTimeEntered(User admin, String text) {
-        ZoneId zone = cfg.zoneId();
         admin = facade.users().findById(admin.tgId).orElse(admin);
 
         long teamId = admin.stateData.has("teamId") ? admin.stateData.get("teamId").getAsLong() : -1;
         int day = admin.stateData.has("pendingDay") ? admin.stateData.get("pendingDay").getAsInt() : -1;
         if (teamId <= 0 || day <= 0) {
             sendHtml(admin.chatId, "⚠️ Не выбраны команда/день.", Keyboards.backOnly());
-            facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+            facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj());
             return;
         }
 
@@ -1921,7 +2030,7 @@ public final class VadirssBot extends TelegramLongPollingBot {
             JsonObject sd = admin.stateData.deepCopy();
             sd.remove("pendingDay");
             sd.addProperty("teamId", teamId);
-            facade.users().setState(admin.tgId, UserState.ADMIN_SCHEDULE_PICK_DAY, sd, zone);
+            facade.users().setState(admin.tgId, UserState.ADMIN_SCHEDULE_PICK_DAY, sd);
             showScheduleDaysMenu(admin, teamId);
         } catch (Exception e) {
             sendHtml(admin.chatId, "⚠️ Не удалось распознать время. Пример: 18:00-20:00", null);
@@ -1929,78 +2038,71 @@ public final class VadirssBot extends TelegramLongPollingBot {
     }
 
     private void startAdminAddAdmin(User admin) {
-        ZoneId zone = cfg.zoneId();
         JsonObject sd = JsonUtils.obj();
         sd.addProperty("page", 0);
-        facade.users().setState(admin.tgId, UserState.ADMIN_ADD_ADMIN_PICK_USER_NUMBER, sd, zone);
+        facade.users().setState(admin.tgId, UserState.ADMIN_ADD_ADMIN_PICK_USER_NUMBER, sd);
+        admin.stateData = sd;
 
-        showUsersPageForAdminAddAdmin(admin, 0);
+        showUsersPageForAdminAddAdmin(admin, facade.users().listUsersAfter(0, ADMIN_PAGE_SIZE), 0);
     }
 
-    private void showUsersPageForAdminAddAdmin(User admin, int page) {
-        int limit = 10;
-        int offset = Math.max(0, page) * limit;
-        List<User> users = facade.users().listUsers(offset, limit);
-
+    /** page < 0 marks search results, which have no prev/next navigation. */
+    private void showUsersPageForAdminAddAdmin(User admin, List<User> users, int page) {
         JsonObject sd = admin.stateData.deepCopy();
-        sd.addProperty("page", page);
+        sd.addProperty("page", Math.max(0, page));
         JsonArray ids = new JsonArray();
         for (User u : users) ids.add(u.tgId);
         sd.add("pageUserIds", ids);
-        facade.users().setState(admin.tgId, UserState.ADMIN_ADD_ADMIN_PICK_USER_NUMBER, sd, cfg.zoneId());
+        facade.users().setState(admin.tgId, UserState.ADMIN_ADD_ADMIN_PICK_USER_NUMBER, sd);
 
         StringBuilder sb = new StringBuilder();
         sb.append("➕ <b>Добавить администратора</b>\n\n");
-        sb.append("Страница: ").append(page + 1).append("\n");
-        sb.append("Введите номер пользователя (1-").append(users.size()).append("):\n\n");
+        if (page < 0) sb.append("Результаты поиска\n");
+        else sb.append("Страница: ").append(page + 1).append("\n");
+        sb.append("Введите номер пользователя (1-").append(users.size()).append(") или часть ФИО/телефона для поиска:\n\n");
         for (int i = 0; i < users.size(); i++) {
             User u = users.get(i);
             sb.append(i + 1).append(") ").append(Html.esc(nvl(u.fullName))).append(" | ").append(Html.esc(nvl(u.phone))).append(" | роль=").append(u.role).append("\n");
         }
 
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
-        List<InlineKeyboardButton> nav = new ArrayList<>();
-        if (page > 0) nav.add(Keyboards.btn("⬅️", "pg:addAdmin:" + (page - 1)));
-        nav.add(Keyboards.btn("➡️", "pg:addAdmin:" + (page + 1)));
-        rows.add(nav);
-        rows.add(List.of(Keyboards.btn("⬅️ В меню", CallbackData.BACK_TO_MENU)));
-
-        sendHtml(admin.chatId, sb.toString(), Keyboards.rows(rows));
+        sendHtml(admin.chatId, sb.toString(), adminUsersNav("addAdmin", users, page));
     }
 
     private void handleAdminAddAdminNumber(User admin, String text) {
-        ZoneId zone = cfg.zoneId();
         admin = facade.users().findById(admin.tgId).orElse(admin);
 
-        int n;
-        try { n = Integer.parseInt(text.trim()); } catch (Exception e) {
-            sendHtml(admin.chatId, "⚠️ Введите номер (число).", null);
-            return;
-        }
         JsonArray ids = admin.stateData.getAsJsonArray("pageUserIds");
-        if (ids == null || ids.isEmpty() || n < 1 || n > ids.size()) {
-            sendHtml(admin.chatId, "⚠️ Неверный номер.", null);
+        int n = pageRow(text, ids);
+        if (n < 0) {
+            List<User> found = facade.users().search(text, ADMIN_PAGE_SIZE);
+            if (found.isEmpty()) {
+                sendHtml(admin.chatId, "🔎 Никого не нашлось. Введите номер или другую часть ФИО/телефона.", null);
+                return;
+            }
+            showUsersPageForAdminAddAdmin(admin, found, -1);
             return;
         }
         long userId = ids.get(n - 1).getAsLong();
-        facade.users().setRole(userId, Role.ADMIN, zone);
-        facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+        facade.users().setRole(userId, Role.ADMIN);
+        facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj());
 
         User u = facade.users().findById(userId).orElse(null);
         sendHtml(admin.chatId, "✅ Администратор добавлен: <b>" + Html.esc(u != null ? nvl(u.fullName) : String.valueOf(userId)) + "</b>", Keyboards.backOnly());
     }
 
     private void startAdminRemoveAdmin(User admin) {
-        ZoneId zone = cfg.zoneId();
         JsonObject sd = JsonUtils.obj();
         sd.addProperty("page", 0);
-        facade.users().setState(admin.tgId, UserState.ADMIN_REMOVE_ADMIN_PICK_NUMBER, sd, zone);
+        facade.users().setState(admin.tgId, UserState.ADMIN_REMOVE_ADMIN_PICK_NUMBER, sd);
 
         showAdminsList(admin);
     }
 
     private void showAdminsList(User admin) {
-        List<User> admins = facade.users().listAdmins(0, 100);
+        showAdminsList(admin, facade.users().listAdminsAfter(0, 100));
+    }
+
+    private void showAdminsList(User admin, List<User> admins) {
         StringBuilder sb = new StringBuilder();
         sb.append("🗑 <b>Удалить администратора</b>\n\n");
         if (admins.isEmpty()) {
@@ -2018,23 +2120,26 @@ public final class VadirssBot extends TelegramLongPollingBot {
         JsonArray ids = new JsonArray();
         for (User u : admins) ids.add(u.tgId);
         sd.add("adminIds", ids);
-        facade.users().setState(admin.tgId, UserState.ADMIN_REMOVE_ADMIN_PICK_NUMBER, sd, cfg.zoneId());
+        facade.users().setState(admin.tgId, UserState.ADMIN_REMOVE_ADMIN_PICK_NUMBER, sd);
 
         sendHtml(admin.chatId, sb.toString(), Keyboards.backOnly());
     }
 
     private void handleAdminRemoveAdminNumber(User admin, String text) {
-        ZoneId zone = cfg.zoneId();
         admin = facade.users().findById(admin.tgId).orElse(admin);
 
-        int n;
-        try { n = Integer.parseInt(text.trim()); } catch (Exception e) {
-            sendHtml(admin.chatId, "⚠️ Введите номер (число).", null);
-            return;
-        }
         JsonArray ids = admin.stateData.getAsJsonArray("adminIds");
-        if (ids == null || ids.isEmpty() || n < 1 || n > ids.size()) {
-            sendHtml(admin.chatId, "⚠️ Неверный номер.", null);
+        int n = pageRow(text, ids);
+        if (n < 0) {
+            List<User> found = new ArrayList<>();
+            for (User u : facade.users().search(text, ADMIN_PAGE_SIZE)) {
+                if (u.role == Role.ADMIN) found.add(u);
+            }
+            if (found.isEmpty()) {
+                sendHtml(admin.chatId, "🔎 Среди администраторов никого не нашлось. Введите номер или часть ФИО/телефона.", null);
+                return;
+            }
+            showAdminsList(admin, found);
             return;
         }
         long userId = ids.get(n - 1).getAsLong();
@@ -2042,13 +2147,21 @@ public final class VadirssBot extends TelegramLongPollingBot {
             sendHtml(admin.chatId, "⚠️ Нельзя удалить самого себя.", null);
             return;
         }
-        facade.users().setRole(userId, Role.PLAYER, zone);
-        facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj(), zone);
+        facade.users().setRole(userId, Role.PLAYER);
+        facade.users().setState(admin.tgId, UserState.IDLE, JsonUtils.obj());
 
         User u = facade.users().findById(userId).orElse(null);
         sendHtml(admin.chatId, "🗑 Администратор удален: <b>" + Html.esc(u != null ? nvl(u.fullName) : String.valueOf(userId)) + "</b>", Keyboards.backOnly());
     }
 
+    /** Row number (1-based) on the listed page, or -1 when the input is not one and should be searched for instead. */
+    private static int pageRow(String text, JsonArray ids) {
+        if (ids == null) return -1;
+        int n;
+        try { n = Integer.parseInt(text.trim()); } catch (NumberFormatException e) { return -1; }
+        return n >= 1 && n <= ids.size() ? n : -1;
+    }
+
     // --- Help & achievements guide ---
 
     private void sendHelp(long chatId) {
@@ -2091,10 +2204,38 @@ public final class VadirssBot extends TelegramLongPollingBot {
         a.setText(text);
         a.setShowAlert(alert);
         try {
-            execute(a);
+            call(null, () -> execute(a));
         } catch (TelegramApiException ignored) {}
     }
 
+    public RateLimiter.Stats rateLimitStats() {
+        return limiter.stats();
+    }
+
+    /**
+     * Every Bot API call goes through here: waits for the rate limiter ({@code chatId} null for calls
+     * not tied to a chat), and after a 429 pauses that bucket and retries once if the wait is short.
+     */
+    private <T> T call(Long chatId, ApiCall<T> call) throws TelegramApiException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                limiter.acquire(chatId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TelegramApiException("Interrupted while waiting for the rate limiter", e);
+            }
+            try {
+                return call.run();
+            } catch (TelegramApiRequestException e) {
+                Integer code = e.getErrorCode();
+                Integer retryAfter = e.getParameters() == null ? null : e.getParameters().getRetryAfter();
+                if (code == null || code != 429 || retryAfter == null) throw e;
+                limiter.pause(chatId, retryAfter);
+                if (attempt > 0 || retryAfter > MAX_INLINE_RETRY_AFTER_S) throw e;
+            }
+        }
+    }
+
     private String limit(String text) {
         if (text == null) return "";
         if (text.length() <= cfg.maxMessageLen()) return text;
@@ -0,0 +1,144 @@
+package ru.vadirss.bot.telegram;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.vadirss.bot.config.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Receives updates over HTTP instead of long polling. Telegram POSTs each update as JSON to
+ * {@code WEBHOOK_URL + WEBHOOK_PATH}; the body is parsed here and handed to the bot's dispatcher,
+ * and the request is answered right away. TLS is expected to be terminated by a proxy in front.
+ */
+public final class WebhookServer implements AutoCloseable {
+
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    static final int MAX_BODY_BYTES = 1 << 20;
+
+    private final Config cfg;
+    private final Consumer<Update> sink;
+    private final String apiBaseUrl;
+    private final ObjectMapper json = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService io;
+
+    public WebhookServer(Config cfg, VadirssBot bot) throws IOException {
+        this(cfg, bot::onUpdateReceived, apiBaseUrl(bot));
+    }
+
+    /** {@code sink} gets every accepted update; {@code apiBaseUrl} is where {@link #register()} calls setWebhook. */
+    WebhookServer(Config cfg, Consumer<Update> sink, String apiBaseUrl) throws IOException {
+        this.cfg = cfg;
+        this.sink = sink;
+        this.apiBaseUrl = apiBaseUrl;
+        this.server = HttpServer.create(new InetSocketAddress(cfg.webhookPort()), 0);
+        AtomicInteger n = new AtomicInteger();
+        // parsing only; handlers run on the update dispatcher
+        this.io = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "vadirss-webhook-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(io);
+        server.createContext(cfg.webhookPath(), this::handle);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Webhook server listening on port " + port() + ", path " + cfg.webhookPath());
+    }
+
+    /** The bound port; differs from the configured one when that is 0. */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** Points Telegram at this server (setWebhook). */
+    public void register() throws IOException, InterruptedException {
+        String url = cfg.webhookUrl().replaceAll("/+$", "") + cfg.webhookPath();
+        StringBuilder form = new StringBuilder()
+                .append("url=").append(URLEncoder.encode(url, StandardCharsets.UTF_8))
+                .append("&allowed_updates=").append(URLEncoder.encode("[\"message\",\"callback_query\"]", StandardCharsets.UTF_8));
+        if (!cfg.webhookSecret().isBlank()) {
+            form.append("&secret_token=").append(URLEncoder.encode(cfg.webhookSecret(), StandardCharsets.UTF_8));
+        }
+
+        HttpRequest req = HttpRequest.newBuilder(URI.create(apiBaseUrl + cfg.botToken() + "/setWebhook"))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form.toString()))
+                .build();
+        HttpResponse<String> resp = HttpClient.newHttpClient().send(req, HttpResponse.BodyHandlers.ofString());
+        if (resp.statusCode() != 200) {
+            throw new IOException("setWebhook failed: HTTP " + resp.statusCode() + " " + resp.body());
+        }
+        System.out.println("Webhook registered: " + url);
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        io.shutdown();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!secretMatches(ex.getRequestHeaders().getFirst(SECRET_HEADER))) {
+                ex.sendResponseHeaders(401, -1);
+                return;
+            }
+
+            Update update;
+            try (InputStream in = ex.getRequestBody()) {
+                byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+                if (body.length > MAX_BODY_BYTES) {
+                    ex.sendResponseHeaders(413, -1);
+                    return;
+                }
+                update = json.readValue(body, Update.class);
+            } catch (IOException e) {
+                // a 4xx makes Telegram redeliver the same body again and again; drop it instead
+                System.err.println("Webhook: dropped unreadable update: " + e.getMessage());
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            // the dispatcher only queues, so Telegram gets its 200 without waiting for the handler
+            sink.accept(update);
+            ex.sendResponseHeaders(200, -1);
+        }
+    }
+
+    private boolean secretMatches(String given) {
+        String expected = cfg.webhookSecret();
+        if (expected.isBlank()) return true;
+        if (given == null) return false;
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String apiBaseUrl(VadirssBot bot) {
+        String base = bot.getOptions() == null ? null : bot.getOptions().getBaseUrl();
+        return base == null || base.isBlank() ? "https://api.telegram.org/bot" : base;
+    }
+}
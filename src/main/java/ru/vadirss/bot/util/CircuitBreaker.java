@@ -0,0 +1,68 @@
+package ru.vadirss.bot.util;
+
+/**
+ * Consecutive-failure circuit breaker. After {@code failureThreshold} failures in a row it opens for
+ * {@code openMillis}; then a single trial call is let through, and its outcome closes or reopens it.
+ * Thread-safe.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil;
+    private long opened;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /** @return whether a call may go ahead now; a true result while half-open reserves the trial call */
+    public synchronized boolean allow(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now < openUntil) return false;
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // the trial call is still running
+                return false;
+        }
+    }
+
+    /** @return true if this success closed an open breaker */
+    public synchronized boolean onSuccess() {
+        failures = 0;
+        boolean wasOpen = state != State.CLOSED;
+        state = State.CLOSED;
+        return wasOpen;
+    }
+
+    /** @return true if this failure opened the breaker */
+    public synchronized boolean onFailure(long now) {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openUntil = now + openMillis;
+            opened++;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /** How many times the breaker has opened. */
+    public synchronized long timesOpened() {
+        return opened;
+    }
+}
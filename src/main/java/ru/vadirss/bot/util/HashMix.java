@@ -0,0 +1,16 @@
+package ru.vadirss.bot.util;
+
+/** Hash spreading shared by the primitive-keyed maps. */
+final class HashMix {
+    private HashMix() {}
+
+    /** MurmurHash3 fmix64: sequential ids (tg_id, row ids) end up spread over the whole table. */
+    static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
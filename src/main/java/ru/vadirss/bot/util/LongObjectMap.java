@@ -0,0 +1,196 @@
+package ru.vadirss.bot.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive {@code long} to an object: no {@code Long} boxing and
+ * no entry objects. Linear probing with backward-shift deletion (no tombstones).
+ * Not thread-safe.
+ */
+public final class LongObjectMap<V> {
+
+    @FunctionalInterface
+    public interface Consumer<V> {
+        void accept(long key, V value);
+    }
+
+    @FunctionalInterface
+    public interface Predicate<V> {
+        boolean test(long key, V value);
+    }
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // key 0 marks a free slot, so a real 0 key lives outside the table
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    private boolean hasZeroKey;
+    private V zeroValue;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) return hasZeroKey;
+        return slotOf(key) >= 0;
+    }
+
+    public V get(long key) {
+        return getOrDefault(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(long key, V def) {
+        if (key == 0) return hasZeroKey ? zeroValue : def;
+        int slot = slotOf(key);
+        return slot < 0 ? def : (V) values[slot];
+    }
+
+    /** @return the previous value, or {@code null} */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == 0) {
+            V prev = zeroValue;
+            hasZeroKey = true;
+            zeroValue = value;
+            return prev;
+        }
+        int i = HashMix.mix(key) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                V prev = (V) values[i];
+                values[i] = value;
+                return prev;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size >= resizeAt) rehash(keys.length * 2);
+        return null;
+    }
+
+    /** @return the removed value, or {@code null} */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == 0) {
+            V prev = zeroValue;
+            hasZeroKey = false;
+            zeroValue = null;
+            return prev;
+        }
+        int slot = slotOf(key);
+        if (slot < 0) return null;
+        V prev = (V) values[slot];
+        shiftBack(slot);
+        size--;
+        return prev;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(values, null);
+        size = 0;
+        hasZeroKey = false;
+        zeroValue = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> action) {
+        if (hasZeroKey) action.accept(0L, zeroValue);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) action.accept(keys[i], (V) values[i]);
+        }
+    }
+
+    /** Removes matching entries in place, without collecting keys first. @return how many were removed */
+    @SuppressWarnings("unchecked")
+    public int removeIf(Predicate<? super V> filter) {
+        int removed = 0;
+        if (hasZeroKey && filter.test(0L, zeroValue)) {
+            hasZeroKey = false;
+            zeroValue = null;
+            removed++;
+        }
+        for (int i = 0; i < keys.length; ) {
+            if (keys[i] != 0 && filter.test(keys[i], (V) values[i])) {
+                // the shift may pull a not yet visited entry into slot i, so look at it again
+                shiftBack(i);
+                size--;
+                removed++;
+            } else {
+                i++;
+            }
+        }
+        return removed;
+    }
+
+    private int slotOf(long key) {
+        int i = HashMix.mix(key) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // close the gap at 'gap' by pulling back entries of the same probe run
+    private void shiftBack(int gap) {
+        int i = (gap + 1) & mask;
+        while (keys[i] != 0) {
+            int home = HashMix.mix(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(newCapacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k == 0) continue;
+            int i = HashMix.mix(k) & mask;
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = k;
+            values[i] = oldValues[j];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = Math.max(1, (int) (capacity * LOAD_FACTOR));
+    }
+
+    static int tableSizeFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 4) / (double) LOAD_FACTOR);
+        if (needed > (1 << 30)) throw new IllegalArgumentException("Map too large: " + expectedSize);
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+}
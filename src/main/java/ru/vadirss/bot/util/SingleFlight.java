@@ -0,0 +1,46 @@
+package ru.vadirss.bot.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * At most one running computation per key. A caller asking for a key whose computation is still running
+ * waits for it and gets the same result (or exception) instead of starting its own.
+ * Nothing is cached: once a computation finishes, the next call for its key runs it again.
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> running = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    public V run(K key, Supplier<V> work) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> shared = running.putIfAbsent(key, mine);
+        if (shared != null) {
+            coalesced.increment();
+            try {
+                return shared.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+        try {
+            V v = work.get();
+            mine.complete(v);
+            return v;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(key, mine);
+        }
+    }
+
+    /** Calls that got the result of another caller's computation. */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+}
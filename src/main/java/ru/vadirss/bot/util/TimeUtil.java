@@ -33,6 +33,21 @@ public final class TimeUtil {
         return d.format(DATE);
     }
 
+    // Stored form: instants are INTEGER epoch millis, calendar dates are INTEGER epoch days.
+
+    public static long toMillis(LocalDateTime dt, ZoneId zone) {
+        return dt.atZone(zone).toInstant().toEpochMilli();
+    }
+
+    public static LocalDateTime fromMillis(long millis, ZoneId zone) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), zone);
+    }
+
+    /** First millisecond of {@code d} in {@code zone}; [startOfDay(d), startOfDay(d+1)) is the whole day. */
+    public static long startOfDay(LocalDate d, ZoneId zone) {
+        return d.atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
     public static LocalTime parseTime(String hhmm) {
         return LocalTime.parse(hhmm);
     }
@@ -0,0 +1,56 @@
+package ru.vadirss.bot.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.vadirss.bot.config.Config;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryPlanCheckTest {
+
+    private Path dir;
+    private Database db;
+
+    @BeforeEach
+    void migrate() throws Exception {
+        dir = Files.createTempDirectory("plan-test");
+        System.setProperty("DB_PATH", dir.resolve("bot.db").toString());
+        db = new Database(Config.load());
+        Schema.migrate(db);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        db.close();
+        System.clearProperty("DB_PATH");
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    @Test
+    void hotQueriesUseIndexesOnMigratedSchema() throws Exception {
+        List<String> scans = QueryPlanCheck.fullScans(db);
+        assertTrue(scans.isEmpty(), () -> "full table scans:\n" + String.join("\n", scans));
+    }
+
+    @Test
+    void reportsScanWhenIndexIsMissing() throws Exception {
+        db.run(c -> {
+            try (var st = c.createStatement()) {
+                st.execute("DROP INDEX idx_outbox_status_next");
+            }
+        });
+        List<String> scans = QueryPlanCheck.fullScans(db);
+        assertFalse(scans.isEmpty());
+        assertTrue(scans.stream().anyMatch(s -> s.contains("outbox")), () -> String.join("\n", scans));
+    }
+}
@@ -0,0 +1,161 @@
+package ru.vadirss.bot.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.vadirss.bot.config.Config;
+import ru.vadirss.bot.db.Database;
+import ru.vadirss.bot.db.Schema;
+import ru.vadirss.bot.model.Team;
+import ru.vadirss.bot.model.User;
+import ru.vadirss.bot.util.CircuitBreaker;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** AiService against a local stand-in for the completions endpoint that only ever fails. */
+class AiServiceTest {
+
+    private static final int TIMEOUT_MS = 200;
+    private static final int BREAKER_FAILURES = 3;
+    private static final List<String> PROPS = List.of("DB_PATH", "TIMEWEB_BASE_URL", "TIMEWEB_API_TOKEN",
+            "AI_REQUEST_TIMEOUT_MS", "AI_BREAKER_FAILURES", "AI_BREAKER_OPEN_SECONDS", "AI_MAX_CONCURRENT");
+
+    private final AtomicInteger hits = new AtomicInteger();
+    // how long the endpoint sits on a request before answering 500
+    private volatile long delayMs;
+
+    private HttpServer endpoint;
+    private ExecutorService endpointThreads;
+    private Path dir;
+    private Database db;
+    private AiService ai;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        endpoint = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        endpointThreads = Executors.newCachedThreadPool();
+        endpoint.setExecutor(endpointThreads);
+        endpoint.createContext("/v1/chat/completions", ex -> {
+            try (ex) {
+                hits.incrementAndGet();
+                ex.getRequestBody().readAllBytes();
+                if (delayMs > 0) Thread.sleep(delayMs);
+                ex.sendResponseHeaders(500, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ignored) {
+                // the client gave up already
+            }
+        });
+        endpoint.start();
+
+        dir = Files.createTempDirectory("ai-test");
+        System.setProperty("DB_PATH", dir.resolve("bot.db").toString());
+        System.setProperty("TIMEWEB_BASE_URL", "http://127.0.0.1:" + endpoint.getAddress().getPort());
+        System.setProperty("TIMEWEB_API_TOKEN", "test-token");
+        System.setProperty("AI_REQUEST_TIMEOUT_MS", String.valueOf(TIMEOUT_MS));
+        System.setProperty("AI_BREAKER_FAILURES", String.valueOf(BREAKER_FAILURES));
+        System.setProperty("AI_BREAKER_OPEN_SECONDS", "60");
+        System.setProperty("AI_MAX_CONCURRENT", "1");
+        Config cfg = Config.load();
+        db = new Database(cfg);
+        Schema.migrate(db);
+        ai = new AiService(cfg, db);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        endpoint.stop(0);
+        endpointThreads.shutdownNow();
+        db.close();
+        PROPS.forEach(System::clearProperty);
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    @Test
+    void slowEndpointTimesOutToFallbackChallenge() {
+        delayMs = TIMEOUT_MS * 3L;
+
+        String text = ai.generateChallenge(player(), team());
+
+        assertTrue(AiService.FALLBACK_CHALLENGES.contains(text), "not a fallback: " + text);
+        AiService.AiStats s = stats(AiService.PromptKind.CHALLENGE);
+        assertEquals(1, s.calls());
+        assertEquals(0, s.ok());
+        assertEquals(1, s.failed());
+        assertEquals(1, s.timeouts());
+        assertTrue(s.avgLatencyMs() >= TIMEOUT_MS * 0.9, "latency " + s.avgLatencyMs());
+        assertTrue(s.avgLatencyMs() < TIMEOUT_MS * 3, "waited for the slow answer: " + s.avgLatencyMs());
+        assertTrue(s.maxLatencyMs() >= s.avgLatencyMs());
+    }
+
+    @Test
+    void failingEndpointFallsBackToQuote() {
+        String quote = ai.getOrCreateDailyQuote(LocalDate.of(2024, 10, 1));
+
+        assertTrue(AiService.FALLBACK_QUOTES.contains(quote), "not a fallback: " + quote);
+        AiService.AiStats s = stats(AiService.PromptKind.QUOTE);
+        assertEquals(1, s.calls());
+        assertEquals(1, s.failed());
+        assertEquals(0, s.timeouts());
+        assertTrue(s.maxLatencyMs() > 0);
+        // the fallback is stored, so the same day does not ask again
+        assertEquals(quote, ai.getOrCreateDailyQuote(LocalDate.of(2024, 10, 1)));
+        assertEquals(1, hits.get());
+    }
+
+    @Test
+    void breakerOpensAfterThresholdAndStopsCallingEndpoint() {
+        for (int i = 0; i < BREAKER_FAILURES; i++) {
+            assertEquals(CircuitBreaker.State.CLOSED, ai.breakerState());
+            assertTrue(AiService.FALLBACK_CHALLENGES.contains(ai.generateChallenge(player(), team())));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, ai.breakerState());
+        assertEquals(BREAKER_FAILURES, hits.get());
+
+        String text = ai.generateChallenge(player(), team());
+
+        assertTrue(AiService.FALLBACK_CHALLENGES.contains(text), "not a fallback: " + text);
+        assertEquals(BREAKER_FAILURES, hits.get(), "endpoint called while the breaker is open");
+        AiService.AiStats s = stats(AiService.PromptKind.CHALLENGE);
+        assertEquals(BREAKER_FAILURES + 1, s.calls());
+        assertEquals(BREAKER_FAILURES, s.failed());
+        assertEquals(1, s.breakerOpen());
+        assertFalse(ai.idle());
+    }
+
+    private AiService.AiStats stats(AiService.PromptKind kind) {
+        return ai.stats().stream().filter(s -> s.kind() == kind).findFirst().orElseThrow();
+    }
+
+    private static User player() {
+        User u = new User();
+        u.tgId = 1001;
+        u.chatId = 1001;
+        u.fullName = "Иван Петров";
+        u.position = "Нападающий";
+        return u;
+    }
+
+    private static Team team() {
+        Team t = new Team();
+        t.id = 1;
+        t.name = "U-12";
+        return t;
+    }
+}
@@ -0,0 +1,134 @@
+package ru.vadirss.bot.telegram;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.vadirss.bot.config.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookServerTest {
+
+    private static final String SECRET = "s3cr3t-token";
+    private static final String PATH = "/telegram";
+
+    private final BlockingQueue<Update> received = new LinkedBlockingQueue<>();
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private WebhookServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = startServer(SECRET);
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+        System.clearProperty("WEBHOOK_PORT");
+        System.clearProperty("WEBHOOK_PATH");
+        System.clearProperty("WEBHOOK_SECRET");
+    }
+
+    @Test
+    void messageWithSecretIsDispatched() throws Exception {
+        assertEquals(200, post(recorded("message.json"), SECRET));
+
+        Update update = received.poll();
+        assertNotNull(update, "update not dispatched");
+        assertEquals(Integer.valueOf(815201441), update.getUpdateId());
+        assertTrue(update.hasMessage());
+        assertEquals("/start", update.getMessage().getText());
+        assertEquals(Long.valueOf(402118833L), update.getMessage().getChatId());
+        assertNull(received.poll());
+    }
+
+    @Test
+    void callbackWithSecretIsDispatched() throws Exception {
+        assertEquals(200, post(recorded("callback_query.json"), SECRET));
+
+        Update update = received.poll();
+        assertNotNull(update, "update not dispatched");
+        assertTrue(update.hasCallbackQuery());
+        assertEquals("m:p", update.getCallbackQuery().getData());
+        assertEquals(Long.valueOf(402118833L), update.getCallbackQuery().getFrom().getId());
+        assertEquals(Integer.valueOf(1208), update.getCallbackQuery().getMessage().getMessageId());
+    }
+
+    @Test
+    void missingOrWrongSecretIsRejected() throws Exception {
+        assertEquals(401, post(recorded("message.json"), null));
+        assertEquals(401, post(recorded("callback_query.json"), "not-the-secret"));
+        assertNull(received.poll());
+    }
+
+    @Test
+    void noSecretConfiguredAcceptsAnyCaller() throws Exception {
+        server.close();
+        server = startServer("");
+
+        assertEquals(200, post(recorded("message.json"), null));
+        assertNotNull(received.poll());
+    }
+
+    @Test
+    void oversizedBodyIsRejected() throws Exception {
+        byte[] body = new byte[WebhookServer.MAX_BODY_BYTES + 1];
+        Arrays.fill(body, (byte) ' ');
+        assertEquals(413, post(body, SECRET));
+        assertNull(received.poll());
+    }
+
+    @Test
+    void unreadableBodyIsAcknowledgedAndDropped() throws Exception {
+        // Telegram would redeliver on a 4xx forever
+        assertEquals(200, post("{\"update_id\": ".getBytes(), SECRET));
+        assertNull(received.poll());
+    }
+
+    @Test
+    void onlyPostIsAllowed() throws Exception {
+        HttpRequest req = HttpRequest.newBuilder(url()).GET().build();
+        assertEquals(405, http.send(req, HttpResponse.BodyHandlers.discarding()).statusCode());
+    }
+
+    private WebhookServer startServer(String secret) throws IOException {
+        System.setProperty("WEBHOOK_PORT", "0");
+        System.setProperty("WEBHOOK_PATH", PATH);
+        System.setProperty("WEBHOOK_SECRET", secret);
+        WebhookServer s = new WebhookServer(Config.load(), received::add, "http://127.0.0.1:1/bot");
+        s.start();
+        return s;
+    }
+
+    private int post(byte[] body, String secret) throws Exception {
+        HttpRequest.Builder req = HttpRequest.newBuilder(url())
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        if (secret != null) req.header("X-Telegram-Bot-Api-Secret-Token", secret);
+        return http.send(req.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private URI url() {
+        return URI.create("http://127.0.0.1:" + server.port() + PATH);
+    }
+
+    private static byte[] recorded(String name) throws IOException {
+        try (InputStream in = WebhookServerTest.class.getResourceAsStream("/updates/" + name)) {
+            assertNotNull(in, name);
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package ru.vadirss.bot.tools;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ru.vadirss.bot.util.JsonUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the Telegram Bot API, for load tests. Synthetic players send messages (and press
+ * the inline buttons the bot showed them) through {@code getUpdates}; every Bot API call of the bot is
+ * answered after an injected latency, and a share of them with 429. Every 10 s it prints call counts and
+ * the end-to-end latency from an update being handed out to the bot's first call for that chat.
+ * Like Telegram, {@code getUpdates} hands out the same updates again until a later call's {@code offset}
+ * confirms them, so a bot that loses a batch is caught redelivering rather than silently dropping it.
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) ru.vadirss.bot.tools.MockTelegramServer --port=8081 --players=2000 --rate=200
+ * TELEGRAM_API_URL=http://localhost:8081/bot BOT_TOKEN=test java -jar target/vadirss-bot-1.0.0.jar
+ * </pre>
+ *
+ * Options (all {@code --name=value}): {@code port} 8081, {@code players} 1000, {@code first-chat-id} 1000000000
+ * (chat ids match the users of {@link SyntheticDataGenerator}), {@code rate} updates per second 50, {@code texts} comma separated messages "/start", {@code press} chance to
+ * press a shown button instead of typing 0.5, {@code latency-ms} 50, {@code jitter-ms} 50, {@code rate-429}
+ * share of calls answered 429 0.0, {@code retry-after} seconds 1.
+ */
+public final class MockTelegramServer {
+
+    private static final int REPORT_SECONDS = 10;
+    private static final int LATENCY_SAMPLES = 1 << 16;
+    private static final Pattern METHOD_PATH = Pattern.compile("^/bot[^/]+/([A-Za-z]+)$");
+    private static final Pattern MULTIPART_CHAT_ID = Pattern.compile("name=\"chat_id\"\\r\\n(?:[^\\r\\n]*\\r\\n)*\\r\\n(-?\\d+)");
+
+    /** Buttons of the last inline keyboard the bot sent to a chat. */
+    private record Keyboard(long messageId, List<String> callbacks) {}
+
+    private final int players;
+    private final long firstChatId;
+    private final double ratePerSecond;
+    private final List<String> texts;
+    private final double press;
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double rate429;
+    private final int retryAfter;
+
+    private final HttpServer server;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "mock-telegram-ticker");
+        t.setDaemon(true);
+        return t;
+    });
+    private final LinkedBlockingQueue<JsonObject> pendingUpdates = new LinkedBlockingQueue<>();
+    // handed out by getUpdates but not yet confirmed by a later offset, by update_id
+    private final ConcurrentSkipListMap<Long, JsonObject> unconfirmed = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Long, Keyboard> keyboards = new ConcurrentHashMap<>();
+    // chat -> when its oldest unanswered update was handed to the bot (nanoTime)
+    private final ConcurrentHashMap<Long, Long> awaitingReply = new ConcurrentHashMap<>();
+    private final AtomicLong updateIds = new AtomicLong();
+    private final AtomicLong messageIds = new AtomicLong(1_000);
+    private double owed;
+
+    // metrics
+    private final ConcurrentHashMap<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private final LongAdder produced = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder redelivered = new LongAdder();
+    private final LongAdder injected429 = new LongAdder();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long latencyCount;
+
+    private MockTelegramServer(Map<String, String> opt) throws IOException {
+        this.players = Integer.parseInt(opt.getOrDefault("players", "1000"));
+        this.firstChatId = Long.parseLong(opt.getOrDefault("first-chat-id", "1000000000"));
+        this.ratePerSecond = Double.parseDouble(opt.getOrDefault("rate", "50"));
+        this.texts = List.of(opt.getOrDefault("texts", "/start").split(","));
+        this.press = Double.parseDouble(opt.getOrDefault("press", "0.5"));
+        this.latencyMs = Long.parseLong(opt.getOrDefault("latency-ms", "50"));
+        this.jitterMs = Long.parseLong(opt.getOrDefault("jitter-ms", "50"));
+        this.rate429 = Double.parseDouble(opt.getOrDefault("rate-429", "0"));
+        this.retryAfter = Integer.parseInt(opt.getOrDefault("retry-after", "1"));
+
+        int port = Integer.parseInt(opt.getOrDefault("port", "8081"));
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        // handlers sleep for the injected latency, so allow plenty of them at once
+        server.setExecutor(Executors.newFixedThreadPool(128));
+        server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--") || !a.contains("=")) throw new IllegalArgumentException("Expected --name=value, got " + a);
+            opt.put(a.substring(2, a.indexOf('=')), a.substring(a.indexOf('=') + 1));
+        }
+        MockTelegramServer mock = new MockTelegramServer(opt);
+        mock.start();
+        System.out.println("Mock Bot API on port " + mock.server.getAddress().getPort() +
+                ", " + mock.players + " players, " + mock.ratePerSecond + " updates/s");
+        Thread.currentThread().join();
+    }
+
+    private void start() {
+        server.start();
+        ticker.scheduleAtFixedRate(this::produce, 10, 10, TimeUnit.MILLISECONDS);
+        ticker.scheduleAtFixedRate(this::report, REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // --- synthetic players ---
+
+    private void produce() {
+        owed += ratePerSecond / 100.0;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        while (owed >= 1.0) {
+            owed -= 1.0;
+            long chatId = firstChatId + rnd.nextInt(players);
+            Keyboard kb = keyboards.get(chatId);
+            JsonObject update = kb != null && !kb.callbacks().isEmpty() && rnd.nextDouble() < press
+                    ? callbackUpdate(chatId, kb.messageId(), kb.callbacks().get(rnd.nextInt(kb.callbacks().size())))
+                    : messageUpdate(chatId, texts.get(rnd.nextInt(texts.size())));
+            pendingUpdates.add(update);
+            produced.increment();
+        }
+    }
+
+    private JsonObject messageUpdate(long chatId, String text) {
+        JsonObject m = message(messageIds.incrementAndGet(), chatId);
+        m.add("from", user(chatId));
+        m.addProperty("text", text);
+        if (text.startsWith("/")) {
+            JsonObject entity = new JsonObject();
+            entity.addProperty("type", "bot_command");
+            entity.addProperty("offset", 0);
+            entity.addProperty("length", text.split(" ")[0].length());
+            JsonArray entities = new JsonArray();
+            entities.add(entity);
+            m.add("entities", entities);
+        }
+        JsonObject u = new JsonObject();
+        u.addProperty("update_id", updateIds.incrementAndGet());
+        u.add("message", m);
+        return u;
+    }
+
+    private JsonObject callbackUpdate(long chatId, long messageId, String data) {
+        JsonObject cb = new JsonObject();
+        cb.addProperty("id", Long.toString(updateIds.get() + 1));
+        cb.add("from", user(chatId));
+        cb.add("message", message(messageId, chatId));
+        cb.addProperty("chat_instance", Long.toString(chatId));
+        cb.addProperty("data", data);
+        JsonObject u = new JsonObject();
+        u.addProperty("update_id", updateIds.incrementAndGet());
+        u.add("callback_query", cb);
+        return u;
+    }
+
+    private static JsonObject user(long chatId) {
+        JsonObject u = new JsonObject();
+        u.addProperty("id", chatId);
+        u.addProperty("is_bot", false);
+        u.addProperty("first_name", "Player " + chatId);
+        return u;
+    }
+
+    private static JsonObject message(long messageId, long chatId) {
+        JsonObject chat = new JsonObject();
+        chat.addProperty("id", chatId);
+        chat.addProperty("type", "private");
+        JsonObject m = new JsonObject();
+        m.addProperty("message_id", messageId);
+        m.addProperty("date", System.currentTimeMillis() / 1000);
+        m.add("chat", chat);
+        return m;
+    }
+
+    // --- Bot API ---
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            Matcher path = METHOD_PATH.matcher(ex.getRequestURI().getPath());
+            if (!path.matches()) {
+                respond(ex, 404, error(404, "Not Found"));
+                return;
+            }
+            String method = path.group(1).toLowerCase(Locale.ROOT);
+            calls.computeIfAbsent(method, k -> new LongAdder()).increment();
+            byte[] body = ex.getRequestBody().readAllBytes();
+            String contentType = Objects.requireNonNullElse(ex.getRequestHeaders().getFirst("Content-Type"), "");
+            JsonObject params = params(contentType, body, ex.getRequestURI().getRawQuery());
+
+            if (method.equals("getupdates")) {
+                respond(ex, 200, ok(getUpdates(params)));
+                return;
+            }
+
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            long delay = latencyMs + (jitterMs > 0 ? rnd.nextLong(jitterMs + 1) : 0);
+            if (delay > 0) Thread.sleep(delay);
+            if (rate429 > 0 && rnd.nextDouble() < rate429) {
+                injected429.increment();
+                JsonObject err = error(429, "Too Many Requests: retry after " + retryAfter);
+                JsonObject p = new JsonObject();
+                p.addProperty("retry_after", retryAfter);
+                err.add("parameters", p);
+                respond(ex, 429, err);
+                return;
+            }
+
+            Long chatId = chatId(params, contentType, body);
+            if (chatId != null) replied(chatId);
+            respond(ex, 200, ok(answer(method, params, chatId)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * An {@code offset} confirms every update below it. Updates handed out before and not confirmed yet are
+     * returned again; only when none are left does the call wait for new ones. Assumes one poller, as Telegram does.
+     */
+    private JsonArray getUpdates(JsonObject params) throws InterruptedException {
+        int limit = params.has("limit") ? Math.max(1, Math.min(100, params.get("limit").getAsInt())) : 100;
+        int timeout = params.has("timeout") ? params.get("timeout").getAsInt() : 0;
+        long offset = params.has("offset") ? params.get("offset").getAsLong() : 0;
+        JsonArray out = new JsonArray();
+        unconfirmed.headMap(offset).clear();
+        if (!unconfirmed.isEmpty()) {
+            for (JsonObject u : unconfirmed.values()) {
+                if (out.size() == limit) break;
+                out.add(u);
+            }
+            redelivered.add(out.size());
+            return out;
+        }
+
+        JsonObject first = pendingUpdates.poll(Math.min(timeout, 30), TimeUnit.SECONDS);
+        if (first == null) return out;
+        List<JsonObject> batch = new ArrayList<>();
+        batch.add(first);
+        pendingUpdates.drainTo(batch, limit - 1);
+        long now = System.nanoTime();
+        for (JsonObject u : batch) {
+            long chatId = u.has("message")
+                    ? u.getAsJsonObject("message").getAsJsonObject("chat").get("id").getAsLong()
+                    : u.getAsJsonObject("callback_query").getAsJsonObject("from").get("id").getAsLong();
+            awaitingReply.putIfAbsent(chatId, now);
+            unconfirmed.put(u.get("update_id").getAsLong(), u);
+            out.add(u);
+        }
+        delivered.add(batch.size());
+        return out;
+    }
+
+    private JsonElement answer(String method, JsonObject params, Long chatId) {
+        switch (method) {
+            case "sendmessage", "sendphoto", "senddocument", "editmessagetext", "editmessagereplymarkup" -> {
+                long messageId = params.has("message_id") ? params.get("message_id").getAsLong() : messageIds.incrementAndGet();
+                JsonObject m = message(messageId, chatId == null ? 0 : chatId);
+                if (params.has("text")) m.addProperty("text", params.get("text").getAsString());
+                if (method.equals("sendphoto")) m.add("photo", photo(messageId));
+                if (method.equals("senddocument")) m.add("document", file("doc-" + messageId));
+                if (chatId != null) rememberKeyboard(chatId, messageId, params.get("reply_markup"));
+                return m;
+            }
+            case "getme" -> {
+                JsonObject me = user(1);
+                me.addProperty("is_bot", true);
+                me.addProperty("username", "mock_bot");
+                return me;
+            }
+            default -> {
+                // answerCallbackQuery, deleteWebhook, setMyCommands, deleteMessage, ...
+                return JsonParser.parseString("true");
+            }
+        }
+    }
+
+    private void rememberKeyboard(long chatId, long messageId, JsonElement markup) {
+        if (markup == null || markup.isJsonNull()) return;
+        JsonObject kb = markup.isJsonPrimitive() ? JsonUtils.parseObj(markup.getAsString()) : markup.getAsJsonObject();
+        if (!kb.has("inline_keyboard")) return;
+        List<String> callbacks = new ArrayList<>();
+        for (JsonElement row : kb.getAsJsonArray("inline_keyboard")) {
+            for (JsonElement b : row.getAsJsonArray()) {
+                JsonObject button = b.getAsJsonObject();
+                if (button.has("callback_data")) callbacks.add(button.get("callback_data").getAsString());
+            }
+        }
+        keyboards.put(chatId, new Keyboard(messageId, callbacks));
+    }
+
+    private static JsonArray photo(long messageId) {
+        JsonObject p = file("photo-" + messageId);
+        p.addProperty("width", 1280);
+        p.addProperty("height", 720);
+        p.addProperty("file_size", 100_000);
+        JsonArray sizes = new JsonArray();
+        sizes.add(p);
+        return sizes;
+    }
+
+    private static JsonObject file(String id) {
+        JsonObject f = new JsonObject();
+        f.addProperty("file_id", id);
+        f.addProperty("file_unique_id", id);
+        return f;
+    }
+
+    private static JsonObject params(String contentType, byte[] body, String rawQuery) {
+        JsonObject p = new JsonObject();
+        if (rawQuery != null) form(rawQuery, p);
+        if (contentType.startsWith("application/json") && body.length > 0) {
+            JsonElement e = JsonParser.parseString(new String(body, StandardCharsets.UTF_8));
+            if (e.isJsonObject()) e.getAsJsonObject().entrySet().forEach(en -> p.add(en.getKey(), en.getValue()));
+        } else if (contentType.startsWith("application/x-www-form-urlencoded")) {
+            form(new String(body, StandardCharsets.UTF_8), p);
+        }
+        return p;
+    }
+
+    private static void form(String encoded, JsonObject into) {
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            into.addProperty(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+    }
+
+    /** chat_id from JSON or form params, or from a multipart upload (sendPhoto, sendDocument). */
+    private static Long chatId(JsonObject params, String contentType, byte[] body) {
+        try {
+            if (params.has("chat_id")) return params.get("chat_id").getAsLong();
+        } catch (RuntimeException e) {
+            // a @channel username
+            return null;
+        }
+        if (contentType.startsWith("multipart/form-data")) {
+            // the file part is binary; ISO-8859-1 keeps the byte offsets and the ASCII fields readable
+            Matcher m = MULTIPART_CHAT_ID.matcher(new String(body, StandardCharsets.ISO_8859_1));
+            if (m.find()) return Long.parseLong(m.group(1));
+        }
+        return null;
+    }
+
+    private static JsonObject ok(JsonElement result) {
+        JsonObject o = new JsonObject();
+        o.addProperty("ok", true);
+        o.add("result", result);
+        return o;
+    }
+
+    private static JsonObject error(int code, String description) {
+        JsonObject o = new JsonObject();
+        o.addProperty("ok", false);
+        o.addProperty("error_code", code);
+        o.addProperty("description", description);
+        return o;
+    }
+
+    private static void respond(HttpExchange ex, int status, JsonObject body) throws IOException {
+        byte[] bytes = JsonUtils.GSON.toJson(body).getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // --- metrics ---
+
+    private void replied(long chatId) {
+        Long since = awaitingReply.remove(chatId);
+        if (since == null) return;
+        long took = System.nanoTime() - since;
+        synchronized (latencies) {
+            latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = took;
+        }
+    }
+
+    private void report() {
+        long[] sample;
+        long total;
+        synchronized (latencies) {
+            total = latencyCount;
+            sample = Arrays.copyOf(latencies, (int) Math.min(total, LATENCY_SAMPLES));
+        }
+        Arrays.sort(sample);
+        StringBuilder sb = new StringBuilder("Mock: produced=").append(produced.sum())
+                .append(" delivered=").append(delivered.sum())
+                .append(" redelivered=").append(redelivered.sum())
+                .append(" queued=").append(pendingUpdates.size())
+                .append(" unconfirmed=").append(unconfirmed.size())
+                .append(" awaitingReply=").append(awaitingReply.size())
+                .append(" injected429=").append(injected429.sum())
+                .append("\n  calls: ").append(new TreeMap<>(calls))
+                .append("\n  reply latency over last ").append(sample.length).append(" of ").append(total).append(":");
+        if (sample.length > 0) {
+            sb.append(" p50=").append(ms(sample, 0.50)).append(" ms")
+                    .append(" p95=").append(ms(sample, 0.95)).append(" ms")
+                    .append(" p99=").append(ms(sample, 0.99)).append(" ms")
+                    .append(" max=").append(sample[sample.length - 1] / 1_000_000).append(" ms");
+        }
+        System.out.println(sb);
+    }
+
+    private static long ms(long[] sorted, double q) {
+        return sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))] / 1_000_000;
+    }
+}
@@ -0,0 +1,441 @@
+package ru.vadirss.bot.tools;
+
+import com.google.gson.JsonObject;
+import ru.vadirss.bot.config.Config;
+import ru.vadirss.bot.db.Database;
+import ru.vadirss.bot.db.Schema;
+import ru.vadirss.bot.model.PlayerAttributes;
+import ru.vadirss.bot.model.TeamEventType;
+import ru.vadirss.bot.service.PointsService;
+import ru.vadirss.bot.util.JsonUtils;
+import ru.vadirss.bot.util.TimeUtil;
+
+import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * Fills an empty database ({@code DB_PATH}, migrated by {@link Schema#migrate}) with synthetic teams, players,
+ * coaches and schedules, plus months of past training sessions with polls, challenges, coach ratings,
+ * points, team events and attribute history, for benchmarks and load tests.
+ * <p>
+ * Every team is generated from its own {@link Random} seeded by {@code seed} and the team number, and all
+ * dates are counted back from {@code until}, so the same arguments always give the same rows.
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt -Dmdep.includeScope=test
+ * DB_PATH=./data/bench.db java -cp target/test-classes:target/classes:$(cat cp.txt) ru.vadirss.bot.tools.SyntheticDataGenerator --teams=40 --players=25
+ * </pre>
+ *
+ * Options (all {@code --name=value}): {@code teams} 20, {@code players} per team 25, {@code coaches} per team 2,
+ * {@code days} trainings per week 3, {@code months} of history 6, {@code seed} 42, {@code until} first day
+ * not generated, default today, {@code first-chat-id} 1000000000 (the default of {@link MockTelegramServer}).
+ * Users of team {@code t} (from 0) get ids {@code first-chat-id + t * (players + coaches)} onwards, players first.
+ */
+public final class SyntheticDataGenerator {
+
+    /** Tables the generator fills, as reported after a run. */
+    static final List<String> TABLES = List.of("users", "training_sessions", "polls_morning", "polls_evening", "player_challenges",
+            "coach_ratings", "points_ledger", "team_events", "player_attribute_history");
+
+    private static final String[] POSITIONS = {"ВРТ", "ЦЗ", "ЛЗ", "ПЗ", "ЦП", "ЦАП", "ЛП", "ПП", "ФРВ", "НП"};
+    private static final String[] MOODS = {"HAPPY", "GOOD", "OK", "BAD", "SAD"};
+    private static final String[] FIRST_NAMES = {
+            "Александр", "Максим", "Артём", "Михаил", "Даниил", "Иван", "Дмитрий", "Кирилл", "Андрей", "Егор",
+            "Никита", "Илья", "Алексей", "Матвей", "Тимофей", "Роман", "Владимир", "Ярослав", "Фёдор", "Георгий"
+    };
+    private static final String[] LAST_NAMES = {
+            "Иванов", "Смирнов", "Кузнецов", "Попов", "Васильев", "Петров", "Соколов", "Михайлов", "Новиков", "Фёдоров",
+            "Морозов", "Волков", "Алексеев", "Лебедев", "Семёнов", "Егоров", "Павлов", "Козлов", "Степанов", "Николаев"
+    };
+    private static final String[] CHALLENGES = {
+            "🎯 Сделай 5 точных передач на тренировке.",
+            "🤝 Помоги 2 товарищам улучшить технику: подскажи и покажи.",
+            "🔥 Возглавь разминку на одной из тренировок.",
+            "🧠 Проанализируй свою частую ошибку и исправь ее в игре.",
+            "⚡ Добавь 3 ускорения на максимуме в игровых упражнениях.",
+            "🎯 Сделай 3 точные передачи в каждом упражнении.",
+            "🛡 Выиграй 5 единоборств за тренировку.",
+            "⚽ Нанеси 4 удара в створ ворот."
+    };
+    // snapshot keys, in the order of the player_attributes columns
+    private static final List<String> ATTRIBUTE_NAMES = List.copyOf(new PlayerAttributes().asOrderedMap().keySet());
+    private static final int ATTRIBUTES = ATTRIBUTE_NAMES.size();
+
+    private final int teams;
+    private final int players;
+    private final int coaches;
+    private final int daysPerWeek;
+    private final long seed;
+    private final LocalDate from;
+    private final LocalDate until;
+    private final long firstChatId;
+    private final ZoneId zone;
+
+    SyntheticDataGenerator(Map<String, String> opt, ZoneId zone) {
+        this.teams = Integer.parseInt(opt.getOrDefault("teams", "20"));
+        this.players = Integer.parseInt(opt.getOrDefault("players", "25"));
+        this.coaches = Math.max(1, Integer.parseInt(opt.getOrDefault("coaches", "2")));
+        this.daysPerWeek = Math.min(7, Math.max(1, Integer.parseInt(opt.getOrDefault("days", "3"))));
+        this.seed = Long.parseLong(opt.getOrDefault("seed", "42"));
+        this.until = opt.containsKey("until") ? LocalDate.parse(opt.get("until")) : LocalDate.now(zone);
+        this.from = until.minusMonths(Integer.parseInt(opt.getOrDefault("months", "6")));
+        this.firstChatId = Long.parseLong(opt.getOrDefault("first-chat-id", "1000000000"));
+        this.zone = zone;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--") || !a.contains("=")) throw new IllegalArgumentException("Expected --name=value, got " + a);
+            opt.put(a.substring(2, a.indexOf('=')), a.substring(a.indexOf('=') + 1));
+        }
+        Config cfg = Config.load();
+        Database db = new Database(cfg);
+        try {
+            Schema.migrate(db);
+            if (count(db, "users") > 0) {
+                System.err.println("Database " + cfg.dbPath().toAbsolutePath() + " already has users; point DB_PATH at a new file.");
+                System.exit(1);
+            }
+            SyntheticDataGenerator gen = new SyntheticDataGenerator(opt, cfg.zoneId());
+            long started = System.nanoTime();
+            gen.generate(db);
+            System.out.println("Generated " + gen.teams + " teams, " + gen.from + " .. " + gen.until.minusDays(1) +
+                    ", in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+            for (String table : TABLES) {
+                System.out.println("  " + table + ": " + count(db, table));
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /** Writes every team into {@code db}, one transaction per team. The schema must be migrated and empty. */
+    void generate(Database db) {
+        for (int t = 0; t < teams; t++) {
+            int team = t;
+            db.run(c -> team(c, team));
+        }
+    }
+
+    private static int count(Database db, String table) throws SQLException {
+        try (Connection c = db.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(1) FROM " + table)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /** One team with all its history, in the caller's transaction. */
+    private void team(Connection c, int t) throws SQLException {
+        Random rnd = new Random(seed * 1_000_003L + t);
+        long created = TimeUtil.startOfDay(from.minusDays(1 + rnd.nextInt(30)), zone);
+
+        long teamId;
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO teams(name, created_at) VALUES(?,?) RETURNING id")) {
+            ps.setString(1, String.format("Синтетика %03d", t + 1));
+            ps.setLong(2, created);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                teamId = rs.getLong(1);
+            }
+        }
+
+        long base = firstChatId + (long) t * (players + coaches);
+        long[] playerIds = new long[players];
+        long[] coachIds = new long[coaches];
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT INTO users(tg_id, chat_id, role, consent, full_name, phone, team_id, position, points, state, state_data, created_at, updated_at) " +
+                        "VALUES(?,?,?,1,?,?,?,?,0,'IDLE','{}',?,?)")) {
+            for (int i = 0; i < players + coaches; i++) {
+                boolean player = i < players;
+                long id = base + i;
+                if (player) playerIds[i] = id;
+                else coachIds[i - players] = id;
+                ps.setLong(1, id);
+                ps.setLong(2, id);
+                ps.setString(3, player ? "PLAYER" : "COACH");
+                ps.setString(4, LAST_NAMES[rnd.nextInt(LAST_NAMES.length)] + " " + FIRST_NAMES[rnd.nextInt(FIRST_NAMES.length)]);
+                ps.setString(5, String.format("+7 9%02d %03d-%02d-%02d", rnd.nextInt(100), rnd.nextInt(1000), rnd.nextInt(100), rnd.nextInt(100)));
+                if (player) ps.setLong(6, teamId);
+                else ps.setNull(6, Types.INTEGER);
+                if (player) ps.setString(7, POSITIONS[rnd.nextInt(POSITIONS.length)]);
+                else ps.setNull(7, Types.VARCHAR);
+                ps.setLong(8, created);
+                ps.setLong(9, created);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO team_coaches(team_id, coach_id) VALUES(?,?)")) {
+            for (long coach : coachIds) {
+                ps.setLong(1, teamId);
+                ps.setLong(2, coach);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        LocalTime[] startByDay = schedule(c, teamId, rnd);
+        new History(c, rnd, teamId, playerIds, coachIds).write(startByDay);
+    }
+
+    /** @return training start per ISO day of week (index 1..7), null on days off */
+    private LocalTime[] schedule(Connection c, long teamId, Random rnd) throws SQLException {
+        List<Integer> days = new ArrayList<>(List.of(1, 2, 3, 4, 5, 6, 7));
+        Collections.shuffle(days, rnd);
+        LocalTime[] byDay = new LocalTime[8];
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO schedules(team_id, day_of_week, start_time, end_time) VALUES(?,?,?,?)")) {
+            for (int day : days.subList(0, daysPerWeek)) {
+                LocalTime start = LocalTime.of(16, 0).plusMinutes(30L * rnd.nextInt(8));
+                byDay[day] = start;
+                ps.setLong(1, teamId);
+                ps.setInt(2, day);
+                ps.setString(3, start.toString());
+                ps.setString(4, start.plusMinutes(90).toString());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        return byDay;
+    }
+
+    /** Sessions and everything that hangs off them for one team, in date order. */
+    private final class History {
+        final Connection c;
+        final Random rnd;
+        final long teamId;
+        final long[] playerIds;
+        final long[] coachIds;
+        final int[] points;
+        final double[][] attributes;
+
+        final PreparedStatement session;
+        final PreparedStatement morning;
+        final PreparedStatement evening;
+        final PreparedStatement challenge;
+        final PreparedStatement rating;
+        final PreparedStatement ledger;
+        final PreparedStatement event;
+        final PreparedStatement attributeHistory;
+
+        History(Connection c, Random rnd, long teamId, long[] playerIds, long[] coachIds) throws SQLException {
+            this.c = c;
+            this.rnd = rnd;
+            this.teamId = teamId;
+            this.playerIds = playerIds;
+            this.coachIds = coachIds;
+            this.points = new int[playerIds.length];
+            this.attributes = new double[playerIds.length][ATTRIBUTES];
+            for (double[] a : attributes) {
+                for (int i = 0; i < ATTRIBUTES; i++) a[i] = 2 + rnd.nextInt(5);
+            }
+            this.session = c.prepareStatement(
+                    "INSERT INTO training_sessions(team_id, date, start_datetime, end_datetime, status, morning_poll_sent, reminder_sent, " +
+                            "challenges_sent, coach_prompt_sent, evening_poll_sent, coach_rating_sent, challenges_expired, created_at) " +
+                            "VALUES(?,?,?,?,'PLANNED',1,1,1,1,1,1,1,?) RETURNING id");
+            this.morning = c.prepareStatement(
+                    "INSERT INTO polls_morning(session_id, date, player_id, energy, sleep, readiness, mood, created_at) VALUES(?,?,?,?,?,?,?,?)");
+            this.evening = c.prepareStatement(
+                    "INSERT INTO polls_evening(session_id, date, player_id, self_rating, created_at) VALUES(?,?,?,?,?)");
+            this.challenge = c.prepareStatement(
+                    "INSERT INTO player_challenges(session_id, player_id, text, source, status, marked_by, marked_at, created_at) " +
+                            "VALUES(?,?,?,?,?,?,?,?) RETURNING id");
+            this.rating = c.prepareStatement(
+                    "INSERT INTO coach_ratings(session_id, player_id, lim, t2, eiq, created_at) VALUES(?,?,?,?,?,?)");
+            this.ledger = c.prepareStatement(
+                    "INSERT INTO points_ledger(user_id, delta, reason, ref, created_at) VALUES(?,?,?,?,?)");
+            this.event = c.prepareStatement(
+                    "INSERT INTO team_events(team_id, created_at, type, user_id, payload) VALUES(?,?,?,?,?)");
+            this.attributeHistory = c.prepareStatement(
+                    "INSERT INTO player_attribute_history(player_id, snapshot_json, created_at) VALUES(?,?,?)");
+        }
+
+        void write(LocalTime[] startByDay) throws SQLException {
+            try {
+                for (LocalDate d = from; d.isBefore(until); d = d.plusDays(1)) {
+                    LocalTime start = startByDay[d.getDayOfWeek().getValue()];
+                    if (start != null) training(d, start);
+                    // coaches update attributes about once a month
+                    if (d.getDayOfWeek() == DayOfWeek.SUNDAY && d.getDayOfMonth() <= 7) attributeSnapshots(d);
+                }
+                morning.executeBatch();
+                evening.executeBatch();
+                rating.executeBatch();
+                ledger.executeBatch();
+                event.executeBatch();
+                attributeHistory.executeBatch();
+                finish();
+            } finally {
+                for (PreparedStatement ps : List.of(session, morning, evening, challenge, rating, ledger, event, attributeHistory)) ps.close();
+            }
+        }
+
+        private void training(LocalDate date, LocalTime start) throws SQLException {
+            long day = date.toEpochDay();
+            long startMs = TimeUtil.toMillis(LocalDateTime.of(date, start), zone);
+            long endMs = startMs + 90 * 60_000L;
+
+            long sessionId;
+            session.setLong(1, teamId);
+            session.setLong(2, day);
+            session.setLong(3, startMs);
+            session.setLong(4, endMs);
+            session.setLong(5, TimeUtil.startOfDay(date, zone));
+            try (ResultSet rs = session.executeQuery()) {
+                rs.next();
+                sessionId = rs.getLong(1);
+            }
+
+            long coach = coachIds[rnd.nextInt(coachIds.length)];
+            long morningAt = TimeUtil.toMillis(date.atTime(9, 0), zone);
+            long eveningAt = TimeUtil.toMillis(date.atTime(22, 0), zone);
+            for (int i = 0; i < playerIds.length; i++) {
+                long player = playerIds[i];
+                // players differ in how diligent they are, but each stays roughly the same
+                double diligence = 0.4 + 0.5 * ((player * 2654435761L >>> 8) % 100) / 100.0;
+
+                if (rnd.nextDouble() < diligence + 0.1) {
+                    long at = morningAt + rnd.nextInt(3 * 3_600_000);
+                    morning.setLong(1, sessionId);
+                    morning.setLong(2, day);
+                    morning.setLong(3, player);
+                    morning.setInt(4, 1 + rnd.nextInt(10));
+                    morning.setInt(5, 1 + rnd.nextInt(10));
+                    morning.setInt(6, 1 + rnd.nextInt(10));
+                    morning.setString(7, MOODS[rnd.nextInt(MOODS.length)]);
+                    morning.setLong(8, at);
+                    morning.addBatch();
+                    award(i, 5, "MORNING_POLL", "date:" + date, at);
+                }
+
+                challenge(sessionId, i, coach, startMs, endMs, diligence);
+
+                if (rnd.nextDouble() < 0.85) {
+                    rating.setLong(1, sessionId);
+                    rating.setLong(2, player);
+                    rating.setInt(3, rnd.nextInt(5));
+                    rating.setInt(4, rnd.nextInt(4));
+                    rating.setInt(5, rnd.nextInt(3));
+                    rating.setLong(6, endMs + 5 * 60_000L + rnd.nextInt(3_600_000));
+                    rating.addBatch();
+                }
+
+                if (rnd.nextDouble() < diligence) {
+                    evening.setLong(1, sessionId);
+                    evening.setLong(2, day);
+                    evening.setLong(3, player);
+                    evening.setInt(4, 1 + rnd.nextInt(10));
+                    evening.setLong(5, eveningAt + rnd.nextInt(90 * 60_000));
+                    evening.addBatch();
+                }
+            }
+        }
+
+        private void challenge(long sessionId, int i, long coach, long startMs, long endMs, double diligence) throws SQLException {
+            String text = CHALLENGES[rnd.nextInt(CHALLENGES.length)];
+            double r = rnd.nextDouble();
+            String status = r < diligence ? "COMPLETED" : r < diligence + 0.25 ? "FAILED" : "EXPIRED";
+            long markedAt = endMs + ("EXPIRED".equals(status) ? 30 * 60_000L : rnd.nextInt(30 * 60_000));
+
+            challenge.setLong(1, sessionId);
+            challenge.setLong(2, playerIds[i]);
+            challenge.setString(3, text);
+            challenge.setString(4, rnd.nextInt(3) == 0 ? "COACH" : "AI");
+            challenge.setString(5, status);
+            if ("EXPIRED".equals(status)) challenge.setNull(6, Types.INTEGER);
+            else challenge.setLong(6, coach);
+            challenge.setLong(7, markedAt);
+            challenge.setLong(8, startMs - 120 * 60_000L);
+            long challengeId;
+            try (ResultSet rs = challenge.executeQuery()) {
+                rs.next();
+                challengeId = rs.getLong(1);
+            }
+
+            if ("COMPLETED".equals(status)) {
+                award(i, 25, "CHALLENGE", "challenge:" + challengeId, markedAt);
+                JsonObject payload = new JsonObject();
+                payload.addProperty("challenge", text);
+                event(TeamEventType.CHALLENGE_COMPLETED, playerIds[i], payload, markedAt);
+            }
+        }
+
+        private void award(int i, int delta, String reason, String ref, long at) throws SQLException {
+            ledger.setLong(1, playerIds[i]);
+            ledger.setInt(2, delta);
+            ledger.setString(3, reason);
+            ledger.setString(4, ref);
+            ledger.setLong(5, at);
+            ledger.addBatch();
+
+            var before = PointsService.LevelInfo.ofPoints(points[i]);
+            points[i] += delta;
+            var after = PointsService.LevelInfo.ofPoints(points[i]);
+            if (!before.name().equals(after.name())) {
+                JsonObject payload = new JsonObject();
+                payload.addProperty("from", before.name());
+                payload.addProperty("to", after.name());
+                payload.addProperty("points", points[i]);
+                event(TeamEventType.LEVEL_UP, playerIds[i], payload, at);
+            }
+        }
+
+        private void event(TeamEventType type, long userId, JsonObject payload, long at) throws SQLException {
+            event.setLong(1, teamId);
+            event.setLong(2, at);
+            event.setString(3, type.name());
+            event.setLong(4, userId);
+            event.setString(5, JsonUtils.GSON.toJson(payload));
+            event.addBatch();
+        }
+
+        private void attributeSnapshots(LocalDate date) throws SQLException {
+            long at = TimeUtil.toMillis(date.atTime(12, 0), zone);
+            for (int i = 0; i < playerIds.length; i++) {
+                double[] a = attributes[i];
+                for (int k = 0; k < ATTRIBUTES; k++) a[k] = Math.max(0, Math.min(10, a[k] + rnd.nextInt(3) - 0.8));
+                attributeHistory.setLong(1, playerIds[i]);
+                attributeHistory.setString(2, JsonUtils.GSON.toJson(snapshot(a)));
+                attributeHistory.setLong(3, at);
+                attributeHistory.addBatch();
+            }
+        }
+
+        /** Final attributes and point totals. */
+        private void finish() throws SQLException {
+            long now = TimeUtil.startOfDay(until, zone);
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO player_attributes(player_id, short_pass, first_touch, long_pass, positioning, heading, ball_battle," +
+                            "strength, flexibility, speed, endurance, agility," +
+                            "analysis, communication, teamwork, concentration, nervousness, leadership, updated_at) " +
+                            "VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+                 PreparedStatement up = c.prepareStatement("UPDATE users SET points=?, updated_at=? WHERE tg_id=?")) {
+                for (int i = 0; i < playerIds.length; i++) {
+                    ps.setLong(1, playerIds[i]);
+                    for (int k = 0; k < ATTRIBUTES; k++) ps.setDouble(2 + k, attributes[i][k]);
+                    ps.setLong(2 + ATTRIBUTES, now);
+                    ps.addBatch();
+
+                    up.setInt(1, points[i]);
+                    up.setLong(2, now);
+                    up.setLong(3, playerIds[i]);
+                    up.addBatch();
+                }
+                ps.executeBatch();
+                up.executeBatch();
+            }
+        }
+    }
+
+    private static JsonObject snapshot(double[] a) {
+        JsonObject o = JsonUtils.obj();
+        for (int k = 0; k < ATTRIBUTE_NAMES.size(); k++) o.addProperty(ATTRIBUTE_NAMES.get(k), a[k]);
+        return o;
+    }
+}
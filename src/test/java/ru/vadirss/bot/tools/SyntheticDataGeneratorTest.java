@@ -0,0 +1,106 @@
+package ru.vadirss.bot.tools;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.vadirss.bot.config.Config;
+import ru.vadirss.bot.db.Database;
+import ru.vadirss.bot.db.Schema;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticDataGeneratorTest {
+
+    private static final Map<String, String> OPTIONS = Map.of(
+            "teams", "1", "players", "3", "coaches", "1", "months", "1", "seed", "7", "until", "2024-10-01");
+    // everything the generator writes, including the tables it does not report
+    private static final List<String> ALL_TABLES = Stream.concat(SyntheticDataGenerator.TABLES.stream(),
+            Stream.of("teams", "team_coaches", "schedules", "player_attributes")).toList();
+
+    private final List<Path> dirs = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        System.clearProperty("DB_PATH");
+        for (Path dir : dirs) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Test
+    void sameSeedGivesSameRows() throws Exception {
+        Map<String, List<String>> first = generate(OPTIONS);
+        Map<String, List<String>> second = generate(OPTIONS);
+
+        for (String table : ALL_TABLES) {
+            assertEquals(first.get(table).size(), second.get(table).size(), table + " row count");
+            assertEquals(first.get(table), second.get(table), table + " rows");
+        }
+        assertEquals(4, first.get("users").size());
+        assertFalse(first.get("training_sessions").isEmpty());
+        assertFalse(first.get("player_challenges").isEmpty());
+    }
+
+    @Test
+    void otherSeedGivesOtherRows() throws Exception {
+        Map<String, List<String>> first = generate(OPTIONS);
+        Map<String, String> reseeded = new HashMap<>(OPTIONS);
+        reseeded.put("seed", "8");
+        Map<String, List<String>> second = generate(reseeded);
+
+        assertNotEquals(first.get("users"), second.get("users"));
+    }
+
+    /** @return every generated table's rows, each row as text, in a stable order */
+    private Map<String, List<String>> generate(Map<String, String> options) throws Exception {
+        Path dir = Files.createTempDirectory("synthetic-test");
+        dirs.add(dir);
+        System.setProperty("DB_PATH", dir.resolve("bot.db").toString());
+        Database db = new Database(Config.load());
+        try {
+            Schema.migrate(db);
+            new SyntheticDataGenerator(options, ZoneId.of("Europe/Moscow")).generate(db);
+            Map<String, List<String>> out = new HashMap<>();
+            for (String table : ALL_TABLES) out.put(table, rows(db, table));
+            return out;
+        } finally {
+            db.close();
+        }
+    }
+
+    private static List<String> rows(Database db, String table) throws SQLException {
+        List<String> out = new ArrayList<>();
+        try (Connection c = db.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT * FROM " + table)) {
+            int columns = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columns; i++) {
+                    if (i > 1) row.append('|');
+                    row.append(rs.getMetaData().getColumnName(i)).append('=').append(rs.getString(i));
+                }
+                out.add(row.toString());
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+}
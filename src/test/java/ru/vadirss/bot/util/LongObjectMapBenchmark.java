@@ -0,0 +1,110 @@
+package ru.vadirss.bot.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LongObjectMap} against {@code HashMap<Long, …>} for the user cache's access pattern:
+ * lookups by Telegram id, mostly hits, and filling a map of the whole roster.
+ * Not run by {@code mvn test}; after {@code mvn test-compile}:
+ * <pre>
+ * mvn dependency:build-classpath -Dmdep.outputFile=cp.txt -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main LongObjectMapBenchmark -prof gc
+ * </pre>
+ * {@code -prof gc} shows the allocation per operation, which is where the boxed keys show up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LongObjectMapBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({"1000", "50000"})
+    public int size;
+
+    private long[] keys;
+    // LOOKUPS keys to look up, present or absent
+    private long[] hits;
+    private long[] misses;
+
+    private LongObjectMap<Object> primitive;
+    private HashMap<Long, Object> boxed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rnd = new Random(42);
+        keys = new long[size];
+        for (int i = 0; i < size; i++) keys[i] = tgId(rnd);
+        hits = new long[LOOKUPS];
+        misses = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            hits[i] = keys[rnd.nextInt(size)];
+            misses[i] = tgId(rnd) | 1L << 40;
+        }
+
+        primitive = new LongObjectMap<>();
+        boxed = new HashMap<>();
+        for (long k : keys) {
+            primitive.put(k, Boolean.TRUE);
+            boxed.put(k, Boolean.TRUE);
+        }
+    }
+
+    // Telegram user ids: positive, up to ten digits
+    private static long tgId(Random rnd) {
+        return 100_000_000L + (rnd.nextLong() & Long.MAX_VALUE) % 7_900_000_000L;
+    }
+
+    @Benchmark
+    public void getHitLongObjectMap(Blackhole bh) {
+        for (long k : hits) bh.consume(primitive.get(k));
+    }
+
+    @Benchmark
+    public void getHitHashMap(Blackhole bh) {
+        for (long k : hits) bh.consume(boxed.get(k));
+    }
+
+    @Benchmark
+    public void getMissLongObjectMap(Blackhole bh) {
+        for (long k : misses) bh.consume(primitive.get(k));
+    }
+
+    @Benchmark
+    public void getMissHashMap(Blackhole bh) {
+        for (long k : misses) bh.consume(boxed.get(k));
+    }
+
+    @Benchmark
+    public LongObjectMap<Object> fillLongObjectMap() {
+        LongObjectMap<Object> m = new LongObjectMap<>();
+        for (long k : keys) m.put(k, Boolean.TRUE);
+        return m;
+    }
+
+    @Benchmark
+    public HashMap<Long, Object> fillHashMap() {
+        HashMap<Long, Object> m = new HashMap<>();
+        for (long k : keys) m.put(k, Boolean.TRUE);
+        return m;
+    }
+}